@@ -1,11 +1,9 @@
 package com.winlator.Download;
 
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
@@ -16,13 +14,15 @@ import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.CheckBox;
+import android.widget.FrameLayout;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.FileProvider;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -32,12 +32,18 @@ import com.google.android.material.color.MaterialColors;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.winlator.Download.adapter.DownloadAdapter;
+import com.winlator.Download.db.DownloadRepository;
 import com.winlator.Download.model.Download;
+import com.winlator.Download.service.DownloadProgressBus;
 import com.winlator.Download.service.DownloadService;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class DownloadManagerActivity extends AppCompatActivity implements DownloadAdapter.OnDownloadActionListener {
 
@@ -50,6 +56,22 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
     private Handler handler;
     private Runnable refreshRunnable;
     private ActionMode actionMode;
+    // Histórico paginado: só as páginas já exibidas são recarregadas a cada mudança de status
+    private static final int PAGE_SIZE = 50;
+    // Carregar a próxima página quando faltarem tantos itens para o fim da lista
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+    private final List<Download> loadedDownloads = new ArrayList<>();
+    private boolean hasMorePages = false;
+    private boolean loadingPage = false;
+    // Removidos enquanto uma página era lida: a página pode trazê-los de volta
+    private final Set<Long> deletedWhileLoading = new HashSet<>();
+    // Concluídos de todas as páginas, para o botão de limpar: lidos uma vez em segundo plano e
+    // depois mantidos pelas mudanças do repositório
+    private final Set<Long> completedIds = new HashSet<>();
+    private boolean completedIdsLoaded = false;
+    // Mudanças chegadas antes da leitura terminar (id -> concluído), aplicadas sobre ela
+    private final Map<Long, Boolean> completedChangesWhileLoading = new HashMap<>();
+    private DownloadRepository downloadRepository;
 
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
@@ -57,7 +79,6 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
             DownloadService.DownloadBinder binder = (DownloadService.DownloadBinder) service;
             downloadService = binder.getService();
             isBound = true;
-            loadDownloads();
         }
 
         @Override
@@ -67,22 +88,14 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
         }
     };
 
-    private final BroadcastReceiver downloadProgressReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (DownloadService.ACTION_DOWNLOAD_PROGRESS.equals(intent.getAction())) {
-                long downloadId = intent.getLongExtra(DownloadService.EXTRA_DOWNLOAD_ID, -1);
-                int progress = intent.getIntExtra("progress", 0);
-                long downloadedBytes = intent.getLongExtra("downloadedBytes", 0);
-                long totalBytes = intent.getLongExtra("totalBytes", 0);
-                double speed = intent.getDoubleExtra("speed", 0);
-                
-                if (adapter != null) {
-                    adapter.updateDownloadProgress(downloadId, progress, downloadedBytes, totalBytes, speed);
-                }
-            } else if (DownloadService.ACTION_DOWNLOAD_STATUS_CHANGED.equals(intent.getAction())) {
-                loadDownloads();
-            }
+    // Mudanças de status, inserções e remoções, linha a linha, em vez de reler a lista
+    private final DownloadRepository.Listener downloadsListener = this::applyChanges;
+
+    // Progresso em tempo real: no máximo uma atualização por frame para cada download
+    private final DownloadProgressBus.Observer progressObserver = progress -> {
+        if (adapter != null) {
+            adapter.updateDownloadProgress(progress.getDownloadId(), progress.getDownloadedBytes(),
+                    progress.getTotalBytes(), progress.getSpeed(), progress.getEtaSeconds());
         }
     };
 
@@ -138,9 +151,18 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
         fabClearCompleted = findViewById(R.id.fabClearCompleted);
 
         // Configurar RecyclerView
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
         adapter = new DownloadAdapter(this, this);
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PAGE_PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
 
         // Configurar o botão de limpar downloads concluídos
         fabClearCompleted.setOnClickListener(v -> showClearCompletedDialog());
@@ -149,11 +171,14 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
         handler = new Handler(Looper.getMainLooper());
         // refreshRunnable = this::loadDownloads;
 
-        // Registrar o receiver para atualizações de progresso
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(DownloadService.ACTION_DOWNLOAD_PROGRESS);
-        filter.addAction(DownloadService.ACTION_DOWNLOAD_STATUS_CHANGED);
-        LocalBroadcastManager.getInstance(this).registerReceiver(downloadProgressReceiver, filter);
+        // Registrar o listener de mudanças por linha e o observer de progresso
+        downloadRepository = DownloadRepository.getInstance(this);
+        downloadRepository.addListener(downloadsListener);
+        DownloadProgressBus.getInstance().addObserver(progressObserver);
+
+        // A lista vem do repositório, sem esperar o serviço; a primeira página é lida em segundo plano
+        loadNextPage();
+        downloadRepository.loadDownloadIdsWithStatus(Download.STATUS_COMPLETED, this::onCompletedIdsLoaded);
 
         // Vincular ao serviço de download
         Intent serviceIntent = new Intent(this, DownloadService.class);
@@ -180,8 +205,9 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Desregistrar o receiver
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(downloadProgressReceiver);
+        // Desregistrar o listener
+        downloadRepository.removeListener(downloadsListener);
+        DownloadProgressBus.getInstance().removeObserver(progressObserver);
         
         // Desvincular do serviço
         if (isBound) {
@@ -199,32 +225,137 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
         return super.onOptionsItemSelected(item);
     }
 
-    private void loadDownloads() {
-        if (isBound && downloadService != null) {
-            List<Download> downloads = downloadService.getAllDownloads();
-            adapter.updateData(downloads);
-            
-            // Atualizar visibilidade do texto "Nenhum download"
-            if (downloads.isEmpty()) {
-                noDownloadsTextView.setVisibility(View.VISIBLE);
-                fabClearCompleted.setVisibility(View.GONE);
+    private void loadNextPage() {
+        if (loadingPage || (!hasMorePages && !loadedDownloads.isEmpty())) return;
+        loadingPage = true;
+        deletedWhileLoading.clear();
+        long afterTimestamp = Long.MAX_VALUE;
+        long afterId = Long.MAX_VALUE;
+        if (!loadedDownloads.isEmpty()) {
+            Download oldest = loadedDownloads.get(loadedDownloads.size() - 1);
+            afterTimestamp = oldest.getTimestamp();
+            afterId = oldest.getId();
+        }
+        downloadRepository.loadDownloadsPage(afterTimestamp, afterId, PAGE_SIZE, this::onPageLoaded);
+    }
+
+    private void onPageLoaded(List<Download> page) {
+        if (isDestroyed()) return;
+        loadingPage = false;
+        hasMorePages = page.size() == PAGE_SIZE;
+        for (Download download : page) {
+            // Mudanças chegadas durante a leitura valem mais que a página
+            if (indexOf(download.getId()) < 0 && !deletedWhileLoading.contains(download.getId())) {
+                loadedDownloads.add(insertionPosition(download), download);
+            }
+        }
+        deletedWhileLoading.clear();
+        showDownloads();
+    }
+
+    private void onCompletedIdsLoaded(Set<Long> ids) {
+        if (isDestroyed()) return;
+        completedIds.addAll(ids);
+        for (Map.Entry<Long, Boolean> entry : completedChangesWhileLoading.entrySet()) {
+            trackCompleted(entry.getKey(), entry.getValue());
+        }
+        completedChangesWhileLoading.clear();
+        completedIdsLoaded = true;
+        showDownloads();
+    }
+
+    private void trackCompleted(long downloadId, boolean completed) {
+        if (completed) {
+            completedIds.add(downloadId);
+        } else {
+            completedIds.remove(downloadId);
+        }
+    }
+
+    /**
+     * Aplica as mudanças do repositório à janela carregada. Uma linha que passa a ficar depois
+     * da última carregada sai da lista: volta quando a página dela for lida.
+     */
+    private void applyChanges(List<DownloadRepository.Change> changes) {
+        for (DownloadRepository.Change change : changes) {
+            boolean completed = change.getType() != DownloadRepository.Change.DELETED
+                    && change.getDownload().getStatus() == Download.STATUS_COMPLETED;
+            if (completedIdsLoaded) {
+                trackCompleted(change.getDownloadId(), completed);
             } else {
-                noDownloadsTextView.setVisibility(View.GONE);
-                
-                // Verificar se há downloads concluídos para mostrar o botão de limpar
-                boolean hasCompleted = false;
-                for (Download download : downloads) {
-                    if (download.getStatus() == Download.STATUS_COMPLETED) {
-                        hasCompleted = true;
-                        break;
-                    }
+                completedChangesWhileLoading.put(change.getDownloadId(), completed);
+            }
+
+            int index = indexOf(change.getDownloadId());
+            if (change.getType() == DownloadRepository.Change.DELETED) {
+                if (loadingPage) {
+                    deletedWhileLoading.add(change.getDownloadId());
+                }
+                if (index >= 0) {
+                    loadedDownloads.remove(index);
+                }
+                continue;
+            }
+
+            Download download = change.getDownload();
+            if (index >= 0) {
+                // Estado só da tela: seleção e velocidade vêm do item exibido
+                Download shown = loadedDownloads.remove(index);
+                download.setSelected(shown.isSelected());
+                download.setSpeed(shown.getSpeed());
+                download.setEtaSeconds(shown.getEtaSeconds());
+                // O progresso em tempo real está à frente do último salvo no banco
+                if (download.getStatus() == Download.STATUS_DOWNLOADING
+                        && shown.getDownloadedBytes() > download.getDownloadedBytes()) {
+                    download.setDownloadedBytes(shown.getDownloadedBytes());
                 }
-                fabClearCompleted.setVisibility(hasCompleted ? View.VISIBLE : View.GONE);
             }
-            
-            // Agendar próxima atualização
-            // handler.removeCallbacks(refreshRunnable);
-            // handler.postDelayed(refreshRunnable, 1000);
+            int position = insertionPosition(download);
+            if (position == loadedDownloads.size() && hasMorePages) {
+                continue;
+            }
+            loadedDownloads.add(position, download);
+        }
+        showDownloads();
+    }
+
+    private int indexOf(long downloadId) {
+        for (int i = 0; i < loadedDownloads.size(); i++) {
+            if (loadedDownloads.get(i).getId() == downloadId) return i;
+        }
+        return -1;
+    }
+
+    // Posição na ordem do histórico (mais recente primeiro, desempate pelo id), por busca binária
+    private int insertionPosition(Download download) {
+        int low = 0;
+        int high = loadedDownloads.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            Download other = loadedDownloads.get(middle);
+            boolean otherIsNewer = other.getTimestamp() > download.getTimestamp()
+                    || (other.getTimestamp() == download.getTimestamp() && other.getId() > download.getId());
+            if (otherIsNewer) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // A lista é comparada com a exibida em segundo plano: só as linhas que mudaram são redesenhadas
+    private void showDownloads() {
+        adapter.updateData(new ArrayList<>(loadedDownloads));
+
+        // Atualizar visibilidade do texto "Nenhum download"
+        if (loadedDownloads.isEmpty()) {
+            noDownloadsTextView.setVisibility(loadingPage ? View.GONE : View.VISIBLE);
+            fabClearCompleted.setVisibility(View.GONE);
+        } else {
+            noDownloadsTextView.setVisibility(View.GONE);
+            // Vale também para as páginas ainda não carregadas
+            fabClearCompleted.setVisibility(!completedIds.isEmpty() ? View.VISIBLE : View.GONE);
         }
     }
 
@@ -258,6 +389,13 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
 
     @Override
     public void onInstallDownload(Download download) {
+        // Arquivos compactados (jogos) são extraídos em vez de instalados
+        if (isBound && downloadService != null && downloadService.canExtractDownload(download)) {
+            if (downloadService.extractDownload(download.getId())) {
+                Toast.makeText(this, "Extraindo " + download.getFileName() + "...", Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
         File file = new File(download.getLocalPath());
         if (file.exists()) {
             Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".provider", file);
@@ -293,13 +431,21 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
     }
 
     private void showClearCompletedDialog() {
+        final CheckBox deleteFilesCheckBox = new CheckBox(this);
+        deleteFilesCheckBox.setText(R.string.clear_completed_delete_files);
+        int padding = Math.round(20 * getResources().getDisplayMetrics().density);
+        deleteFilesCheckBox.setPadding(deleteFilesCheckBox.getPaddingLeft(), padding / 2, 0, 0);
+        FrameLayout container = new FrameLayout(this);
+        container.setPadding(padding, 0, padding, 0);
+        container.addView(deleteFilesCheckBox);
+
         new MaterialAlertDialogBuilder(this)
                 .setTitle(R.string.clear_completed_downloads)
                 .setMessage(R.string.confirm_clear_completed)
+                .setView(container)
                 .setPositiveButton(R.string.yes, (dialog, which) -> {
                     if (isBound && downloadService != null) {
-                        downloadService.clearCompletedDownloads();
-                        loadDownloads();
+                        downloadService.clearCompletedDownloads(deleteFilesCheckBox.isChecked());
                     }
                 })
                 .setNegativeButton(R.string.no, null)
@@ -322,7 +468,6 @@ public class DownloadManagerActivity extends AppCompatActivity implements Downlo
                             if (actionMode != null) {
                                 actionMode.finish();
                             }
-                            loadDownloads();
                         }
                     })
                     .setNegativeButton(R.string.no, null)
@@ -121,27 +121,10 @@ public class ReleasesFragment extends Fragment implements ReleasesAdapter.OnRele
             Toast.makeText(mContext, "Iniciando download: " + assetName, Toast.LENGTH_SHORT).show();
             Intent serviceIntent = new Intent(mContext, DownloadService.class);
 
-            if (downloadUrl.contains("gofile.io/d/") || downloadUrl.contains("gofile.io/download/")) {
-                Log.d(TAG, "Gofile URL detected: " + downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_ACTION, DownloadService.ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD);
-                serviceIntent.putExtra(DownloadService.EXTRA_GOFILE_URL, downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, assetName);
-            } else if (downloadUrl.contains("www.mediafire.com/file/")) {
-                Log.d(TAG, "MediaFire URL detected: " + downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_ACTION, DownloadService.ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD);
-                serviceIntent.putExtra(DownloadService.EXTRA_MEDIAFIRE_URL, downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, assetName);
-            } else if (downloadUrl.contains("drive.google.com")) { // Added Google Drive check
-                Log.d(TAG, "Google Drive URL detected: " + downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_ACTION, DownloadService.ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD);
-                serviceIntent.putExtra(DownloadService.EXTRA_GOOGLE_DRIVE_URL, downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, assetName); // Placeholder
-            } else {
-                Log.d(TAG, "Standard URL detected: " + downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_ACTION, DownloadService.ACTION_START_DOWNLOAD);
-                serviceIntent.putExtra(DownloadService.EXTRA_URL, downloadUrl);
-                serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, assetName);
-            }
+            // O serviço resolve links de página (Gofile, MediaFire...) e baixa os demais diretamente
+            serviceIntent.putExtra(DownloadService.EXTRA_ACTION, DownloadService.ACTION_RESOLVE_AND_START);
+            serviceIntent.putExtra(DownloadService.EXTRA_URL, downloadUrl);
+            serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, assetName);
 
             mContext.startService(serviceIntent);
             
@@ -25,6 +25,14 @@ public class SettingsActivity extends AppCompatActivity {
     private MaterialButton btn_select_download_folder; // Changed type
     private TextView tv_selected_download_folder;
     private SwitchMaterial switch_direct_community_downloads;
+    private SwitchMaterial switch_queue_smallest_first;
+    private SwitchMaterial switch_group_download_notifications;
+    private SwitchMaterial switch_auto_extract_archives;
+    private SwitchMaterial switch_delete_archive_after_extract;
+    private MaterialButton btn_global_bandwidth_limit;
+    private TextView tv_global_bandwidth_limit;
+    private MaterialButton btn_per_download_bandwidth_limit;
+    private TextView tv_per_download_bandwidth_limit;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -48,6 +56,14 @@ public class SettingsActivity extends AppCompatActivity {
         btn_select_download_folder = findViewById(R.id.btn_select_download_folder);
         tv_selected_download_folder = findViewById(R.id.tv_selected_download_folder);
         switch_direct_community_downloads = findViewById(R.id.switch_direct_community_downloads);
+        switch_queue_smallest_first = findViewById(R.id.switch_queue_smallest_first);
+        switch_group_download_notifications = findViewById(R.id.switch_group_download_notifications);
+        switch_auto_extract_archives = findViewById(R.id.switch_auto_extract_archives);
+        switch_delete_archive_after_extract = findViewById(R.id.switch_delete_archive_after_extract);
+        btn_global_bandwidth_limit = findViewById(R.id.btn_global_bandwidth_limit);
+        tv_global_bandwidth_limit = findViewById(R.id.tv_global_bandwidth_limit);
+        btn_per_download_bandwidth_limit = findViewById(R.id.btn_per_download_bandwidth_limit);
+        tv_per_download_bandwidth_limit = findViewById(R.id.tv_per_download_bandwidth_limit);
     }
 
     private void loadSettings() {
@@ -56,6 +72,12 @@ public class SettingsActivity extends AppCompatActivity {
         tv_selected_download_folder.setText(downloadPath);
         boolean disableDirectDownloads = AppSettings.getDisableDirectDownloads(this);
         switch_direct_community_downloads.setChecked(disableDirectDownloads);
+        switch_queue_smallest_first.setChecked(AppSettings.getQueueSmallestFirst(this));
+        switch_group_download_notifications.setChecked(AppSettings.getGroupDownloadNotifications(this));
+        switch_auto_extract_archives.setChecked(AppSettings.getAutoExtractArchives(this));
+        switch_delete_archive_after_extract.setChecked(AppSettings.getDeleteArchiveAfterExtract(this));
+        tv_global_bandwidth_limit.setText(formatBandwidthLimit(AppSettings.getGlobalBandwidthLimitKbps(this)));
+        tv_per_download_bandwidth_limit.setText(formatBandwidthLimit(AppSettings.getPerDownloadBandwidthLimitKbps(this)));
     }
 
     private void setupClickListeners() {
@@ -107,6 +129,87 @@ public class SettingsActivity extends AppCompatActivity {
                 AppSettings.setDisableDirectDownloads(this, isChecked); // Use AppSettings to set value
             });
         }
+
+        if (switch_queue_smallest_first != null) {
+            switch_queue_smallest_first.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                AppSettings.setQueueSmallestFirst(this, isChecked);
+            });
+        }
+
+        if (switch_group_download_notifications != null) {
+            switch_group_download_notifications.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                AppSettings.setGroupDownloadNotifications(this, isChecked);
+            });
+        }
+
+        if (switch_auto_extract_archives != null) {
+            switch_auto_extract_archives.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                AppSettings.setAutoExtractArchives(this, isChecked);
+            });
+        }
+
+        if (switch_delete_archive_after_extract != null) {
+            switch_delete_archive_after_extract.setOnCheckedChangeListener((buttonView, isChecked) -> {
+                AppSettings.setDeleteArchiveAfterExtract(this, isChecked);
+            });
+        }
+
+        // Running downloads pick up the new limits right away (DownloadService listens for the change)
+        if (btn_global_bandwidth_limit != null) {
+            btn_global_bandwidth_limit.setOnClickListener(v -> showBandwidthLimitDialog("Total Bandwidth Limit",
+                    AppSettings.getGlobalBandwidthLimitKbps(this), kbps -> {
+                        AppSettings.setGlobalBandwidthLimitKbps(this, kbps);
+                        tv_global_bandwidth_limit.setText(formatBandwidthLimit(kbps));
+                    }));
+        }
+
+        if (btn_per_download_bandwidth_limit != null) {
+            btn_per_download_bandwidth_limit.setOnClickListener(v -> showBandwidthLimitDialog("Bandwidth Limit per Download",
+                    AppSettings.getPerDownloadBandwidthLimitKbps(this), kbps -> {
+                        AppSettings.setPerDownloadBandwidthLimitKbps(this, kbps);
+                        tv_per_download_bandwidth_limit.setText(formatBandwidthLimit(kbps));
+                    }));
+        }
+    }
+
+    private interface BandwidthLimitCallback {
+        void onLimitSet(int kbps);
+    }
+
+    private void showBandwidthLimitDialog(String title, int currentKbps, BandwidthLimitCallback callback) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(title);
+        builder.setMessage("Limit in KB/s (leave empty or 0 for unlimited)");
+
+        final EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_NUMBER);
+        input.setText(currentKbps > 0 ? String.valueOf(currentKbps) : "");
+        builder.setView(input);
+
+        builder.setPositiveButton("OK", (dialog, which) -> {
+            String value = input.getText().toString().trim();
+            int kbps = 0;
+            if (!value.isEmpty()) {
+                try {
+                    kbps = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    kbps = 0; // Too large to be a meaningful limit
+                }
+            }
+            callback.onLimitSet(kbps);
+        });
+        builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
+        builder.show();
+    }
+
+    private String formatBandwidthLimit(int kbps) {
+        if (kbps <= 0) {
+            return "Unlimited";
+        }
+        if (kbps >= 1024) {
+            return String.format("%.1f MB/s", kbps / 1024.0);
+        }
+        return kbps + " KB/s";
     }
 
     @Override
@@ -61,7 +61,7 @@ public class UploadMonitorActivity extends AppCompatActivity {
             if (upload.getStatus() == UploadStatus.Status.UPLOADING) {
                 // Pause upload
                 upload.setStatus(UploadStatus.Status.PAUSED);
-                uploadRepository.updateUpload(upload);
+                uploadRepository.updateUploadAsync(upload);
                 adapter.notifyItemChanged(uploadsList.indexOf(upload));
                 // TODO: Send broadcast to UploadService to actually pause the ongoing upload
                 Toast.makeText(this, "Upload de " + upload.getGameName() + " pausado.", Toast.LENGTH_SHORT).show();
@@ -102,6 +102,9 @@ public class VersionsActivity extends AppCompatActivity implements VersionsAdapt
             serviceIntent.putExtra(DownloadService.EXTRA_ACTION, DownloadService.ACTION_START_DOWNLOAD);
             serviceIntent.putExtra(DownloadService.EXTRA_URL, version.getDownloadUrl());
             serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, version.getAssetName());
+            if (version.getDigest() != null) {
+                serviceIntent.putExtra(DownloadService.EXTRA_EXPECTED_HASH, version.getDigest());
+            }
             startService(serviceIntent);
 
             Intent activityIntent = new Intent(this, DownloadManagerActivity.class);
@@ -244,10 +247,15 @@ public class VersionsActivity extends AppCompatActivity implements VersionsAdapt
                             String downloadUrl = asset.optString("browser_download_url", "");
                             String assetName = asset.optString("name", "");
                             long assetSize = asset.optLong("size", 0);
+                            String digest = asset.optString("digest", "");
                             
                             if (!downloadUrl.isEmpty() && !assetName.isEmpty()) {
                                 String versionName = releaseName + " - " + assetName;
-                                versions.add(new WinlatorVersion(versionName, assetName, downloadUrl, assetSize, publishedAt));
+                                WinlatorVersion version = new WinlatorVersion(versionName, assetName, downloadUrl, assetSize, publishedAt);
+                                if (!digest.isEmpty() && !"null".equals(digest)) {
+                                    version.setDigest(digest);
+                                }
+                                versions.add(version);
                             }
                         }
                     } else {
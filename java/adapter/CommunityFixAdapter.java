@@ -21,6 +21,8 @@ import com.winlator.Download.DownloadManagerActivity;
 import com.winlator.Download.R;
 import com.winlator.Download.model.CommunityFix;
 import com.winlator.Download.service.DownloadService;
+import com.winlator.Download.service.LinkResolver;
+import com.winlator.Download.service.LinkResolvers;
 import com.winlator.Download.utils.AppSettings;
 
 
@@ -82,43 +84,20 @@ public class CommunityFixAdapter extends RecyclerView.Adapter<CommunityFixAdapte
             } else {
                 Log.i("CommunityFixAdapter", "Direct community downloads enabled. Starting DownloadService for: " + fixName);
                 Intent serviceIntent = new Intent(context, DownloadService.class);
-                 // Logic from CommunityGamesAdapter for different URL types
-                if (downloadUrl.contains("gofile.io/d/") || downloadUrl.contains("gofile.io/download/") || downloadUrl.contains("gofile.io/w/") || downloadUrl.contains("gofile.io/edit/")) {
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_GOFILE_URL, downloadUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, fixName);
-                } else if (downloadUrl.contains("www.mediafire.com/file/")) {
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_MEDIAFIRE_URL, downloadUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, fixName);
-                } else if (downloadUrl.contains("drive.google.com")) {
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_GOOGLE_DRIVE_URL, downloadUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, fixName);
-                } else if (downloadUrl.contains("pixeldrain.com/u/") || downloadUrl.contains("pixeldrain.com/l/")) {
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_PIXELDRAIN_URL, downloadUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, fixName);
-                } else {
-                    serviceIntent.setAction(DownloadService.ACTION_START_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_URL, downloadUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, fixName);
-                }
-
-                if (serviceIntent.getAction() != null) {
-                    context.startService(serviceIntent);
-                    String toastMessage = "Download started: " + fixName;
-                     if (DownloadService.ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD.equals(serviceIntent.getAction())) {
-                        toastMessage = "Starting Pixeldrain download: " + fixName;
-                    }
-                    Toast.makeText(context, toastMessage, Toast.LENGTH_SHORT).show();
-
-                    Intent activityIntent = new Intent(context, DownloadManagerActivity.class);
-                    context.startActivity(activityIntent);
-                } else {
-                    Log.e("CommunityFixAdapter", "No action set for serviceIntent. URL: " + downloadUrl);
-                    Toast.makeText(context, "Could not start download: unsupported URL type.", Toast.LENGTH_LONG).show();
-                }
+                // The service resolves host pages (Gofile, MediaFire...) and downloads other links directly
+                serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START);
+                serviceIntent.putExtra(DownloadService.EXTRA_URL, downloadUrl);
+                serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, fixName);
+                context.startService(serviceIntent);
+
+                LinkResolver resolver = LinkResolvers.find(downloadUrl);
+                String toastMessage = resolver != null
+                        ? "Starting " + resolver.getName() + " download: " + fixName
+                        : "Download started: " + fixName;
+                Toast.makeText(context, toastMessage, Toast.LENGTH_SHORT).show();
+
+                Intent activityIntent = new Intent(context, DownloadManagerActivity.class);
+                context.startActivity(activityIntent);
             }
         });
     }
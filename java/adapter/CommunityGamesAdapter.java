@@ -20,6 +20,8 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.winlator.Download.R;
 import com.winlator.Download.model.CommunityGame;
 import com.winlator.Download.service.DownloadService;
+import com.winlator.Download.service.LinkResolver;
+import com.winlator.Download.service.LinkResolvers;
 import com.winlator.Download.DownloadManagerActivity;
 import com.winlator.Download.utils.AppSettings; // Added import
 
@@ -87,50 +89,17 @@ public class CommunityGamesAdapter extends RecyclerView.Adapter<CommunityGamesAd
                 Log.i("CommunityGamesAdapter", "Direct community downloads enabled. Starting DownloadService for: " + gameName);
                 Intent serviceIntent = new Intent(itemContext, DownloadService.class);
 
-                // Existing logic to determine action based on URL type
-                if (gameUrl.contains("gofile.io/d/") || gameUrl.contains("gofile.io/download/") || gameUrl.contains("gofile.io/w/") || gameUrl.contains("gofile.io/edit/")) {
-                    Log.d("CommunityGamesAdapter", "Gofile URL detected for game: '" + gameName + "'. URL: '" + gameUrl + "'");
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_GOFILE_URL, gameUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, gameName); // gameName is used as a fallback by resolver if needed
-                } else if (gameUrl.contains("www.mediafire.com/file/")) {
-                    Log.d("CommunityGamesAdapter", "MediaFire URL detected for game: '" + gameName + "'. URL: '" + gameUrl + "'");
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_MEDIAFIRE_URL, gameUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, gameName);
-                } else if (gameUrl.contains("drive.google.com")) {
-                    Log.d("CommunityGamesAdapter", "Google Drive URL detected for game: '" + gameName + "'. URL: '" + gameUrl + "'");
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_GOOGLE_DRIVE_URL, gameUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, gameName);
-                } else if (gameUrl.contains("pixeldrain.com/u/") || gameUrl.contains("pixeldrain.com/l/")) {
-                    Log.d("CommunityGamesAdapter", "Pixeldrain URL detected for game: '" + gameName + "'. URL: '" + gameUrl + "'");
-                    serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD);
-                    serviceIntent.putExtra(DownloadService.EXTRA_PIXELDRAIN_URL, gameUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, gameName);
-                } else {
-                    Log.d("CommunityGamesAdapter", "Standard URL detected for game: '" + gameName + "'. URL: '" + gameUrl + "'");
-                    serviceIntent.setAction(DownloadService.ACTION_START_DOWNLOAD); // setAction instead of putExtra for action
-                    serviceIntent.putExtra(DownloadService.EXTRA_URL, gameUrl);
-                    serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, gameName);
-                }
-                // Common code for starting service and showing toast can be outside the if/else if chain if serviceIntent is always initialized.
-                // However, the toast message might need to be specific. For now, keeping it simple.
-
-                // Check if serviceIntent action is set before starting
-                if (serviceIntent.getAction() != null) {
-                    itemContext.startService(serviceIntent);
-                    // Make toast message more specific if desired, or keep generic
-                    String toastMessage = "Download iniciado: " + gameName;
-                    if (DownloadService.ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD.equals(serviceIntent.getAction())) {
-                        toastMessage = "Iniciando download do Pixeldrain: " + gameName;
-                    }
-                    Toast.makeText(itemContext, toastMessage, Toast.LENGTH_SHORT).show();
-                } else {
-                    // This case should ideally not be reached if all URL types are handled or have a default
-                    Log.e("CommunityGamesAdapter", "No action set for serviceIntent. URL: " + gameUrl);
-                    Toast.makeText(itemContext, "Não foi possível iniciar o download: tipo de URL não suportado.", Toast.LENGTH_LONG).show();
-                }
+                // O serviço resolve links de página (Gofile, MediaFire...) e baixa os demais diretamente
+                serviceIntent.setAction(DownloadService.ACTION_RESOLVE_AND_START);
+                serviceIntent.putExtra(DownloadService.EXTRA_URL, gameUrl);
+                serviceIntent.putExtra(DownloadService.EXTRA_FILE_NAME, gameName); // gameName is used as a fallback by resolver if needed
+                itemContext.startService(serviceIntent);
+
+                LinkResolver resolver = LinkResolvers.find(gameUrl);
+                String toastMessage = resolver != null
+                        ? "Iniciando download do " + resolver.getName() + ": " + gameName
+                        : "Download iniciado: " + gameName;
+                Toast.makeText(itemContext, toastMessage, Toast.LENGTH_SHORT).show();
 
 
                 // Optionally, still navigate to DownloadManagerActivity
@@ -7,7 +7,11 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.TextView;
 
+import android.util.LongSparseArray;
+
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.card.MaterialCardView;
@@ -20,7 +24,55 @@ import java.util.List;
 
 public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHolder> {
 
-    private List<Download> downloads;
+    // Payloads de notifyItemChanged: só uma parte do card é redesenhada
+    private static final Object PAYLOAD_PROGRESS = new Object(); // Tamanho, barra e velocidade
+    private static final Object PAYLOAD_SELECTION = new Object(); // Marcação do card
+    private static final Object PAYLOAD_SELECTION_MODE = new Object(); // Botões visíveis ou não
+
+    /*
+     * Listas novas são comparadas com a exibida em segundo plano; só os itens inseridos,
+     * removidos, movidos ou alterados são notificados. Um item que mudou só no progresso
+     * é redesenhado com PAYLOAD_PROGRESS.
+     */
+    private static final DiffUtil.ItemCallback<Download> DIFF_CALLBACK = new DiffUtil.ItemCallback<Download>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Download oldItem, @NonNull Download newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Download oldItem, @NonNull Download newItem) {
+            return sameExceptProgress(oldItem, newItem) && sameProgress(oldItem, newItem);
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Download oldItem, @NonNull Download newItem) {
+            return sameExceptProgress(oldItem, newItem) ? PAYLOAD_PROGRESS : null;
+        }
+    };
+
+    private static boolean sameExceptProgress(Download a, Download b) {
+        return a.getStatus() == b.getStatus()
+                && a.getIntegrity() == b.getIntegrity()
+                && a.isSelected() == b.isSelected()
+                && sameText(a.getFileName(), b.getFileName())
+                && sameText(a.getLocalPath(), b.getLocalPath());
+    }
+
+    private static boolean sameProgress(Download a, Download b) {
+        return a.getDownloadedBytes() == b.getDownloadedBytes()
+                && a.getTotalBytes() == b.getTotalBytes()
+                && a.getSpeed() == b.getSpeed()
+                && a.getEtaSeconds() == b.getEtaSeconds();
+    }
+
+    private static boolean sameText(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private final AsyncListDiffer<Download> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    // Posição de cada download na lista exibida, para atualizações de progresso sem busca linear
+    private final LongSparseArray<Integer> positionsById = new LongSparseArray<>();
     private Context context;
     private OnDownloadActionListener actionListener;
     private boolean isSelectionMode = false;
@@ -37,8 +89,8 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
 
     public DownloadAdapter(Context context, OnDownloadActionListener listener) {
         this.context = context;
-        this.downloads = new ArrayList<>();
         this.actionListener = listener;
+        setHasStableIds(true);
     }
 
     @NonNull
@@ -50,59 +102,91 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Download download = downloads.get(position);
+        Download download = differ.getCurrentList().get(position);
         
         // Configurar o nome do arquivo
         holder.fileNameTextView.setText(download.getFileName());
         
-        // Configurar o tamanho do arquivo
-        String fileSize = download.getFormattedDownloadedSize() + " / " + download.getFormattedTotalSize();
-        holder.fileSizeTextView.setText(fileSize);
-        
         // Configurar o status
-        holder.statusTextView.setText(getStatusText(download.getStatus()));
-        
-        // Configurar o progresso
-        holder.progressIndicator.setProgress(download.getProgress());
+        holder.statusTextView.setText(getStatusText(download));
         
-        // Configurar a velocidade (apenas para downloads ativos)
-        if (download.getStatus() == Download.STATUS_DOWNLOADING && download.getSpeed() > 0) {
-            holder.speedTextView.setText(download.getFormattedSpeed());
-            holder.speedTextView.setVisibility(View.VISIBLE);
-        } else {
-            holder.speedTextView.setVisibility(View.GONE);
-        }
+        // Tamanho, progresso e velocidade
+        bindProgress(holder, download);
         
         // Configurar os botões com base no status
         configureButtons(holder, download);
 
         // Configurar seleção
-        holder.cardView.setChecked(download.isSelected());
-        
-        // Configurar visibilidade dos botões baseado no modo de seleção
-        if (isSelectionMode) {
-            holder.buttonsLayout.setVisibility(View.GONE);
-        } else {
-            holder.buttonsLayout.setVisibility(View.VISIBLE);
-        }
+        bindSelection(holder, download);
 
-        // Configurar clique no item
+        // Configurar clique no item (posição atual: itens podem ter sido inseridos ou movidos depois do bind)
         holder.itemView.setOnClickListener(v -> {
             if (isSelectionMode) {
-                toggleSelection(position);
+                toggleSelection(holder.getAdapterPosition());
             }
         });
 
         // Configurar clique longo no item
         holder.itemView.setOnLongClickListener(v -> {
-            if (actionListener != null) {
-                actionListener.onLongClick(download, position);
+            int currentPosition = holder.getAdapterPosition();
+            if (actionListener != null && currentPosition != RecyclerView.NO_POSITION) {
+                actionListener.onLongClick(differ.getCurrentList().get(currentPosition), currentPosition);
                 return true;
             }
             return false;
         });
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        Download download = differ.getCurrentList().get(position);
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_PROGRESS) {
+                bindProgress(holder, download);
+            } else if (payload == PAYLOAD_SELECTION || payload == PAYLOAD_SELECTION_MODE) {
+                bindSelection(holder, download);
+            } else {
+                onBindViewHolder(holder, position);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).getId();
+    }
+
+    private void bindSelection(ViewHolder holder, Download download) {
+        holder.cardView.setChecked(download.isSelected());
+        // Botões escondidos no modo de seleção
+        holder.buttonsLayout.setVisibility(isSelectionMode ? View.GONE : View.VISIBLE);
+    }
+
+    private void bindProgress(ViewHolder holder, Download download) {
+        // Configurar o tamanho do arquivo
+        String fileSize = download.getFormattedDownloadedSize() + " / " + download.getFormattedTotalSize();
+        holder.fileSizeTextView.setText(fileSize);
+
+        // Configurar o progresso
+        holder.progressIndicator.setProgress(download.getProgress());
+
+        // Configurar a velocidade (apenas para downloads e extrações ativos)
+        if ((download.getStatus() == Download.STATUS_DOWNLOADING || download.getStatus() == Download.STATUS_EXTRACTING)
+                && download.getSpeed() > 0) {
+            String eta = download.getFormattedEta();
+            holder.speedTextView.setText(eta.isEmpty() ? download.getFormattedSpeed()
+                    : download.getFormattedSpeed() + " • " + eta);
+            holder.speedTextView.setVisibility(View.VISIBLE);
+        } else {
+            holder.speedTextView.setVisibility(View.GONE);
+        }
+    }
+
     private void configureButtons(ViewHolder holder, Download download) {
         // Resetar a visibilidade de todos os botões
         holder.pauseButton.setVisibility(View.GONE);
@@ -173,6 +257,8 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
                 break;
                 
             case Download.STATUS_PENDING:
+            case Download.STATUS_WAITING_FOR_SPACE:
+            case Download.STATUS_EXTRACTING: // Cancela só a extração
                 holder.cancelButton.setVisibility(View.VISIBLE);
                 
                 holder.cancelButton.setOnClickListener(v -> {
@@ -184,8 +270,15 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
         }
     }
 
-    private String getStatusText(int status) {
-        switch (status) {
+    private String getStatusText(Download download) {
+        // Resultado da verificação do hash, quando a origem publicou um
+        if (download.getIntegrity() == Download.INTEGRITY_CORRUPT && download.getStatus() == Download.STATUS_FAILED) {
+            return context.getString(R.string.status_corrupt);
+        }
+        if (download.getIntegrity() == Download.INTEGRITY_VERIFIED && download.getStatus() == Download.STATUS_COMPLETED) {
+            return context.getString(R.string.status_verified);
+        }
+        switch (download.getStatus()) {
             case Download.STATUS_PENDING:
                 return context.getString(R.string.status_pending);
             case Download.STATUS_DOWNLOADING:
@@ -196,6 +289,10 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
                 return context.getString(R.string.status_completed);
             case Download.STATUS_FAILED:
                 return context.getString(R.string.status_failed);
+            case Download.STATUS_EXTRACTING:
+                return context.getString(R.string.status_extracting);
+            case Download.STATUS_WAITING_FOR_SPACE:
+                return context.getString(R.string.status_waiting_for_space);
             default:
                 return "Desconhecido";
         }
@@ -203,50 +300,39 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
 
     @Override
     public int getItemCount() {
-        return downloads != null ? downloads.size() : 0;
+        return differ.getCurrentList().size();
     }
 
+    /**
+     * Mostra a lista, comparada com a atual em segundo plano. A lista passa a ser do adapter:
+     * quem chama não deve alterá-la depois (os itens podem ser trocados por novos objetos).
+     */
     public void updateData(List<Download> newDownloads) {
-        this.downloads.clear();
-        if (newDownloads != null) {
-            this.downloads.addAll(newDownloads);
-        }
-        notifyDataSetChanged();
+        differ.submitList(newDownloads != null ? newDownloads : new ArrayList<>(), this::rebuildPositions);
     }
 
-    public void updateDownload(Download download) {
+    private void rebuildPositions() {
+        List<Download> downloads = differ.getCurrentList();
+        positionsById.clear();
         for (int i = 0; i < downloads.size(); i++) {
-            if (downloads.get(i).getId() == download.getId()) {
-                downloads.set(i, download);
-                notifyItemChanged(i);
-                break;
-            }
+            positionsById.put(downloads.get(i).getId(), i);
         }
     }
 
-    public void updateDownloadProgress(long downloadId, int progress, long downloadedBytes, long totalBytes, double speed) {
-        for (int i = 0; i < downloads.size(); i++) {
-            Download download = downloads.get(i);
-            if (download.getId() == downloadId) {
-                // Criar um novo objeto Download com os valores atualizados
-                Download updatedDownload = new Download(
-                    download.getId(),
-                    download.getUrl(),
-                    download.getFileName(),
-                    download.getLocalPath(),
-                    totalBytes > 0 ? totalBytes : download.getTotalBytes(),
-                    downloadedBytes,
-                    download.getStatus(),
-                    download.getTimestamp()
-                );
-                updatedDownload.setSpeed(speed);
-                updatedDownload.setSelected(download.isSelected());
-                
-                downloads.set(i, updatedDownload);
-                notifyItemChanged(i);
-                break;
-            }
+    // Atualiza só o progresso do item, no próprio objeto, e redesenha apenas essas views
+    public void updateDownloadProgress(long downloadId, long downloadedBytes, long totalBytes, double speed, long etaSeconds) {
+        Integer position = positionsById.get(downloadId);
+        List<Download> downloads = differ.getCurrentList();
+        if (position == null || position >= downloads.size()) return;
+        Download download = downloads.get(position);
+        if (download.getId() != downloadId) return;
+        download.setDownloadedBytes(downloadedBytes);
+        if (totalBytes > 0) {
+            download.setTotalBytes(totalBytes);
         }
+        download.setSpeed(speed);
+        download.setEtaSeconds(etaSeconds);
+        notifyItemChanged(position, PAYLOAD_PROGRESS);
     }
 
     // Métodos para gerenciar seleção
@@ -256,7 +342,7 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
             if (!selectionMode) {
                 clearSelections();
             }
-            notifyDataSetChanged();
+            notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION_MODE);
         }
     }
 
@@ -265,10 +351,11 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
     }
 
     public void toggleSelection(int position) {
+        List<Download> downloads = differ.getCurrentList();
         if (position >= 0 && position < downloads.size()) {
             Download download = downloads.get(position);
             download.setSelected(!download.isSelected());
-            notifyItemChanged(position);
+            notifyItemChanged(position, PAYLOAD_SELECTION);
             
             if (actionListener != null) {
                 actionListener.onItemSelected(download, download.isSelected());
@@ -277,11 +364,12 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
     }
 
     public void selectAll() {
+        List<Download> downloads = differ.getCurrentList();
         for (int i = 0; i < downloads.size(); i++) {
             Download download = downloads.get(i);
             if (!download.isSelected()) {
                 download.setSelected(true);
-                notifyItemChanged(i);
+                notifyItemChanged(i, PAYLOAD_SELECTION);
                 
                 if (actionListener != null) {
                     actionListener.onItemSelected(download, true);
@@ -291,18 +379,19 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
     }
 
     public void clearSelections() {
+        List<Download> downloads = differ.getCurrentList();
         for (int i = 0; i < downloads.size(); i++) {
             Download download = downloads.get(i);
             if (download.isSelected()) {
                 download.setSelected(false);
-                notifyItemChanged(i);
+                notifyItemChanged(i, PAYLOAD_SELECTION);
             }
         }
     }
 
     public List<Download> getSelectedDownloads() {
         List<Download> selectedDownloads = new ArrayList<>();
-        for (Download download : downloads) {
+        for (Download download : differ.getCurrentList()) {
             if (download.isSelected()) {
                 selectedDownloads.add(download);
             }
@@ -312,7 +401,7 @@ public class DownloadAdapter extends RecyclerView.Adapter<DownloadAdapter.ViewHo
 
     public int getSelectedCount() {
         int count = 0;
-        for (Download download : downloads) {
+        for (Download download : differ.getCurrentList()) {
             if (download.isSelected()) {
                 count++;
             }
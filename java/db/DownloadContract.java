@@ -18,6 +18,63 @@ public final class DownloadContract {
         public static final String COLUMN_NAME_DOWNLOADED_BYTES = "downloaded_bytes";
         public static final String COLUMN_NAME_STATUS = "status"; // e.g., PENDING, DOWNLOADING, COMPLETED, FAILED
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+        public static final String COLUMN_NAME_EXPECTED_HASH = "expected_hash"; // "md5:<hex>" / "sha256:<hex>", null if unknown
+        public static final String COLUMN_NAME_INTEGRITY = "integrity"; // One of the INTEGRITY_* values
+    }
+
+    /*
+     * Resume map: the byte ranges of each download and how much of every range is confirmed
+     * on disk (written and fsync'd). Resuming trusts this table, not DownloadEntry's counter.
+     */
+    public static class SegmentEntry implements BaseColumns {
+        public static final String TABLE_NAME = "download_segments";
+        public static final String COLUMN_NAME_DOWNLOAD_ID = "download_id";
+        public static final String COLUMN_NAME_SEGMENT_INDEX = "segment_index";
+        public static final String COLUMN_NAME_START_BYTE = "start_byte";
+        public static final String COLUMN_NAME_END_BYTE = "end_byte"; // Inclusive, -1 if unknown
+        public static final String COLUMN_NAME_DOWNLOADED_BYTES = "downloaded_bytes"; // Confirmed bytes from start_byte
+        public static final String COLUMN_NAME_CONFIRMED_AT = "confirmed_at"; // Time of the fsync that confirmed them
+    }
+
+    /*
+     * Durable download queue: every download handed to the scheduler, in order, with what is
+     * needed to start it again (the rest is in DownloadEntry). Rows are removed when the download
+     * completes or is cancelled, so downloads interrupted by process death are started again.
+     */
+    public static class QueueEntry implements BaseColumns {
+        public static final String TABLE_NAME = "download_queue";
+        public static final String COLUMN_NAME_DOWNLOAD_ID = "download_id";
+        public static final String COLUMN_NAME_AUTH_TOKEN = "auth_token";
+        public static final String COLUMN_NAME_GOFILE_CONTENT_ID = "gofile_content_id";
+        public static final String COLUMN_NAME_POSITION = "position"; // Order in the queue, ascending
+        public static final String COLUMN_NAME_PRIORITY = "priority"; // Higher starts first
+        public static final String COLUMN_NAME_PINNED = "pinned"; // 1 = "next up", ahead of every priority
+        public static final String COLUMN_NAME_ENQUEUED_AT = "enqueued_at";
+    }
+
+    /*
+     * History of download attempts: one row per run of a download, with how it ended.
+     * Kept until the download itself is removed.
+     */
+    public static class AttemptEntry implements BaseColumns {
+        public static final String TABLE_NAME = "download_attempts";
+        public static final String COLUMN_NAME_DOWNLOAD_ID = "download_id";
+        public static final String COLUMN_NAME_STARTED_AT = "started_at";
+        public static final String COLUMN_NAME_ENDED_AT = "ended_at";
+        public static final String COLUMN_NAME_START_BYTE = "start_byte"; // Confirmed bytes when the attempt started
+        public static final String COLUMN_NAME_END_BYTE = "end_byte";
+        public static final String COLUMN_NAME_OUTCOME = "outcome"; // One of the OUTCOME_* values
+        public static final String COLUMN_NAME_FAILURE_KIND = "failure_kind"; // RetryPolicy.FailureKind name, null if none
+        public static final String COLUMN_NAME_HTTP_STATUS = "http_status"; // 0 if not an HTTP error
+        public static final String COLUMN_NAME_ERROR_MESSAGE = "error_message";
+        public static final String COLUMN_NAME_RETRY_DELAY_MS = "retry_delay_ms"; // Wait before the automatic retry, 0 if none
+
+        public static final String OUTCOME_COMPLETED = "completed";
+        public static final String OUTCOME_PAUSED = "paused";
+        public static final String OUTCOME_CANCELLED = "cancelled";
+        public static final String OUTCOME_RETRY = "retry";
+        public static final String OUTCOME_WAITING_FOR_SPACE = "waiting_for_space";
+        public static final String OUTCOME_FAILED = "failed";
     }
 
     // Define status constants
@@ -26,6 +83,13 @@ public final class DownloadContract {
     public static final int STATUS_COMPLETED = 2;
     public static final int STATUS_FAILED = 3;
     public static final int STATUS_PAUSED = 4; // Optional for future resume functionality
+    public static final int STATUS_EXTRACTING = 5; // Completed, archive being unpacked
+    public static final int STATUS_WAITING_FOR_SPACE = 6; // Queued, its volume is too full to start it
+
+    // Result of the checksum verification of a completed download
+    public static final int INTEGRITY_UNCHECKED = 0; // No expected hash, or not finished yet
+    public static final int INTEGRITY_VERIFIED = 1;
+    public static final int INTEGRITY_CORRUPT = 2;
 
     // SQL query to create the table
     public static final String SQL_CREATE_ENTRIES = 
@@ -37,10 +101,90 @@ public final class DownloadContract {
         DownloadEntry.COLUMN_NAME_TOTAL_BYTES + " INTEGER," +
         DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES + " INTEGER," +
         DownloadEntry.COLUMN_NAME_STATUS + " INTEGER," +
-        DownloadEntry.COLUMN_NAME_TIMESTAMP + " INTEGER)";
+        DownloadEntry.COLUMN_NAME_TIMESTAMP + " INTEGER," +
+        DownloadEntry.COLUMN_NAME_EXPECTED_HASH + " TEXT," +
+        DownloadEntry.COLUMN_NAME_INTEGRITY + " INTEGER NOT NULL DEFAULT 0)";
+
+    // Status filters (orphan correction, clearing completed), lookups by local path and the
+    // history sorted by time. _id is the rowid, so the timestamp index also orders ties by _id.
+    public static final String SQL_CREATE_DOWNLOADS_STATUS_INDEX =
+        "CREATE INDEX IF NOT EXISTS idx_downloads_status ON " +
+        DownloadEntry.TABLE_NAME + " (" + DownloadEntry.COLUMN_NAME_STATUS + ")";
+
+    public static final String SQL_CREATE_DOWNLOADS_LOCAL_PATH_INDEX =
+        "CREATE INDEX IF NOT EXISTS idx_downloads_local_path ON " +
+        DownloadEntry.TABLE_NAME + " (" + DownloadEntry.COLUMN_NAME_LOCAL_PATH + ")";
+
+    public static final String SQL_CREATE_DOWNLOADS_TIMESTAMP_INDEX =
+        "CREATE INDEX IF NOT EXISTS idx_downloads_timestamp ON " +
+        DownloadEntry.TABLE_NAME + " (" + DownloadEntry.COLUMN_NAME_TIMESTAMP + ")";
+
+    /*
+     * Keyset paging of the history, newest first. A page is keyed by the (timestamp, _id) of
+     * its last row; the selection takes that key as (timestamp, timestamp, _id) and keeps the
+     * range on timestamp so the index is used.
+     */
+    public static final String SORT_NEWEST_FIRST =
+        DownloadEntry.COLUMN_NAME_TIMESTAMP + " DESC, " + DownloadEntry._ID + " DESC";
+
+    // Rows that come after the key
+    public static final String SELECTION_AFTER_KEY =
+        DownloadEntry.COLUMN_NAME_TIMESTAMP + " <= ? AND (" +
+        DownloadEntry.COLUMN_NAME_TIMESTAMP + " < ? OR " + DownloadEntry._ID + " < ?)";
 
     // SQL query to delete the table
     public static final String SQL_DELETE_ENTRIES = 
         "DROP TABLE IF EXISTS " + DownloadEntry.TABLE_NAME;
-}
 
+    public static final String SQL_CREATE_SEGMENTS =
+        "CREATE TABLE " + SegmentEntry.TABLE_NAME + " (" +
+        SegmentEntry._ID + " INTEGER PRIMARY KEY," +
+        SegmentEntry.COLUMN_NAME_DOWNLOAD_ID + " INTEGER NOT NULL," +
+        SegmentEntry.COLUMN_NAME_SEGMENT_INDEX + " INTEGER," +
+        SegmentEntry.COLUMN_NAME_START_BYTE + " INTEGER," +
+        SegmentEntry.COLUMN_NAME_END_BYTE + " INTEGER," +
+        SegmentEntry.COLUMN_NAME_DOWNLOADED_BYTES + " INTEGER," +
+        SegmentEntry.COLUMN_NAME_CONFIRMED_AT + " INTEGER)";
+
+    public static final String SQL_CREATE_SEGMENTS_INDEX =
+        "CREATE INDEX IF NOT EXISTS idx_segments_download_id ON " +
+        SegmentEntry.TABLE_NAME + " (" + SegmentEntry.COLUMN_NAME_DOWNLOAD_ID + ")";
+
+    public static final String SQL_DELETE_SEGMENTS =
+        "DROP TABLE IF EXISTS " + SegmentEntry.TABLE_NAME;
+
+    public static final String SQL_CREATE_QUEUE =
+        "CREATE TABLE " + QueueEntry.TABLE_NAME + " (" +
+        QueueEntry._ID + " INTEGER PRIMARY KEY," +
+        QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " INTEGER NOT NULL UNIQUE," +
+        QueueEntry.COLUMN_NAME_AUTH_TOKEN + " TEXT," +
+        QueueEntry.COLUMN_NAME_GOFILE_CONTENT_ID + " TEXT," +
+        QueueEntry.COLUMN_NAME_POSITION + " INTEGER NOT NULL," +
+        QueueEntry.COLUMN_NAME_PRIORITY + " INTEGER NOT NULL DEFAULT 0," +
+        QueueEntry.COLUMN_NAME_PINNED + " INTEGER NOT NULL DEFAULT 0," +
+        QueueEntry.COLUMN_NAME_ENQUEUED_AT + " INTEGER)";
+
+    public static final String SQL_DELETE_QUEUE =
+        "DROP TABLE IF EXISTS " + QueueEntry.TABLE_NAME;
+
+    public static final String SQL_CREATE_ATTEMPTS =
+        "CREATE TABLE " + AttemptEntry.TABLE_NAME + " (" +
+        AttemptEntry._ID + " INTEGER PRIMARY KEY," +
+        AttemptEntry.COLUMN_NAME_DOWNLOAD_ID + " INTEGER NOT NULL," +
+        AttemptEntry.COLUMN_NAME_STARTED_AT + " INTEGER," +
+        AttemptEntry.COLUMN_NAME_ENDED_AT + " INTEGER," +
+        AttemptEntry.COLUMN_NAME_START_BYTE + " INTEGER," +
+        AttemptEntry.COLUMN_NAME_END_BYTE + " INTEGER," +
+        AttemptEntry.COLUMN_NAME_OUTCOME + " TEXT," +
+        AttemptEntry.COLUMN_NAME_FAILURE_KIND + " TEXT," +
+        AttemptEntry.COLUMN_NAME_HTTP_STATUS + " INTEGER DEFAULT 0," +
+        AttemptEntry.COLUMN_NAME_ERROR_MESSAGE + " TEXT," +
+        AttemptEntry.COLUMN_NAME_RETRY_DELAY_MS + " INTEGER DEFAULT 0)";
+
+    public static final String SQL_CREATE_ATTEMPTS_INDEX =
+        "CREATE INDEX IF NOT EXISTS idx_attempts_download_id ON " +
+        AttemptEntry.TABLE_NAME + " (" + AttemptEntry.COLUMN_NAME_DOWNLOAD_ID + ")";
+
+    public static final String SQL_DELETE_ATTEMPTS =
+        "DROP TABLE IF EXISTS " + AttemptEntry.TABLE_NAME;
+}
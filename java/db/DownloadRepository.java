@@ -0,0 +1,621 @@
+package com.winlator.Download.db;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.winlator.Download.model.Download;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The downloads table, shared by the service and the screens that show it. Rows that were read
+ * or written are kept in memory, so lookups by id do not go to the database, and every write
+ * is published as a row-level change (inserted, updated or deleted, by id) carrying the new row.
+ * Screens apply those changes to what they show instead of querying the table again.
+ *
+ * Changes are delivered on the main thread, coalesced: listeners get at most one batch per
+ * main-loop turn, with the latest state of each row that changed. Rows handed out (by queries
+ * or in changes) are copies; callers may modify them.
+ *
+ * Progress saved by the download threads updates the cached rows without a change: the UI
+ * gets live progress from DownloadProgressBus.
+ */
+public class DownloadRepository {
+    private static final String TAG = "DownloadRepository";
+
+    private static final String[] PROJECTION = {
+        DownloadContract.DownloadEntry._ID,
+        DownloadContract.DownloadEntry.COLUMN_NAME_URL,
+        DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME,
+        DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH,
+        DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES,
+        DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES,
+        DownloadContract.DownloadEntry.COLUMN_NAME_STATUS,
+        DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP,
+        DownloadContract.DownloadEntry.COLUMN_NAME_EXPECTED_HASH,
+        DownloadContract.DownloadEntry.COLUMN_NAME_INTEGRITY
+    };
+
+    /**
+     * One row that changed.
+     */
+    public static final class Change {
+        public static final int INSERTED = 0;
+        public static final int UPDATED = 1;
+        public static final int DELETED = 2;
+
+        private final int type;
+        private final long downloadId;
+        private final Download download;
+
+        Change(int type, long downloadId, Download download) {
+            this.type = type;
+            this.downloadId = downloadId;
+            this.download = download;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public long getDownloadId() {
+            return downloadId;
+        }
+
+        // The row as it is now; null for DELETED
+        public Download getDownload() {
+            return download;
+        }
+    }
+
+    public interface Listener {
+        // On the main thread; the list is in the order the rows first changed
+        void onDownloadsChanged(List<Change> changes);
+    }
+
+    public interface PageCallback {
+        // On the main thread
+        void onPageLoaded(List<Download> page);
+    }
+
+    public interface IdsCallback {
+        // On the main thread
+        void onIdsLoaded(Set<Long> ids);
+    }
+
+    private static final int MAX_IDS_PER_STATEMENT = 500;
+
+    private static DownloadRepository instance;
+
+    private final SQLiteHelper dbHelper;
+    private final LongSparseArray<Download> cache = new LongSparseArray<>(); // Guarded by this
+    // Writes so far, and the count at the last write of each row written while a read was running.
+    // A read only caches rows that were not written after it started; see query()
+    private long writeCount = 0; // Guarded by this
+    private final LongSparseArray<Long> lastWrites = new LongSparseArray<>(); // Guarded by this
+    private int readsInProgress = 0; // Guarded by this
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Pages are read off the main thread; WAL lets them run while downloads write
+    private final ExecutorService readExecutor = Executors.newSingleThreadExecutor();
+    private Map<Long, Change> pendingChanges = new LinkedHashMap<>(); // Guarded by this
+    private boolean dispatchPosted = false; // Guarded by this
+
+    private final Runnable dispatchChanges = new Runnable() {
+        @Override
+        public void run() {
+            List<Change> changes;
+            synchronized (DownloadRepository.this) {
+                dispatchPosted = false;
+                if (pendingChanges.isEmpty()) return;
+                changes = new ArrayList<>(pendingChanges.values());
+                pendingChanges = new LinkedHashMap<>();
+            }
+            for (Listener listener : listeners) {
+                listener.onDownloadsChanged(changes);
+            }
+        }
+    };
+
+    public static synchronized DownloadRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadRepository(SQLiteHelper.getInstance(context));
+        }
+        return instance;
+    }
+
+    private DownloadRepository(SQLiteHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // --- Writes ---
+
+    public long insertDownload(String url, String fileName, String localPath, String expectedHash) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_URL, url);
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME, fileName);
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS, Download.STATUS_PENDING);
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES, 0);
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES, -1);
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH, localPath);
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_EXPECTED_HASH, expectedHash);
+
+        long id = db.insert(DownloadContract.DownloadEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(TAG, "Error inserting download record for: " + url + " at path " + localPath);
+            return -1;
+        }
+        // The row is what was just written; no need to read it back
+        Download inserted = new Download(id, url, fileName, localPath, -1, 0, Download.STATUS_PENDING,
+                values.getAsLong(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP));
+        inserted.setExpectedHash(expectedHash);
+        synchronized (this) {
+            markWritten(id);
+            cache.put(id, inserted);
+            publish(new Change(Change.INSERTED, id, copyOf(inserted)));
+        }
+        return id;
+    }
+
+    // Status change; also moves the row to the top of the history (the timestamp is renewed)
+    public void updateStatus(long downloadId, int status, String localPath) {
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS, status);
+        if (localPath != null) {
+            values.put(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH, localPath);
+        }
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
+        int rowsAffected = update(downloadId, values);
+        Log.d(TAG, "Updated status for download " + downloadId + " to " + status + ". Rows affected: " + rowsAffected);
+    }
+
+    public void updateProgress(long downloadId, long downloadedBytes, long totalBytes) {
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES, downloadedBytes);
+        if (totalBytes > 0) {
+            values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES, totalBytes);
+        }
+        update(downloadId, values);
+    }
+
+    public void updateTotalBytes(long downloadId, long totalBytes) {
+        if (totalBytes <= 0) return;
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES, totalBytes);
+        update(downloadId, values);
+    }
+
+    public void updateLocalPath(long downloadId, String localPath) {
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH, localPath);
+        update(downloadId, values);
+    }
+
+    public void updateExpectedHash(long downloadId, String expectedHash) {
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_EXPECTED_HASH, expectedHash);
+        update(downloadId, values);
+    }
+
+    public void updateIntegrity(long downloadId, int integrity) {
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_INTEGRITY, integrity);
+        update(downloadId, values);
+    }
+
+    /**
+     * Called after progress of the download was written to the table by someone else (the
+     * write-behind progress store), to keep the cached row in step. Publishes no change.
+     */
+    public void onProgressSaved(long downloadId, long downloadedBytes, long totalBytes) {
+        synchronized (this) {
+            markWritten(downloadId);
+            Download cached = cache.get(downloadId);
+            if (cached == null) return;
+            cached.setDownloadedBytes(downloadedBytes);
+            if (totalBytes > 0) {
+                cached.setTotalBytes(totalBytes);
+            }
+        }
+    }
+
+    public boolean deleteDownload(long downloadId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int deletedRows = db.delete(
+            DownloadContract.DownloadEntry.TABLE_NAME,
+            DownloadContract.DownloadEntry._ID + " = ?",
+            new String[] { String.valueOf(downloadId) }
+        );
+        synchronized (this) {
+            markWritten(downloadId);
+            cache.remove(downloadId);
+            if (deletedRows > 0) {
+                publish(new Change(Change.DELETED, downloadId, null));
+            }
+        }
+        return deletedRows > 0;
+    }
+
+    /**
+     * Deletes the downloads and what is kept for them (segment map, queue entry, attempt
+     * history) in one transaction, and publishes the removals in one batch.
+     * @return The rows that were deleted, as they were before, so their files can be removed.
+     */
+    public List<Download> deleteDownloads(List<Long> downloadIds) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        List<Download> deleted = new ArrayList<>();
+        db.beginTransaction();
+        try {
+            // Bound parameters per statement stay under SQLite's limit of 999
+            for (int start = 0; start < downloadIds.size(); start += MAX_IDS_PER_STATEMENT) {
+                List<Long> chunk = downloadIds.subList(start, Math.min(downloadIds.size(), start + MAX_IDS_PER_STATEMENT));
+                String[] selectionArgs = new String[chunk.size()];
+                StringBuilder selection = new StringBuilder(DownloadContract.DownloadEntry._ID + " IN (");
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    selection.append(i == 0 ? "?" : ", ?");
+                    selectionArgs[i] = String.valueOf(chunk.get(i));
+                }
+                selection.append(')');
+                deleted.addAll(deleteRows(db, selection.toString(), selectionArgs));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        publishDeleted(deleted);
+        return deleted;
+    }
+
+    /**
+     * Same as {@link #deleteDownloads(List)} for every download with the status.
+     */
+    public List<Download> deleteDownloadsWithStatus(int status) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        List<Download> deleted;
+        db.beginTransaction();
+        try {
+            deleted = deleteRows(db, DownloadContract.DownloadEntry.COLUMN_NAME_STATUS + " = ?",
+                    new String[] { String.valueOf(status) });
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        publishDeleted(deleted);
+        return deleted;
+    }
+
+    // Inside a transaction: reads the selected rows, then deletes them and their dependent rows
+    private List<Download> deleteRows(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        List<Download> rows = new ArrayList<>();
+        Cursor cursor = db.query(DownloadContract.DownloadEntry.TABLE_NAME, PROJECTION,
+                selection, selectionArgs, null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                rows.add(cursorToDownload(cursor));
+            }
+            cursor.close();
+        }
+        if (rows.isEmpty()) return rows;
+
+        String ofSelected = " IN (SELECT " + DownloadContract.DownloadEntry._ID + " FROM "
+                + DownloadContract.DownloadEntry.TABLE_NAME + " WHERE " + selection + ")";
+        db.delete(DownloadContract.SegmentEntry.TABLE_NAME,
+                DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOAD_ID + ofSelected, selectionArgs);
+        db.delete(DownloadContract.QueueEntry.TABLE_NAME,
+                DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + ofSelected, selectionArgs);
+        db.delete(DownloadContract.AttemptEntry.TABLE_NAME,
+                DownloadContract.AttemptEntry.COLUMN_NAME_DOWNLOAD_ID + ofSelected, selectionArgs);
+        db.delete(DownloadContract.DownloadEntry.TABLE_NAME, selection, selectionArgs);
+        return rows;
+    }
+
+    private synchronized void publishDeleted(List<Download> deleted) {
+        for (Download download : deleted) {
+            markWritten(download.getId());
+            cache.remove(download.getId());
+            publish(new Change(Change.DELETED, download.getId(), null));
+        }
+    }
+
+    // --- Reads ---
+
+    public Download getDownloadById(long downloadId) {
+        synchronized (this) {
+            Download cached = cache.get(downloadId);
+            if (cached != null) {
+                return copyOf(cached);
+            }
+        }
+        List<Download> rows = query(DownloadContract.DownloadEntry._ID + " = ?",
+                new String[] { String.valueOf(downloadId) }, null);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    // -1 if there is none
+    public long getDownloadIdByUrl(String url) {
+        return queryId(DownloadContract.DownloadEntry.COLUMN_NAME_URL + " = ?", url);
+    }
+
+    // -1 if there is none
+    public long getDownloadIdByLocalPath(String localPath) {
+        if (localPath == null || localPath.isEmpty()) return -1;
+        return queryId(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH + " = ?", localPath);
+    }
+
+    public List<Download> getDownloadsWithStatus(int... statuses) {
+        StringBuilder selection = new StringBuilder(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS + " IN (");
+        String[] selectionArgs = new String[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            selectionArgs[i] = String.valueOf(statuses[i]);
+        }
+        selection.append(')');
+        return query(selection.toString(), selectionArgs, null);
+    }
+
+    public List<Download> getAllDownloads() {
+        return query(null, null, null);
+    }
+
+    /**
+     * One page of the history, newest first, keyed by the last row of the previous page
+     * instead of an OFFSET, so a page costs the same however deep it is.
+     * @param afterTimestamp Timestamp of the last row of the previous page (Long.MAX_VALUE for the first)
+     * @param afterId        Id of the last row of the previous page (Long.MAX_VALUE for the first)
+     */
+    public List<Download> getDownloadsPage(long afterTimestamp, long afterId, int limit) {
+        String timestamp = String.valueOf(afterTimestamp);
+        return query(DownloadContract.SELECTION_AFTER_KEY,
+                new String[] { timestamp, timestamp, String.valueOf(afterId) },
+                String.valueOf(Math.max(1, limit)));
+    }
+
+    // Same as getDownloadsPage(), read on a background thread
+    public void loadDownloadsPage(long afterTimestamp, long afterId, int limit, PageCallback callback) {
+        readExecutor.execute(() -> {
+            List<Download> page = getDownloadsPage(afterTimestamp, afterId, limit);
+            mainHandler.post(() -> callback.onPageLoaded(page));
+        });
+    }
+
+    /**
+     * Ids of every download with the status, read on a background thread. Callers keep the set
+     * up to date from the changes instead of asking again; changes published while it is being
+     * read should be applied on top of it.
+     */
+    public void loadDownloadIdsWithStatus(int status, IdsCallback callback) {
+        readExecutor.execute(() -> {
+            Set<Long> ids = new HashSet<>();
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            Cursor cursor = db.query(DownloadContract.DownloadEntry.TABLE_NAME,
+                    new String[] { DownloadContract.DownloadEntry._ID },
+                    DownloadContract.DownloadEntry.COLUMN_NAME_STATUS + " = ?",
+                    new String[] { String.valueOf(status) }, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+                cursor.close();
+            }
+            mainHandler.post(() -> callback.onIdsLoaded(ids));
+        });
+    }
+
+    // --- Internals ---
+
+    private int update(long downloadId, ContentValues values) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsAffected;
+        db.beginTransaction();
+        try {
+            rowsAffected = db.update(
+                DownloadContract.DownloadEntry.TABLE_NAME,
+                values,
+                DownloadContract.DownloadEntry._ID + " = ?",
+                new String[] { String.valueOf(downloadId) }
+            );
+            if (rowsAffected > 0) {
+                publishUpdate(downloadId, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsAffected > 0) {
+            // Again once committed: a read that started before that still sees the old row
+            synchronized (this) {
+                markWritten(downloadId);
+            }
+        }
+        return rowsAffected;
+    }
+
+    /**
+     * Caches and publishes a row after an update. Called inside the write transaction, so two
+     * writers of the same row publish in the order they wrote. A cached row gets the written
+     * values merged in; a row that is not cached is read back, on the writer connection and
+     * without holding the lock, so lookups from the main thread do not wait for it.
+     */
+    private void publishUpdate(long downloadId, ContentValues values) {
+        synchronized (this) {
+            Download cached = cache.get(downloadId);
+            if (cached != null) {
+                Download updated = merge(cached, values);
+                markWritten(downloadId);
+                cache.put(downloadId, updated);
+                publish(new Change(Change.UPDATED, downloadId, copyOf(updated)));
+                return;
+            }
+        }
+        List<Download> rows = new ArrayList<>(1);
+        readRows(DownloadContract.DownloadEntry._ID + " = ?", new String[] { String.valueOf(downloadId) }, null, rows);
+        if (rows.isEmpty()) return;
+        synchronized (this) {
+            markWritten(downloadId);
+            cache.put(downloadId, copyOf(rows.get(0)));
+            publish(new Change(Change.UPDATED, downloadId, rows.get(0)));
+        }
+    }
+
+    // Caller holds the lock. Remembered only while reads run: a read that starts later sees the write
+    private void markWritten(long downloadId) {
+        writeCount++;
+        if (readsInProgress > 0) {
+            lastWrites.put(downloadId, writeCount);
+        }
+    }
+
+    // Caller holds the lock
+    private void publish(Change change) {
+        Change previous = pendingChanges.remove(change.downloadId);
+        if (previous != null && previous.type == Change.INSERTED && change.type == Change.UPDATED) {
+            change = new Change(Change.INSERTED, change.downloadId, change.download); // Still new to listeners
+        }
+        pendingChanges.put(change.downloadId, change);
+        if (!dispatchPosted) {
+            dispatchPosted = true;
+            mainHandler.post(dispatchChanges);
+        }
+    }
+
+    private long queryId(String selection, String value) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.query(DownloadContract.DownloadEntry.TABLE_NAME,
+                new String[] { DownloadContract.DownloadEntry._ID }, selection, new String[] { value },
+                null, null, null, "1");
+        long id = -1;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return id;
+    }
+
+    /**
+     * Rows newest first. Each one also replaces its cached copy, unless the row was written
+     * (updated, deleted, progress saved) after the read started: the cache then already holds
+     * something newer, or nothing for a deleted row, and the copy read is left out of it.
+     */
+    private List<Download> query(String selection, String[] selectionArgs, String limit) {
+        long readStart;
+        synchronized (this) {
+            readsInProgress++;
+            readStart = writeCount;
+        }
+        List<Download> downloads = new ArrayList<>();
+        try {
+            readRows(selection, selectionArgs, limit, downloads);
+        } finally {
+            synchronized (this) {
+                for (Download download : downloads) {
+                    Long lastWrite = lastWrites.get(download.getId());
+                    if (lastWrite == null || lastWrite <= readStart) {
+                        cache.put(download.getId(), copyOf(download));
+                    }
+                }
+                if (--readsInProgress == 0) {
+                    lastWrites.clear();
+                }
+            }
+        }
+        return downloads;
+    }
+
+    private void readRows(String selection, String[] selectionArgs, String limit, List<Download> downloads) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.query(
+            DownloadContract.DownloadEntry.TABLE_NAME,
+            PROJECTION,
+            selection,
+            selectionArgs,
+            null,
+            null,
+            DownloadContract.SORT_NEWEST_FIRST,
+            limit
+        );
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                downloads.add(cursorToDownload(cursor));
+            }
+            cursor.close();
+        }
+    }
+
+    private static Download cursorToDownload(Cursor cursor) {
+        Download download = new Download(
+            cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry._ID)),
+            cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_URL)),
+            cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME)),
+            cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH)),
+            cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES)),
+            cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES)),
+            cursor.getInt(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS)),
+            cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP))
+        );
+        download.setExpectedHash(cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_EXPECTED_HASH)));
+        download.setIntegrity(cursor.getInt(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_INTEGRITY)));
+        return download;
+    }
+
+    // The row with the columns present in the values replaced
+    private static Download merge(Download row, ContentValues values) {
+        Download merged = new Download(row.getId(),
+                values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_URL)
+                        ? values.getAsString(DownloadContract.DownloadEntry.COLUMN_NAME_URL) : row.getUrl(),
+                values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME)
+                        ? values.getAsString(DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME) : row.getFileName(),
+                values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH)
+                        ? values.getAsString(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH) : row.getLocalPath(),
+                values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES)
+                        ? values.getAsLong(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES) : row.getTotalBytes(),
+                values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES)
+                        ? values.getAsLong(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES) : row.getDownloadedBytes(),
+                values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS)
+                        ? values.getAsInteger(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS) : row.getStatus(),
+                values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP)
+                        ? values.getAsLong(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP) : row.getTimestamp());
+        merged.setExpectedHash(values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_EXPECTED_HASH)
+                ? values.getAsString(DownloadContract.DownloadEntry.COLUMN_NAME_EXPECTED_HASH) : row.getExpectedHash());
+        merged.setIntegrity(values.containsKey(DownloadContract.DownloadEntry.COLUMN_NAME_INTEGRITY)
+                ? values.getAsInteger(DownloadContract.DownloadEntry.COLUMN_NAME_INTEGRITY) : row.getIntegrity());
+        return merged;
+    }
+
+    // Stored fields only: speed, ETA and selection belong to whoever shows the row
+    private static Download copyOf(Download download) {
+        Download copy = new Download(download.getId(), download.getUrl(), download.getFileName(),
+                download.getLocalPath(), download.getTotalBytes(), download.getDownloadedBytes(),
+                download.getStatus(), download.getTimestamp());
+        copy.setExpectedHash(download.getExpectedHash());
+        copy.setIntegrity(download.getIntegrity());
+        return copy;
+    }
+}
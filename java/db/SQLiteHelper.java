@@ -3,12 +3,25 @@ package com.winlator.Download.db;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
 
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The app's one connection to its database, shared by every service, activity and repository
+ * through {@link #getInstance(Context)} and kept open for the life of the process. The database
+ * runs in WAL mode: readers get their own connections and see the last committed state without
+ * waiting for a write in progress, so the UI can query while download threads save progress.
+ * Writes are still serialised by SQLite; the ones that nobody has to wait for go to the
+ * shared writer thread ({@link #getWriteHandler()}) instead of the caller's.
+ */
 public class SQLiteHelper extends SQLiteOpenHelper {
     private static final String TAG = "SQLiteHelper";
 
-    public static final int DATABASE_VERSION = 4; // Incremented database version
+    public static final int DATABASE_VERSION = 11; // 11: indexes on the downloads table
     public static final String DATABASE_NAME = "WinlatorDownloads.db";
 
     private static final String SQL_CREATE_UPLOADS_ENTRIES =
@@ -31,29 +44,161 @@ public class SQLiteHelper extends SQLiteOpenHelper {
     private static final String SQL_DELETE_UPLOADS_ENTRIES =
             "DROP TABLE IF EXISTS " + UploadContract.UploadEntry.TABLE_NAME;
 
-    public SQLiteHelper(Context context) {
+    private static SQLiteHelper instance;
+
+    private HandlerThread writerThread;
+    private Handler writeHandler;
+
+    public static synchronized SQLiteHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new SQLiteHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SQLiteHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Handler of the database writer thread, started on first use. Work posted here runs one
+     * task at a time, in order, at background priority.
+     */
+    public synchronized Handler getWriteHandler() {
+        if (writeHandler == null) {
+            writerThread = new HandlerThread("db-writer", Process.THREAD_PRIORITY_BACKGROUND);
+            writerThread.start();
+            writeHandler = new Handler(writerThread.getLooper());
+        }
+        return writeHandler;
+    }
+
+    // Runs a write on the writer thread; the caller does not wait for it
+    public void executeWrite(Runnable write) {
+        getWriteHandler().post(write);
+    }
+
+    /**
+     * Blocks until the writes posted so far have run, for a background thread whose own writes
+     * must come after them. Never call it from the writer thread or the main thread.
+     */
+    public void awaitWrites() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executeWrite(done::countDown);
+        done.await();
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         Log.d(TAG, "Creating database table: " + DownloadContract.SQL_CREATE_ENTRIES);
         db.execSQL(DownloadContract.SQL_CREATE_ENTRIES);
+        createDownloadIndexes(db);
         Log.d(TAG, "Creating database table: " + SQL_CREATE_UPLOADS_ENTRIES);
         db.execSQL(SQL_CREATE_UPLOADS_ENTRIES);
+        Log.d(TAG, "Creating database table: " + DownloadContract.SQL_CREATE_SEGMENTS);
+        db.execSQL(DownloadContract.SQL_CREATE_SEGMENTS);
+        db.execSQL(DownloadContract.SQL_CREATE_SEGMENTS_INDEX);
+        Log.d(TAG, "Creating database table: " + DownloadContract.SQL_CREATE_QUEUE);
+        db.execSQL(DownloadContract.SQL_CREATE_QUEUE);
+        Log.d(TAG, "Creating database table: " + DownloadContract.SQL_CREATE_ATTEMPTS);
+        db.execSQL(DownloadContract.SQL_CREATE_ATTEMPTS);
+        db.execSQL(DownloadContract.SQL_CREATE_ATTEMPTS_INDEX);
+    }
+
+    private static void createDownloadIndexes(SQLiteDatabase db) {
+        db.execSQL(DownloadContract.SQL_CREATE_DOWNLOADS_STATUS_INDEX);
+        db.execSQL(DownloadContract.SQL_CREATE_DOWNLOADS_LOCAL_PATH_INDEX);
+        db.execSQL(DownloadContract.SQL_CREATE_DOWNLOADS_TIMESTAMP_INDEX);
     }
 
+    /*
+     * Schema changes since the first released version, one entry per version. MIGRATIONS[i]
+     * takes a database from version FIRST_MIGRATABLE_VERSION + i to the next one. The SQL is
+     * frozen as it was at that version (literal names, no references to the contract), so
+     * later changes to the contract cannot alter what an old step does. A schema change adds
+     * a step here and the same change to onCreate.
+     */
+    private static final int FIRST_MIGRATABLE_VERSION = 4;
+    private static final String[][] MIGRATIONS = {
+        // 4 -> 5: segment map of segmented downloads
+        {
+            "CREATE TABLE IF NOT EXISTS download_segments (_id INTEGER PRIMARY KEY, download_id INTEGER NOT NULL, " +
+                    "segment_index INTEGER, start_byte INTEGER, end_byte INTEGER, downloaded_bytes INTEGER)"
+        },
+        // 5 -> 6: fsync-confirmed segments
+        {
+            "ALTER TABLE download_segments ADD COLUMN confirmed_at INTEGER",
+            "CREATE INDEX IF NOT EXISTS idx_segments_download_id ON download_segments (download_id)"
+        },
+        // 6 -> 7: durable download queue
+        {
+            "CREATE TABLE IF NOT EXISTS download_queue (_id INTEGER PRIMARY KEY, download_id INTEGER NOT NULL UNIQUE, " +
+                    "auth_token TEXT, gofile_content_id TEXT, position INTEGER NOT NULL, enqueued_at INTEGER)"
+        },
+        // 7 -> 8: queue priority and pin
+        {
+            "ALTER TABLE download_queue ADD COLUMN priority INTEGER NOT NULL DEFAULT 0",
+            "ALTER TABLE download_queue ADD COLUMN pinned INTEGER NOT NULL DEFAULT 0"
+        },
+        // 8 -> 9: attempt history
+        {
+            "CREATE TABLE IF NOT EXISTS download_attempts (_id INTEGER PRIMARY KEY, download_id INTEGER NOT NULL, " +
+                    "started_at INTEGER, ended_at INTEGER, start_byte INTEGER, end_byte INTEGER, outcome TEXT, " +
+                    "failure_kind TEXT, http_status INTEGER DEFAULT 0, error_message TEXT, retry_delay_ms INTEGER DEFAULT 0)",
+            "CREATE INDEX IF NOT EXISTS idx_attempts_download_id ON download_attempts (download_id)"
+        },
+        // 9 -> 10: checksum verification
+        {
+            "ALTER TABLE downloads ADD COLUMN expected_hash TEXT",
+            "ALTER TABLE downloads ADD COLUMN integrity INTEGER NOT NULL DEFAULT 0"
+        },
+        // 10 -> 11: indexes on the downloads table
+        {
+            "CREATE INDEX IF NOT EXISTS idx_downloads_status ON downloads (status)",
+            "CREATE INDEX IF NOT EXISTS idx_downloads_local_path ON downloads (local_path)",
+            "CREATE INDEX IF NOT EXISTS idx_downloads_timestamp ON downloads (timestamp)"
+        },
+    };
+
+    /**
+     * Upgrades in place, one version at a time, keeping downloads, resume state and uploads.
+     * SQLiteOpenHelper runs this inside a transaction, so a failing step leaves the database
+     * at its old version. Only versions older than any release with migrations are rebuilt.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+        if (oldVersion < FIRST_MIGRATABLE_VERSION || newVersion > FIRST_MIGRATABLE_VERSION + MIGRATIONS.length) {
+            Log.w(TAG, "No migration from version " + oldVersion + " to " + newVersion + ", recreating the database");
+            recreate(db);
+            return;
+        }
+        migrate(db, oldVersion, newVersion);
+    }
+
+    // Runs the steps that take the database from 'fromVersion' to 'toVersion'
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion; version < toVersion; version++) {
+            Log.i(TAG, "Migrating database from version " + version + " to " + (version + 1));
+            for (String statement : MIGRATIONS[version - FIRST_MIGRATABLE_VERSION]) {
+                db.execSQL(statement);
+            }
+        }
+    }
+
+    private void recreate(SQLiteDatabase db) {
         db.execSQL(DownloadContract.SQL_DELETE_ENTRIES);
         db.execSQL(SQL_DELETE_UPLOADS_ENTRIES);
+        db.execSQL(DownloadContract.SQL_DELETE_SEGMENTS);
+        db.execSQL(DownloadContract.SQL_DELETE_QUEUE);
+        db.execSQL(DownloadContract.SQL_DELETE_ATTEMPTS);
         onCreate(db);
     }
 
+    // A newer app's schema is unknown here: start over rather than run with it
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+        Log.w(TAG, "Downgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+        recreate(db);
     }
 }
-
@@ -13,30 +13,38 @@ public class UploadRepository {
     private SQLiteHelper dbHelper;
 
     public UploadRepository(Context context) {
-        dbHelper = new SQLiteHelper(context);
+        dbHelper = SQLiteHelper.getInstance(context);
     }
 
     public long insertUpload(UploadStatus uploadStatus) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_GAME_NAME, uploadStatus.getGameName());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_FILE_NAME, uploadStatus.getFileName());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_FILE_SIZE, uploadStatus.getFileSize());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_STATUS, uploadStatus.getStatus().name());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_PROGRESS, uploadStatus.getProgress());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_ERROR_MESSAGE, uploadStatus.getErrorMessage());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_START_TIME, uploadStatus.getStartTime());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_UPLOADED_BYTES, uploadStatus.getUploadedBytes());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_FILE_URI, uploadStatus.getFileUri());
-        values.put(UploadContract.UploadEntry.COLUMN_NAME_GAME_LINK, uploadStatus.getGameLink());
-
-        long newRowId = db.insert(UploadContract.UploadEntry.TABLE_NAME, null, values);
-        db.close();
-        return newRowId;
+        return db.insert(UploadContract.UploadEntry.TABLE_NAME, null, toContentValues(uploadStatus));
     }
 
     public int updateUpload(UploadStatus uploadStatus) {
+        return updateUpload(uploadStatus.getId(), toContentValues(uploadStatus));
+    }
+
+    // Same as updateUpload(), on the database writer thread. Safe to call from the UI thread.
+    public void updateUploadAsync(UploadStatus uploadStatus) {
+        final int id = uploadStatus.getId();
+        final ContentValues values = toContentValues(uploadStatus); // Taken now, the object may change
+        dbHelper.executeWrite(() -> updateUpload(id, values));
+    }
+
+    private int updateUpload(int id, ContentValues values) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String selection = UploadContract.UploadEntry._ID + " = ?";
+        String[] selectionArgs = { String.valueOf(id) };
+
+        return db.update(
+                UploadContract.UploadEntry.TABLE_NAME,
+                values,
+                selection,
+                selectionArgs);
+    }
+
+    private static ContentValues toContentValues(UploadStatus uploadStatus) {
         ContentValues values = new ContentValues();
         values.put(UploadContract.UploadEntry.COLUMN_NAME_GAME_NAME, uploadStatus.getGameName());
         values.put(UploadContract.UploadEntry.COLUMN_NAME_FILE_NAME, uploadStatus.getFileName());
@@ -48,17 +56,7 @@ public class UploadRepository {
         values.put(UploadContract.UploadEntry.COLUMN_NAME_UPLOADED_BYTES, uploadStatus.getUploadedBytes());
         values.put(UploadContract.UploadEntry.COLUMN_NAME_FILE_URI, uploadStatus.getFileUri());
         values.put(UploadContract.UploadEntry.COLUMN_NAME_GAME_LINK, uploadStatus.getGameLink());
-
-        String selection = UploadContract.UploadEntry._ID + " = ?";
-        String[] selectionArgs = { String.valueOf(uploadStatus.getId()) };
-
-        int count = db.update(
-                UploadContract.UploadEntry.TABLE_NAME,
-                values,
-                selection,
-                selectionArgs);
-        db.close();
-        return count;
+        return values;
     }
 
     public List<UploadStatus> getAllUploads() {
@@ -105,7 +103,6 @@ public class UploadRepository {
             uploads.add(new UploadStatus(id, gameName, fileName, fileSize, status, progress, errorMessage, startTime, uploadedBytes, fileUri, gameLink));
         }
         cursor.close();
-        db.close();
         return uploads;
     }
 
@@ -114,7 +111,6 @@ public class UploadRepository {
         String selection = UploadContract.UploadEntry._ID + " = ?";
         String[] selectionArgs = { String.valueOf(id) };
         db.delete(UploadContract.UploadEntry.TABLE_NAME, selection, selectionArgs);
-        db.close();
     }
 
     public UploadStatus getUploadById(int id) {
@@ -163,7 +159,6 @@ public class UploadRepository {
             uploadStatus = new UploadStatus(id, gameName, fileName, fileSize, status, progress, errorMessage, startTime, uploadedBytes, fileUri, gameLink);
         }
         cursor.close();
-        db.close();
         return uploadStatus;
     }
 }
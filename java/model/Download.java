@@ -10,6 +10,9 @@ public class Download {
     private int status;
     private long timestamp;
     private double speed; // Velocidade em bytes por segundo (calculada, não armazenada no banco)
+    private long etaSeconds = -1; // Tempo restante estimado, -1 = desconhecido (não armazenado no banco)
+    private String expectedHash; // "md5:<hex>" / "sha256:<hex>", null se a origem não informa
+    private int integrity = INTEGRITY_UNCHECKED;
     private boolean isSelected; // Novo campo para controlar seleção
 
     // Status constants (duplicados do DownloadContract para facilitar o acesso)
@@ -18,6 +21,13 @@ public class Download {
     public static final int STATUS_COMPLETED = 2;
     public static final int STATUS_FAILED = 3;
     public static final int STATUS_PAUSED = 4;
+    public static final int STATUS_EXTRACTING = 5;
+    public static final int STATUS_WAITING_FOR_SPACE = 6;
+
+    // Verificação do hash (duplicados do DownloadContract)
+    public static final int INTEGRITY_UNCHECKED = 0;
+    public static final int INTEGRITY_VERIFIED = 1;
+    public static final int INTEGRITY_CORRUPT = 2;
 
     public Download(long id, String url, String fileName, String localPath, long totalBytes, long downloadedBytes, int status, long timestamp) {
         this.id = id;
@@ -72,6 +82,39 @@ public class Download {
         this.speed = speed;
     }
 
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
+    // Atualização de progresso em tempo real (sem recriar o objeto)
+    public void setDownloadedBytes(long downloadedBytes) {
+        this.downloadedBytes = downloadedBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public String getExpectedHash() {
+        return expectedHash;
+    }
+
+    public void setExpectedHash(String expectedHash) {
+        this.expectedHash = expectedHash;
+    }
+
+    public int getIntegrity() {
+        return integrity;
+    }
+
+    public void setIntegrity(int integrity) {
+        this.integrity = integrity;
+    }
+
     public boolean isSelected() {
         return isSelected;
     }
@@ -100,6 +143,22 @@ public class Download {
         return formatSize((long) speed) + "/s";
     }
 
+    // Ex.: "12 min restantes"; vazio quando desconhecido
+    public String getFormattedEta() {
+        return etaSeconds >= 0 ? formatTimeLeft(etaSeconds) : "";
+    }
+
+    public static String formatTimeLeft(long seconds) {
+        if (seconds < 60) {
+            return "menos de 1 min restante";
+        }
+        long minutes = (seconds + 59) / 60;
+        if (minutes < 60) {
+            return minutes + " min restantes";
+        }
+        return (minutes / 60) + " h " + (minutes % 60) + " min restantes";
+    }
+
     private String formatSize(long bytes) {
         if (bytes < 0) {
             return "Desconhecido";
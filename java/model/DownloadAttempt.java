@@ -0,0 +1,82 @@
+package com.winlator.Download.model;
+
+/**
+ * One run of a download, as recorded in the attempt history.
+ */
+public class DownloadAttempt {
+    private long id;
+    private long downloadId;
+    private long startedAt;
+    private long endedAt;
+    private long startByte;
+    private long endByte;
+    private String outcome; // DownloadContract.AttemptEntry.OUTCOME_*
+    private String failureKind; // Null when the attempt did not fail
+    private int httpStatus;
+    private String errorMessage;
+    private long retryDelayMs;
+
+    public DownloadAttempt(long id, long downloadId, long startedAt, long endedAt, long startByte, long endByte,
+                           String outcome, String failureKind, int httpStatus, String errorMessage, long retryDelayMs) {
+        this.id = id;
+        this.downloadId = downloadId;
+        this.startedAt = startedAt;
+        this.endedAt = endedAt;
+        this.startByte = startByte;
+        this.endByte = endByte;
+        this.outcome = outcome;
+        this.failureKind = failureKind;
+        this.httpStatus = httpStatus;
+        this.errorMessage = errorMessage;
+        this.retryDelayMs = retryDelayMs;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getDownloadId() {
+        return downloadId;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getEndedAt() {
+        return endedAt;
+    }
+
+    public long getStartByte() {
+        return startByte;
+    }
+
+    public long getEndByte() {
+        return endByte;
+    }
+
+    // Bytes downloaded during this attempt
+    public long getBytesTransferred() {
+        return Math.max(0, endByte - startByte);
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public String getFailureKind() {
+        return failureKind;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public long getRetryDelayMs() {
+        return retryDelayMs;
+    }
+}
@@ -8,6 +8,7 @@ public class WinlatorVersion implements Serializable {
     private String downloadUrl;
     private long assetSize;
     private String publishedAt;
+    private String digest; // "sha256:<hex>" published by GitHub for the asset, null if absent
 
     public WinlatorVersion(String name, String assetName, String downloadUrl) {
         this.name = name;
@@ -45,6 +46,14 @@ public class WinlatorVersion implements Serializable {
         return publishedAt;
     }
 
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
     public void setName(String name) {
         this.name = name;
     }
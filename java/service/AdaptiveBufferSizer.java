@@ -0,0 +1,50 @@
+package com.winlator.Download.service;
+
+/**
+ * Picks the read buffer size of one download. It starts at the smallest size class and
+ * doubles it while the measured throughput keeps rising, so slow links keep small buffers
+ * and fast ones move to large reads with fewer calls per megabyte.
+ */
+class AdaptiveBufferSizer {
+
+    private static final long WINDOW_MS = 1000;
+    // Throughput must improve by at least this factor between windows to grow again
+    private static final double GROWTH_THRESHOLD = 1.1;
+
+    private final BufferPool pool;
+    private final int maxSize;
+    private int size = BufferPool.MIN_BUFFER_BYTES;
+    private long windowStart = 0;
+    private long windowBytes = 0;
+    private double lastThroughput = 0;
+
+    AdaptiveBufferSizer(BufferPool pool, int maxSize) {
+        this.pool = pool;
+        // Rounded down to a size class: the pool rounds requests up, which would overshoot the cap
+        this.maxSize = BufferPool.floorSizeClass(maxSize);
+    }
+
+    synchronized int getSize() {
+        // Memory pressure lowers the pool limit; follow it down right away
+        size = Math.min(size, Math.max(BufferPool.MIN_BUFFER_BYTES, pool.getMaxBufferBytes()));
+        return size;
+    }
+
+    synchronized void onBytesRead(long bytes) {
+        long now = System.currentTimeMillis();
+        if (windowStart == 0) {
+            windowStart = now;
+        }
+        windowBytes += bytes;
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_MS) return;
+
+        double throughput = windowBytes * 1000.0 / elapsed;
+        if (throughput > lastThroughput * GROWTH_THRESHOLD && size < maxSize) {
+            size = Math.min(maxSize, size * 2);
+        }
+        lastThroughput = throughput;
+        windowStart = now;
+        windowBytes = 0;
+    }
+}
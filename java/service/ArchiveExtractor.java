@@ -0,0 +1,40 @@
+package com.winlator.Download.service;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unpacks one archive format. Implementations are registered with {@link ArchiveExtractors};
+ * ZIP is built in, formats that need a native or third-party decoder (7z, RAR...) can be
+ * added by registering another implementation.
+ */
+public interface ArchiveExtractor {
+
+    /**
+     * Receives the progress of an extraction, on the extracting thread.
+     */
+    interface Listener {
+        /**
+         * @param bytesDone  Uncompressed bytes written so far.
+         * @param totalBytes Uncompressed size of the whole archive, -1 when unknown.
+         */
+        void onProgress(long bytesDone, long totalBytes);
+
+        // Checked between blocks; returning true stops the extraction with an InterruptedIOException
+        boolean isCancelled();
+    }
+
+    /**
+     * @return true if this extractor can read the file. Should be cheap: a look at the name
+     *         and at most the first bytes.
+     */
+    boolean canExtract(File archive);
+
+    /**
+     * Extracts every entry of the archive under 'destination', which is created if needed and
+     * must be empty: a folder that already has files is refused, so nothing is overwritten and
+     * a failed extraction can be cleaned up by removing everything under it. Entries that would
+     * land outside of it are rejected.
+     */
+    void extract(File archive, File destination, Listener listener) throws IOException;
+}
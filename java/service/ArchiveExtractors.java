@@ -0,0 +1,62 @@
+package com.winlator.Download.service;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The archive formats the app can unpack. Extractors registered later are asked first, so an
+ * app-provided decoder can take over a format that is also built in.
+ */
+public final class ArchiveExtractors {
+
+    private static final List<ArchiveExtractor> EXTRACTORS = new CopyOnWriteArrayList<>();
+
+    static {
+        EXTRACTORS.add(new ZipArchiveExtractor());
+    }
+
+    private ArchiveExtractors() {
+    }
+
+    public static void register(ArchiveExtractor extractor) {
+        if (extractor != null && !EXTRACTORS.contains(extractor)) {
+            EXTRACTORS.add(0, extractor);
+        }
+    }
+
+    /**
+     * @return The extractor for the file, or null if it is not an archive the app can unpack.
+     */
+    public static ArchiveExtractor find(File archive) {
+        if (archive == null || !archive.isFile()) return null;
+        for (ArchiveExtractor extractor : EXTRACTORS) {
+            if (extractor.canExtract(archive)) {
+                return extractor;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Where an archive is unpacked: a folder next to it named after it without the extension
+     * ("Game.zip" -> "Game"). If that folder already has files, the first free "Game (2)",
+     * "Game (3)"... is used instead, since extractors do not write into a non-empty folder.
+     */
+    public static File getDestination(File archive) {
+        String name = archive.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name + "_extracted";
+        File destination = new File(archive.getParentFile(), baseName);
+        for (int copy = 2; !isEmptyOrMissing(destination); copy++) {
+            destination = new File(archive.getParentFile(), baseName + " (" + copy + ")");
+        }
+        return destination;
+    }
+
+    private static boolean isEmptyOrMissing(File folder) {
+        if (!folder.exists()) return true;
+        String[] children = folder.list();
+        return children != null && children.length == 0;
+    }
+}
@@ -0,0 +1,90 @@
+package com.winlator.Download.service;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket shared by the connections it throttles. A limiter may have a parent, so a
+ * per-download bucket draws from the service-wide one as well: a read only proceeds once
+ * both budgets allow it. The rate can be changed at any time and applies to reads already
+ * waiting.
+ */
+class BandwidthLimiter {
+
+    // Largest burst allowed after an idle period
+    private static final long MAX_BURST_MS = 250;
+    // Reads are sized to about this much of the rate, so waits stay short and stops stay responsive
+    private static final int CHUNKS_PER_SECOND = 10;
+    private static final int MIN_CHUNK_BYTES = 4 * 1024;
+
+    private final BandwidthLimiter parent;
+    private long bytesPerSecond = 0; // 0 = unlimited
+    private double tokens = 0;
+    private long lastRefillNanos = System.nanoTime();
+
+    BandwidthLimiter(BandwidthLimiter parent) {
+        this.parent = parent;
+    }
+
+    synchronized void setRate(long bytesPerSecond) {
+        refill();
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        tokens = this.bytesPerSecond > 0 ? Math.min(tokens, burstBytes()) : 0;
+        notifyAll(); // Let waiting readers re-evaluate with the new rate
+    }
+
+    synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * How many bytes to read next, given the requested amount: one chunk of the tightest
+     * active limit, or the full request when nothing is limited.
+     */
+    int chunkSize(int requested) {
+        int size = requested;
+        long rate = getRate();
+        if (rate > 0) {
+            size = (int) Math.min(size, Math.max(MIN_CHUNK_BYTES, rate / CHUNKS_PER_SECOND));
+        }
+        return parent != null ? parent.chunkSize(size) : size;
+    }
+
+    /**
+     * Accounts for bytes that were just read and blocks until the budget has room for them.
+     * The balance may go negative, so a large read is paid back by waiting afterwards.
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        consume(bytes);
+        if (parent != null) {
+            parent.acquire(bytes);
+        }
+    }
+
+    private synchronized void consume(int bytes) throws InterruptedIOException {
+        if (bytesPerSecond <= 0) return;
+        refill();
+        tokens -= bytes;
+        try {
+            while (tokens < 0 && bytesPerSecond > 0) {
+                long waitMs = (long) Math.ceil(-tokens * 1000.0 / bytesPerSecond);
+                wait(Math.max(1, waitMs));
+                refill();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(burstBytes(), tokens + (now - lastRefillNanos) * bytesPerSecond / 1e9);
+        }
+        lastRefillNanos = now;
+    }
+
+    private double burstBytes() {
+        return Math.max(MIN_CHUNK_BYTES, bytesPerSecond * MAX_BURST_MS / 1000.0);
+    }
+}
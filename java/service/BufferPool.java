@@ -0,0 +1,109 @@
+package com.winlator.Download.service;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Read buffers shared by every download of the service, in power-of-two size classes from
+ * MIN_BUFFER_BYTES to MAX_BUFFER_BYTES. Released buffers are kept for reuse up to a retained
+ * byte budget, so tasks starting and stopping do not keep allocating large arrays.
+ */
+class BufferPool {
+
+    private static final String TAG = "BufferPool";
+
+    static final int MIN_BUFFER_BYTES = 64 * 1024;
+    static final int MAX_BUFFER_BYTES = 1024 * 1024;
+    private static final int SIZE_CLASSES = 5; // 64K, 128K, 256K, 512K, 1M
+    private static final long MAX_RETAINED_BYTES = 16L * 1024 * 1024;
+    // How long a size cap imposed by memory pressure lasts
+    private static final long TRIM_HOLD_MS = 60000;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<ByteBuffer>[] freeBuffers = new ArrayDeque[SIZE_CLASSES];
+    private long retainedBytes = 0;
+    private int maxBufferBytes = MAX_BUFFER_BYTES;
+    private long trimmedAt = 0;
+
+    BufferPool() {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeBuffers[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Returns an empty buffer of the size class covering the requested size, capped by the
+     * current memory pressure limit. Buffers are heap-backed so reads can go straight into
+     * their array.
+     */
+    synchronized ByteBuffer acquire(int size) {
+        int sizeClass = sizeClassFor(Math.min(size, getMaxBufferBytesLocked()));
+        ByteBuffer buffer = freeBuffers[sizeClass].poll();
+        if (buffer != null) {
+            retainedBytes -= buffer.capacity();
+            buffer.clear();
+            return buffer;
+        }
+        return ByteBuffer.allocate(MIN_BUFFER_BYTES << sizeClass);
+    }
+
+    synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = Integer.numberOfTrailingZeros(capacity / MIN_BUFFER_BYTES);
+        boolean pooledSize = capacity >= MIN_BUFFER_BYTES && Integer.bitCount(capacity) == 1 && sizeClass < SIZE_CLASSES;
+        if (!pooledSize || capacity > getMaxBufferBytesLocked() || retainedBytes + capacity > MAX_RETAINED_BYTES) {
+            return; // Left to the garbage collector
+        }
+        buffer.clear();
+        freeBuffers[sizeClass].push(buffer);
+        retainedBytes += capacity;
+    }
+
+    // Largest buffer handed out right now; lower for a while after memory pressure
+    synchronized int getMaxBufferBytes() {
+        return getMaxBufferBytesLocked();
+    }
+
+    /**
+     * Drops every cached buffer and caps new buffers at the given size for a while.
+     * Called when the system reports memory pressure.
+     */
+    synchronized void trim(int maxBytes) {
+        for (ArrayDeque<ByteBuffer> buffers : freeBuffers) {
+            buffers.clear();
+        }
+        retainedBytes = 0;
+        maxBufferBytes = floorSizeClass(maxBytes);
+        trimmedAt = System.currentTimeMillis();
+        Log.i(TAG, "Trimmed, buffers capped at " + maxBufferBytes / 1024 + " KB");
+    }
+
+    private int getMaxBufferBytesLocked() {
+        if (maxBufferBytes < MAX_BUFFER_BYTES && System.currentTimeMillis() - trimmedAt > TRIM_HOLD_MS) {
+            maxBufferBytes = MAX_BUFFER_BYTES;
+        }
+        return maxBufferBytes;
+    }
+
+    /**
+     * Largest size class that fits in the given size, never below MIN_BUFFER_BYTES. Used for
+     * limits: acquire() rounds up, so a limit between two classes would hand out the larger one.
+     */
+    static int floorSizeClass(int size) {
+        int classSize = MIN_BUFFER_BYTES;
+        while (classSize < MAX_BUFFER_BYTES && classSize * 2 <= size) {
+            classSize *= 2;
+        }
+        return classSize;
+    }
+
+    private static int sizeClassFor(int size) {
+        int sizeClass = 0;
+        while (sizeClass < SIZE_CLASSES - 1 && (MIN_BUFFER_BYTES << sizeClass) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+}
@@ -0,0 +1,104 @@
+package com.winlator.Download.service;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space promised to running downloads that they have not taken on disk yet. A download is
+ * only let through when the usable space of its volume, minus what is promised to the other
+ * downloads on the same volume and a safety margin, covers what its file still has to grow
+ * by. A promise shrinks to nothing once the file is preallocated (the space is then really
+ * taken) and ends when the download stops.
+ *
+ * Volumes are told apart by device id, so downloads in different folders of the same card
+ * share its free space.
+ */
+final class DiskSpaceReservations {
+
+    // Left free for the system and other apps
+    static final long SAFETY_MARGIN_BYTES = 64L * 1024 * 1024;
+
+    private static final class Reservation {
+        final Object volume;
+        long bytes;
+
+        Reservation(Object volume, long bytes) {
+            this.volume = volume;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Map<Long, Reservation> reservations = new HashMap<>(); // Guarded by this
+
+    /**
+     * @return What a download could still reserve on the volume of 'target', leaving out its
+     *         own current reservation. May be negative.
+     */
+    synchronized long getAvailableBytes(long downloadId, File target) {
+        File directory = directoryOf(target);
+        return getAvailableBytes(downloadId, volumeOf(directory), directory.getUsableSpace());
+    }
+
+    /**
+     * Same as {@link #getAvailableBytes(long, File)} with the volume and its usable space
+     * already known, so nothing is read from the file system.
+     */
+    synchronized long getAvailableBytes(long downloadId, Object volume, long usableBytes) {
+        long available = usableBytes - SAFETY_MARGIN_BYTES;
+        for (Map.Entry<Long, Reservation> entry : reservations.entrySet()) {
+            if (entry.getKey() != downloadId && entry.getValue().volume.equals(volume)) {
+                available -= entry.getValue().bytes;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Reserves 'bytes' for the download, replacing what it had reserved before, if they fit.
+     * An unknown size (negative) reserves nothing and always fits: the download finds out
+     * its size once it runs and reserves again then.
+     */
+    synchronized boolean tryReserve(long downloadId, File target, long bytes) {
+        File directory = directoryOf(target);
+        return tryReserve(downloadId, volumeOf(directory), directory.getUsableSpace(), bytes);
+    }
+
+    // Same as tryReserve(long, File, long) with the volume and its usable space already known
+    synchronized boolean tryReserve(long downloadId, Object volume, long usableBytes, long bytes) {
+        if (bytes > 0 && bytes > getAvailableBytes(downloadId, volume, usableBytes)) {
+            return false;
+        }
+        reservations.put(downloadId, new Reservation(volume, Math.max(0, bytes)));
+        return true;
+    }
+
+    // Lowers a reservation as its space gets used on disk
+    synchronized void update(long downloadId, long bytes) {
+        Reservation reservation = reservations.get(downloadId);
+        if (reservation != null) {
+            reservation.bytes = Math.max(0, bytes);
+        }
+    }
+
+    synchronized void release(long downloadId) {
+        reservations.remove(downloadId);
+    }
+
+    static File directoryOf(File target) {
+        File parent = target.getParentFile();
+        return parent != null ? parent : target;
+    }
+
+    // Device id of the file system, or the path when it cannot be read
+    static Object volumeOf(File directory) {
+        try {
+            return Os.stat(directory.getAbsolutePath()).st_dev;
+        } catch (ErrnoException e) {
+            return directory.getAbsolutePath();
+        }
+    }
+}
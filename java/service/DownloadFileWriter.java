@@ -0,0 +1,132 @@
+package com.winlator.Download.service;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Positional writer for a download's target file. All segments of a download share one
+ * instance; FileChannel positional writes are safe to issue from several threads.
+ */
+class DownloadFileWriter implements Closeable {
+
+    private static final String TAG = "DownloadFileWriter";
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    DownloadFileWriter(File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Reserves the full length of the file up front, so the download cannot run out of space
+     * halfway through and the file system can lay the file out in as few extents as possible.
+     * Throws InsufficientSpaceException right away if the space is not there.
+     * @return true if the blocks are allocated on disk; false if only the length could be set
+     *         (or there was nothing to do), in which case the space is taken as data arrives.
+     */
+    boolean preallocate(long length) throws IOException {
+        if (length <= 0) return false;
+        long currentLength = channel.size();
+        if (currentLength > length) {
+            channel.truncate(length); // Leftover from a larger previous version of the file
+            return false;
+        }
+        long allocated = allocatedBytes();
+        long needed = Math.max(0, length - (allocated >= 0 ? allocated : currentLength));
+        File volume = file.getParentFile() != null ? file.getParentFile() : file;
+        long usable = volume.getUsableSpace();
+        if (needed > usable) {
+            throw new InsufficientSpaceException(file.getAbsolutePath(), needed, usable);
+        }
+
+        try {
+            Os.posix_fallocate(randomAccessFile.getFD(), 0, length);
+            Log.d(TAG, "Preallocated " + length + " bytes for " + file.getName());
+            return true;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) {
+                throw new InsufficientSpaceException(file.getAbsolutePath(), needed, volume.getUsableSpace());
+            }
+            // Some file systems (FAT on SD cards, FUSE) cannot fallocate; at least set the final size
+            Log.w(TAG, "posix_fallocate not supported (" + e.getMessage() + "), falling back to setLength");
+            randomAccessFile.setLength(length);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the whole remaining content of the buffer starting at the given file position.
+     * @return The number of bytes written.
+     */
+    int write(ByteBuffer source, long position) throws IOException {
+        int written = 0;
+        while (source.hasRemaining()) {
+            written += channel.write(source, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * Bytes the file really takes on disk, which its length does not tell: setLength (the
+     * fallback when posix_fallocate is not supported) leaves a sparse file of the full length
+     * that takes almost nothing until the data is written.
+     * @return -1 if the file system does not say.
+     */
+    long allocatedBytes() {
+        try {
+            return Os.fstat(randomAccessFile.getFD()).st_blocks * 512;
+        } catch (ErrnoException | IOException e) {
+            return -1;
+        }
+    }
+
+    // Same as allocatedBytes() for a file that is not open; 0 if it does not exist
+    static long allocatedBytes(File file) {
+        if (!file.exists()) return 0;
+        try {
+            return Os.stat(file.getAbsolutePath()).st_blocks * 512;
+        } catch (ErrnoException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads into the buffer from the given file position.
+     * @return The number of bytes read, -1 at the end of the file.
+     */
+    int read(ByteBuffer target, long position) throws IOException {
+        return channel.read(target, position);
+    }
+
+    // Flushes written data (not metadata) to the storage device
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void truncate(long length) throws IOException {
+        channel.truncate(length);
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        randomAccessFile.close();
+    }
+}
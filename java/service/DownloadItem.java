@@ -5,12 +5,18 @@ public class DownloadItem {
     public final String directUrl;
     public final long size;
     public final String gofileContentId; // Original Gofile content ID for reference
+    public final String expectedHash; // "md5:<hex>" / "sha256:<hex>" if the host publishes one, else null
 
     public DownloadItem(String fileName, String directUrl, long size, String gofileContentId) {
+        this(fileName, directUrl, size, gofileContentId, null);
+    }
+
+    public DownloadItem(String fileName, String directUrl, long size, String gofileContentId, String expectedHash) {
         this.fileName = fileName;
         this.directUrl = directUrl;
         this.size = size;
         this.gofileContentId = gofileContentId;
+        this.expectedHash = expectedHash;
     }
 
     @Override
@@ -20,6 +26,7 @@ public class DownloadItem {
                ", directUrl='" + directUrl + '\'' +
                ", size=" + size +
                ", gofileContentId='" + gofileContentId + '\'' +
+               ", expectedHash='" + expectedHash + '\'' +
                '}';
     }
 }
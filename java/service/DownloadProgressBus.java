@@ -0,0 +1,179 @@
+package com.winlator.Download.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LongSparseArray;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process channel for download progress. Download threads overwrite the latest snapshot of
+ * their download (one reusable object per id, no allocation per tick); observers on the main
+ * thread get the snapshots that changed at most once per frame, however often they were
+ * published. Status changes (start, pause, completion...) are published as row changes by
+ * DownloadRepository.
+ */
+public final class DownloadProgressBus {
+
+    /**
+     * Progress of one download. Instances handed to observers are owned by the bus and reused:
+     * read them during the callback, do not keep them.
+     */
+    public static final class Progress {
+        private long downloadId;
+        private long downloadedBytes;
+        private long totalBytes;
+        private double speed;
+        private long etaSeconds;
+
+        public long getDownloadId() {
+            return downloadId;
+        }
+
+        public long getDownloadedBytes() {
+            return downloadedBytes;
+        }
+
+        // -1 when unknown
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        // Bytes per second, smoothed over the last few seconds
+        public double getSpeed() {
+            return speed;
+        }
+
+        // Time left at the current speed, -1 when unknown
+        public long getEtaSeconds() {
+            return etaSeconds;
+        }
+
+        // 0..100, 0 when the size is unknown
+        public int getPercent() {
+            return totalBytes > 0 ? (int) ((downloadedBytes * 100) / totalBytes) : 0;
+        }
+
+        void copyFrom(Progress other) {
+            downloadId = other.downloadId;
+            downloadedBytes = other.downloadedBytes;
+            totalBytes = other.totalBytes;
+            speed = other.speed;
+            etaSeconds = other.etaSeconds;
+        }
+    }
+
+    public interface Observer {
+        // Main thread, once per frame for every download whose progress changed
+        void onProgress(Progress progress);
+    }
+
+    private static final DownloadProgressBus INSTANCE = new DownloadProgressBus();
+
+    public static DownloadProgressBus getInstance() {
+        return INSTANCE;
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Guarded by this: latest values written by the download threads
+    private final LongSparseArray<Progress> latest = new LongSparseArray<>();
+    private final LongSparseArray<Progress> dirty = new LongSparseArray<>();
+    private boolean frameScheduled = false;
+    // Main thread only
+    private final List<Observer> observers = new ArrayList<>();
+    private final LongSparseArray<Progress> delivered = new LongSparseArray<>();
+    private Progress[] deliveryBatch = new Progress[4];
+
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> deliver();
+    private final Runnable scheduleFrame = () -> Choreographer.getInstance().postFrameCallback(frameCallback);
+
+    private DownloadProgressBus() {
+    }
+
+    /**
+     * Publishes the current progress of a download; safe to call from any thread, as often as
+     * needed. Only the last value before each frame reaches the observers.
+     */
+    public void publish(long downloadId, long downloadedBytes, long totalBytes, double speed, long etaSeconds) {
+        synchronized (this) {
+            Progress progress = latest.get(downloadId);
+            if (progress == null) {
+                progress = new Progress();
+                progress.downloadId = downloadId;
+                latest.put(downloadId, progress);
+            }
+            progress.downloadedBytes = downloadedBytes;
+            progress.totalBytes = totalBytes;
+            progress.speed = speed;
+            progress.etaSeconds = etaSeconds;
+            dirty.put(downloadId, progress);
+            if (frameScheduled) return;
+            frameScheduled = true;
+        }
+        // Choreographer belongs to the main thread's looper
+        mainHandler.post(scheduleFrame);
+    }
+
+    /**
+     * Copies the latest progress of a download into 'out'.
+     * @return false if nothing was published for it (or it was cleared).
+     */
+    public synchronized boolean getLatest(long downloadId, Progress out) {
+        Progress progress = latest.get(downloadId);
+        if (progress == null) return false;
+        out.copyFrom(progress);
+        return true;
+    }
+
+    // Forgets a download that stopped; its last snapshot is not delivered anymore
+    public void clear(final long downloadId) {
+        synchronized (this) {
+            latest.remove(downloadId);
+            dirty.remove(downloadId);
+        }
+        mainHandler.post(() -> delivered.remove(downloadId));
+    }
+
+    // Main thread
+    public void addObserver(Observer observer) {
+        if (!observers.contains(observer)) {
+            observers.add(observer);
+        }
+    }
+
+    // Main thread
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    private void deliver() {
+        int count;
+        synchronized (this) {
+            frameScheduled = false;
+            count = dirty.size();
+            if (deliveryBatch.length < count) {
+                deliveryBatch = new Progress[Math.max(count, deliveryBatch.length * 2)];
+            }
+            // Copy out under the lock so observers run without blocking the download threads
+            for (int i = 0; i < count; i++) {
+                long downloadId = dirty.keyAt(i);
+                Progress copy = delivered.get(downloadId);
+                if (copy == null) {
+                    copy = new Progress();
+                    delivered.put(downloadId, copy);
+                }
+                copy.copyFrom(dirty.valueAt(i));
+                deliveryBatch[i] = copy;
+            }
+            dirty.clear();
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < observers.size(); j++) {
+                observers.get(j).onProgress(deliveryBatch[i]);
+            }
+            deliveryBatch[i] = null;
+        }
+    }
+}
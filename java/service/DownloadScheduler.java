@@ -0,0 +1,541 @@
+package com.winlator.Download.service;
+
+import android.util.Log;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs download jobs on a dedicated pool with one thread per slot. The number of slots is the
+ * concurrent download limit: jobs beyond it wait in the scheduler's queue and the best one is
+ * handed to the pool as soon as a slot frees up. Queued jobs are ordered by pin, then priority,
+ * then (optionally) smallest remaining size, then queue position; the order is evaluated at
+ * dispatch time, so jobs can be reordered while they wait.
+ *
+ * Slots are also limited per file host: a job whose host already runs the per-host maximum is
+ * skipped until one of them finishes, and among jobs of equal pin and priority the host that
+ * got a slot least recently goes first, so one slow or throttling provider cannot take every
+ * slot while downloads from other hosts wait. Every job is tracked by download id
+ * through its Future, which is the single handle used to cancel it, whether it is still queued
+ * or already running.
+ *
+ * A job is also only started when its volume has room for what its file still has to grow
+ * by, counting the space promised to the downloads already running ({@link DiskSpaceReservations}).
+ * One that does not fit waits for space without holding a slot, so smaller downloads behind
+ * it can still start; it is tried again whenever a download stops or {@link #recheckSpace()}
+ * is called.
+ */
+public class DownloadScheduler {
+
+    private static final String TAG = "DownloadScheduler";
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    interface Job extends Runnable {
+        long getDownloadId();
+        // URL whose host counts towards the per-host limit
+        String getUrl();
+        // Pinned jobs go before everything else
+        boolean isPinned();
+        // Higher runs first
+        int getPriority();
+        // Lower runs first among jobs of the same pin and priority
+        long getQueuePosition();
+        // -1 when unknown; only used with smallest-first ordering
+        long getRemainingBytes();
+        // Current (smoothed) bytes per second, 0 until the job is running
+        double getSpeed();
+        // Called instead of run() when the job is cancelled before it got a slot
+        void onCancelledBeforeStart();
+        // File the download writes to
+        File getTargetFile();
+        // Bytes the file still has to grow by, -1 when the size is not known yet. Read once, at submit
+        long getRequiredSpace();
+    }
+
+    interface AdmissionListener {
+        // A queued job could have started but its volume is too full (any thread)
+        void onWaitingForSpace(long downloadId, long requiredBytes, long availableBytes);
+    }
+
+    public static final class Metrics {
+        private final int threadCount;
+        private final int activeSlots;
+        private final int maxSlots;
+        private final int queueLength;
+        private final long completedJobs;
+        private final Map<String, Integer> runningByHost;
+        private final double throughput;
+
+        Metrics(int threadCount, int activeSlots, int maxSlots, int queueLength, long completedJobs,
+                Map<String, Integer> runningByHost, double throughput) {
+            this.threadCount = threadCount;
+            this.activeSlots = activeSlots;
+            this.maxSlots = maxSlots;
+            this.queueLength = queueLength;
+            this.completedJobs = completedJobs;
+            this.runningByHost = Collections.unmodifiableMap(runningByHost);
+            this.throughput = throughput;
+        }
+
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        public int getActiveSlots() {
+            return activeSlots;
+        }
+
+        public int getMaxSlots() {
+            return maxSlots;
+        }
+
+        public int getQueueLength() {
+            return queueLength;
+        }
+
+        public long getCompletedJobs() {
+            return completedJobs;
+        }
+
+        // Downloads holding a slot, by host key
+        public Map<String, Integer> getRunningByHost() {
+            return runningByHost;
+        }
+
+        // Combined speed of the running downloads, bytes per second
+        public double getThroughput() {
+            return throughput;
+        }
+
+        // Fraction of the slots in use, 0..1
+        public double getSlotUtilisation() {
+            return maxSlots > 0 ? (double) activeSlots / maxSlots : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "threads=" + threadCount +
+                   ", slots=" + activeSlots + "/" + maxSlots +
+                   ", queued=" + queueLength +
+                   ", completed=" + completedJobs +
+                   ", hosts=" + runningByHost +
+                   ", throughput=" + (long) (throughput / 1024) + " KB/s";
+        }
+    }
+
+    private final class JobFuture extends FutureTask<Void> {
+        final Job job;
+        final String host;
+        final long sequence; // Submission order, the final tie-breaker
+        // Read once at submit, outside the lock: dispatch only compares them with free space
+        final File directory;
+        final Object volume;
+        final long requiredSpace;
+        volatile boolean started = false;
+        private volatile boolean ran = false;
+        private final AtomicBoolean cancelHandled = new AtomicBoolean();
+
+        JobFuture(Job job, RunFlag flag, long sequence) {
+            super(flag, null);
+            this.job = job;
+            this.host = hostKey(job.getUrl());
+            this.sequence = sequence;
+            this.directory = DiskSpaceReservations.directoryOf(job.getTargetFile());
+            this.volume = DiskSpaceReservations.volumeOf(directory);
+            this.requiredSpace = job.getRequiredSpace();
+            flag.future = this;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            activeSlots.incrementAndGet();
+            try {
+                super.run();
+            } finally {
+                activeSlots.decrementAndGet();
+                completedJobs.incrementAndGet();
+                jobs.remove(job.getDownloadId(), this);
+                spaceReservations.release(job.getDownloadId());
+                // Cancelled between taking the slot and starting the job
+                if (!ran && cancelHandled.compareAndSet(false, true)) {
+                    job.onCancelledBeforeStart();
+                }
+                synchronized (DownloadScheduler.this) {
+                    dispatchedJobs--;
+                    Integer running = runningByHost.get(host);
+                    if (running != null && running > 1) {
+                        runningByHost.put(host, running - 1);
+                    } else {
+                        runningByHost.remove(host);
+                    }
+                }
+                dispatch();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() && !started && cancelHandled.compareAndSet(false, true)) {
+                jobs.remove(job.getDownloadId(), this);
+                synchronized (DownloadScheduler.this) {
+                    pending.remove(this);
+                    waitingForSpace.remove(job.getDownloadId());
+                }
+                job.onCancelledBeforeStart();
+            }
+        }
+    }
+
+    // Marks that the job itself started, as opposed to its Future being run after a cancel
+    private static final class RunFlag implements Runnable {
+        final Job job;
+        JobFuture future;
+
+        RunFlag(Job job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            future.ran = true;
+            job.run();
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Long, JobFuture> jobs = new ConcurrentHashMap<>();
+    private final Map<Object, File> volumes = new ConcurrentHashMap<>(); // Volume of every job submitted -> a directory on it
+    private final AtomicInteger activeSlots = new AtomicInteger();
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong submittedJobs = new AtomicLong();
+    // Guarded by this
+    private final List<JobFuture> pending = new ArrayList<>();
+    private int dispatchedJobs = 0; // Handed to the pool and not finished yet
+    private int maxSlots;
+    private int maxSlotsPerHost;
+    private final Map<String, Integer> runningByHost = new HashMap<>();
+    private final Map<String, Long> lastTurnByHost = new HashMap<>(); // Dispatch counter of the host's last slot
+    private long dispatchCount = 0;
+    private final Set<Long> waitingForSpace = new HashSet<>(); // Reported to the listener already
+    private final List<long[]> newlyWaiting = new ArrayList<>(); // { id, required, available }, reported after the lock
+    private volatile boolean smallestFirst = false;
+    private final DiskSpaceReservations spaceReservations = new DiskSpaceReservations();
+    private volatile AdmissionListener admissionListener;
+
+    private final Comparator<JobFuture> queueOrder = (a, b) -> {
+        if (a.job.isPinned() != b.job.isPinned()) {
+            return a.job.isPinned() ? -1 : 1;
+        }
+        int byPriority = Integer.compare(b.job.getPriority(), a.job.getPriority());
+        if (byPriority != 0) return byPriority;
+        if (smallestFirst && !a.job.isPinned()) {
+            int bySize = Long.compare(remainingOrMax(a.job), remainingOrMax(b.job));
+            if (bySize != 0) return bySize;
+        }
+        int byPosition = Long.compare(a.job.getQueuePosition(), b.job.getQueuePosition());
+        if (byPosition != 0) return byPosition;
+        return Long.compare(a.sequence, b.sequence);
+    };
+
+    DownloadScheduler(int maxSlots, int maxSlotsPerHost) {
+        int slots = Math.max(1, maxSlots);
+        this.maxSlots = slots;
+        this.maxSlotsPerHost = Math.max(1, maxSlotsPerHost);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "download-slot-" + threadNumber.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(slots, slots, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true); // No threads kept around while nothing is downloading
+    }
+
+    /**
+     * Queues the job; it starts right away if a slot is free.
+     * @return false if a job for the same download is already queued or running.
+     */
+    boolean submit(Job job) {
+        JobFuture future = new JobFuture(job, new RunFlag(job), submittedJobs.incrementAndGet());
+        if (jobs.putIfAbsent(job.getDownloadId(), future) != null) {
+            Log.w(TAG, "Download " + job.getDownloadId() + " is already scheduled");
+            return false;
+        }
+        volumes.put(future.volume, future.directory);
+        synchronized (this) {
+            pending.add(future);
+        }
+        dispatch();
+        Log.d(TAG, "Submitted download " + job.getDownloadId() + ": " + getMetrics());
+        return true;
+    }
+
+    // Hands the best queued jobs to the pool while there are free slots
+    private void dispatch() {
+        // Free space of each volume, read once per dispatch and before taking the lock
+        Map<Object, Long> usableSpace = new HashMap<>();
+        for (Map.Entry<Object, File> volume : volumes.entrySet()) {
+            usableSpace.put(volume.getKey(), volume.getValue().getUsableSpace());
+        }
+        long[][] report;
+        synchronized (this) {
+            while (dispatchedJobs < maxSlots && !executor.isShutdown()) {
+                JobFuture next = nextJob(usableSpace);
+                if (next == null) break; // Empty, or every waiting job is at its host limit or out of space
+                pending.remove(next);
+                waitingForSpace.remove(next.job.getDownloadId());
+                // Checked by nextJob; the download reserves again once it knows its size
+                spaceReservations.tryReserve(next.job.getDownloadId(), next.volume,
+                        usableSpaceOf(next, usableSpace), next.requiredSpace);
+                dispatchedJobs++;
+                Integer running = runningByHost.get(next.host);
+                runningByHost.put(next.host, running == null ? 1 : running + 1);
+                lastTurnByHost.put(next.host, ++dispatchCount);
+                executor.execute(next);
+            }
+            report = newlyWaiting.toArray(new long[0][]);
+            newlyWaiting.clear();
+        }
+        AdmissionListener listener = admissionListener;
+        if (listener != null) {
+            for (long[] waiting : report) {
+                listener.onWaitingForSpace(waiting[0], waiting[1], waiting[2]);
+            }
+        }
+    }
+
+    /**
+     * The best job among hosts below their limit. Pin and priority are always honoured; among
+     * the jobs tied with the best on both, the host whose last turn is oldest wins (round robin),
+     * and that host's own best job is taken.
+     */
+    private JobFuture nextJob(Map<Object, Long> usableSpace) {
+        List<JobFuture> startable = new ArrayList<>(pending.size());
+        JobFuture best = null;
+        for (JobFuture future : pending) {
+            if (hasHostSlot(future.host) && hasSpace(future, usableSpace)) {
+                startable.add(future);
+                if (best == null || queueOrder.compare(future, best) < 0) {
+                    best = future;
+                }
+            }
+        }
+        if (best == null) return null;
+
+        JobFuture next = best;
+        long nextTurn = lastTurn(best.host);
+        for (JobFuture future : startable) {
+            if (future.job.isPinned() != best.job.isPinned() || future.job.getPriority() != best.job.getPriority()) {
+                continue;
+            }
+            long turn = lastTurn(future.host);
+            if (turn < nextTurn || (turn == nextTurn && future.host.equals(next.host) && queueOrder.compare(future, next) < 0)) {
+                next = future;
+                nextTurn = turn;
+            }
+        }
+        return next;
+    }
+
+    private boolean hasHostSlot(String host) {
+        Integer running = runningByHost.get(host);
+        return running == null || running < maxSlotsPerHost;
+    }
+
+    // Whether the job's volume can take what its file still has to grow by; reads nothing from disk
+    private boolean hasSpace(JobFuture future, Map<Object, Long> usableSpace) {
+        long required = future.requiredSpace;
+        if (required <= 0) return true;
+        long downloadId = future.job.getDownloadId();
+        long available = spaceReservations.getAvailableBytes(downloadId, future.volume, usableSpaceOf(future, usableSpace));
+        if (required <= available) return true;
+        if (waitingForSpace.add(downloadId)) {
+            newlyWaiting.add(new long[] { downloadId, required, Math.max(0, available) });
+        }
+        return false;
+    }
+
+    // From the dispatch's snapshot; read here only for a job submitted after it was taken
+    private static long usableSpaceOf(JobFuture future, Map<Object, Long> usableSpace) {
+        Long usable = usableSpace.get(future.volume);
+        if (usable == null) {
+            usable = future.directory.getUsableSpace();
+            usableSpace.put(future.volume, usable);
+        }
+        return usable;
+    }
+
+    private long lastTurn(String host) {
+        Long turn = lastTurnByHost.get(host);
+        return turn != null ? turn : 0;
+    }
+
+    /**
+     * Groups URLs by the last two labels of their host, so CDN nodes of one provider
+     * (store1.gofile.io, store-eu-par-2.gofile.io) share its limit.
+     */
+    static String hostKey(String url) {
+        String host = null;
+        try {
+            host = url != null ? new URI(url.trim()).getHost() : null;
+        } catch (Exception e) {
+            // Handled below
+        }
+        if (host == null || host.isEmpty()) return "";
+        host = host.toLowerCase(Locale.ROOT);
+        int last = host.lastIndexOf('.');
+        if (last <= 0 || Character.isDigit(host.charAt(host.length() - 1))) return host; // Single label or IP
+        int previous = host.lastIndexOf('.', last - 1);
+        return previous >= 0 ? host.substring(previous + 1) : host;
+    }
+
+    private static long remainingOrMax(Job job) {
+        long remaining = job.getRemainingBytes();
+        return remaining >= 0 ? remaining : Long.MAX_VALUE;
+    }
+
+    /**
+     * Cancels the job of the download. A queued job never runs (onCancelledBeforeStart is called);
+     * a running one is interrupted and finishes through its own run().
+     */
+    boolean cancel(long downloadId) {
+        Future<?> future = jobs.get(downloadId);
+        return future != null && future.cancel(true);
+    }
+
+    void setAdmissionListener(AdmissionListener listener) {
+        this.admissionListener = listener;
+    }
+
+    /**
+     * Reserves space for a running download that just learned its size (see
+     * {@link DiskSpaceReservations#tryReserve}).
+     * @return false if it does not fit; the download should stop and be submitted again, to
+     *         wait in the queue until there is room.
+     */
+    boolean reserveSpace(long downloadId, File target, long bytes) {
+        return spaceReservations.tryReserve(downloadId, target, bytes);
+    }
+
+    // What the download still has to take on disk, as the file gets preallocated or written
+    void updateReservedSpace(long downloadId, long bytes) {
+        spaceReservations.update(downloadId, bytes);
+    }
+
+    // Tries the jobs waiting for space again, e.g. after files were deleted
+    void recheckSpace() {
+        dispatch();
+    }
+
+    synchronized boolean hasJobsWaitingForSpace() {
+        return !waitingForSpace.isEmpty();
+    }
+
+    synchronized boolean isWaitingForSpace(long downloadId) {
+        return waitingForSpace.contains(downloadId);
+    }
+
+    boolean isScheduled(long downloadId) {
+        return jobs.containsKey(downloadId);
+    }
+
+    // True while the job is waiting for a slot
+    boolean isQueued(long downloadId) {
+        JobFuture future = jobs.get(downloadId);
+        return future != null && !future.started;
+    }
+
+    // Whether a download from this URL submitted now would start right away
+    synchronized boolean hasFreeSlot(String url) {
+        if (dispatchedJobs + pending.size() >= maxSlots) return false;
+        String host = hostKey(url);
+        int waitingForHost = 0;
+        for (JobFuture future : pending) {
+            if (future.host.equals(host)) waitingForHost++;
+        }
+        Integer running = runningByHost.get(host);
+        return (running == null ? 0 : running) + waitingForHost < maxSlotsPerHost;
+    }
+
+    // Queued download ids in the order they would be started
+    synchronized List<Long> getQueuedDownloadIds() {
+        List<JobFuture> ordered = new ArrayList<>(pending);
+        Collections.sort(ordered, queueOrder);
+        List<Long> ids = new ArrayList<>(ordered.size());
+        for (JobFuture future : ordered) {
+            ids.add(future.job.getDownloadId());
+        }
+        return ids;
+    }
+
+    // Shortest-remaining-first within a priority, to minimise the average completion time
+    void setSmallestFirst(boolean smallestFirst) {
+        this.smallestFirst = smallestFirst;
+    }
+
+    // Growing takes effect immediately; shrinking lets running downloads finish
+    void setMaxSlots(int maxSlots) {
+        int slots = Math.max(1, maxSlots);
+        synchronized (this) {
+            this.maxSlots = slots;
+        }
+        if (slots > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(slots);
+            executor.setCorePoolSize(slots);
+        } else {
+            executor.setCorePoolSize(slots);
+            executor.setMaximumPoolSize(slots);
+        }
+        Log.i(TAG, "Max concurrent downloads set to " + slots);
+        dispatch();
+    }
+
+    // Raising it starts waiting downloads right away; lowering it lets running ones finish
+    void setMaxSlotsPerHost(int maxSlotsPerHost) {
+        synchronized (this) {
+            this.maxSlotsPerHost = Math.max(1, maxSlotsPerHost);
+        }
+        Log.i(TAG, "Max concurrent downloads per host set to " + maxSlotsPerHost);
+        dispatch();
+    }
+
+    synchronized Metrics getMetrics() {
+        double throughput = 0;
+        for (JobFuture future : jobs.values()) {
+            if (future.started) {
+                throughput += future.job.getSpeed();
+            }
+        }
+        return new Metrics(executor.getPoolSize(), activeSlots.get(), maxSlots,
+                pending.size() + executor.getQueue().size(), completedJobs.get(), new HashMap<>(runningByHost),
+                throughput);
+    }
+
+    void shutdownNow() {
+        for (JobFuture future : jobs.values()) {
+            future.cancel(true);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,129 @@
+package com.winlator.Download.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A byte range [start, end] of a download. A plain download is a single segment
+ * (end = -1 when the total size is unknown); in segmented mode every segment is fetched
+ * over its own connection and written at its own offset in the target file.
+ */
+public class DownloadSegment {
+    private final int index;
+    private final long start;
+    private volatile long end; // Inclusive; -1 = until end of stream. Shrinks when the segment is split.
+    private volatile long downloaded;
+    private volatile boolean finished; // Only used by open-ended segments
+    private volatile long pending; // Received and queued for writing, not yet on disk
+
+    public DownloadSegment(int index, long start, long end, long downloaded) {
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.downloaded = downloaded;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getDownloaded() {
+        return downloaded;
+    }
+
+    // Next byte to be written to the file
+    public long position() {
+        return start + downloaded;
+    }
+
+    // Next byte to be requested from the server: bytes still queued for writing count as received
+    public long receivedPosition() {
+        return start + downloaded + pending;
+    }
+
+    public long remaining() {
+        if (end < 0) return -1;
+        return Math.max(0, end - receivedPosition() + 1);
+    }
+
+    // Everything has been received; some of it may still be waiting to be written
+    public boolean isReceived() {
+        if (end < 0) return finished;
+        return receivedPosition() > end;
+    }
+
+    public boolean isComplete() {
+        if (end < 0) return finished && pending == 0;
+        return position() > end;
+    }
+
+    void markFinished() {
+        finished = true;
+    }
+
+    synchronized void addPending(int count) {
+        pending += count;
+    }
+
+    synchronized void releasePending(int count) {
+        pending = Math.max(0, pending - count);
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer at the segment's current position, clamped to
+     * its end (which may have shrunk after a split).
+     * @return The number of bytes written; less than buffer.remaining() means the segment is done.
+     */
+    synchronized int write(DownloadFileWriter writer, ByteBuffer buffer) throws IOException {
+        long position = start + downloaded;
+        int length = buffer.remaining();
+        if (end >= 0) {
+            long left = end - position + 1;
+            if (left <= 0) return 0;
+            if (left < length) length = (int) left;
+        }
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + length);
+        try {
+            int written = writer.write(buffer, position);
+            downloaded += written;
+            return written;
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    /**
+     * Hands the second half of the remaining range to a new segment. This segment keeps
+     * the first half; its running connection stops on its own once it reaches the new end.
+     * @return The new tail segment, or null if what is left is too small to split.
+     */
+    synchronized DownloadSegment splitTail(int newIndex, long minSplitBytes) {
+        if (end < 0) return null;
+        long position = start + downloaded + pending;
+        long left = end - position + 1;
+        if (left < 2 * minSplitBytes) return null;
+        long middle = position + left / 2;
+        DownloadSegment tail = new DownloadSegment(newIndex, middle, end, 0);
+        end = middle - 1;
+        return tail;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadSegment{" +
+               "index=" + index +
+               ", start=" + start +
+               ", end=" + end +
+               ", downloaded=" + downloaded +
+               '}';
+    }
+}
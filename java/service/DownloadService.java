@@ -5,14 +5,16 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 // SharedPreferences import removed as it's now encapsulated in AppSettings
+import android.database.DatabaseUtils;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Environment;
@@ -31,35 +33,32 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.winlator.Download.DownloadManagerActivity;
 import com.winlator.Download.R;
 import com.winlator.Download.db.DownloadContract;
+import com.winlator.Download.db.DownloadRepository;
 import com.winlator.Download.db.SQLiteHelper;
 import com.winlator.Download.model.Download;
+import com.winlator.Download.model.DownloadAttempt;
 import com.winlator.Download.utils.AppSettings; // Added import
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DownloadService extends Service {
 
     private static final String TAG = "DownloadService";
     // private static final int MAX_CONCURRENT_DOWNLOADS = 3; // Removed
     private int maxConcurrentDownloads; // Member variable to store the configured limit
-    private final Object queueLock = new Object(); // For synchronizing access to the queue and activeDownloads size check
     public static final String EXTRA_URL = "com.winlator.Download.extra.URL";
     public static final String EXTRA_FILE_NAME = "com.winlator.Download.extra.FILE_NAME";
     public static final String EXTRA_DOWNLOAD_ID = "com.winlator.Download.extra.DOWNLOAD_ID";
@@ -72,76 +71,126 @@ public class DownloadService extends Service {
     public static final String ACTION_CANCEL_DOWNLOAD = "com.winlator.Download.action.CANCEL_DOWNLOAD";
     public static final String ACTION_RETRY_DOWNLOAD = "com.winlator.Download.action.RETRY_DOWNLOAD";
 
-    // Gofile specific actions and extras
-    public static final String ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD = "com.winlator.Download.action.RESOLVE_AND_START_GOFILE_DOWNLOAD";
-    public static final String EXTRA_GOFILE_URL = "com.winlator.Download.extra.GOFILE_URL";
-    public static final String EXTRA_GOFILE_PASSWORD = "com.winlator.Download.extra.GOFILE_PASSWORD"; // Optional
+    // Resolve o link de página em EXTRA_URL com o LinkResolver do host (Gofile, MediaFire...) e
+    // baixa os arquivos encontrados; links de hosts desconhecidos são baixados diretamente
+    public static final String ACTION_RESOLVE_AND_START = "com.winlator.Download.action.RESOLVE_AND_START";
+    public static final String EXTRA_LINK_PASSWORD = "com.winlator.Download.extra.LINK_PASSWORD"; // Opcional
     public static final String EXTRA_AUTH_TOKEN = "com.winlator.Download.extra.AUTH_TOKEN";
 
-    // MediaFire specific actions and extras
+    // Ações e extras antigos por host, aceitos como ACTION_RESOLVE_AND_START
+    @Deprecated
+    public static final String ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD = "com.winlator.Download.action.RESOLVE_AND_START_GOFILE_DOWNLOAD";
+    @Deprecated
+    public static final String EXTRA_GOFILE_URL = "com.winlator.Download.extra.GOFILE_URL";
+    @Deprecated
+    public static final String EXTRA_GOFILE_PASSWORD = "com.winlator.Download.extra.GOFILE_PASSWORD";
+    @Deprecated
     public static final String ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD = "com.winlator.Download.action.RESOLVE_MEDIAFIRE_DOWNLOAD";
+    @Deprecated
     public static final String EXTRA_MEDIAFIRE_URL = "com.winlator.Download.extra.MEDIAFIRE_URL";
-
-    // Google Drive specific actions and extras
+    @Deprecated
     public static final String ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD = "com.winlator.Download.action.RESOLVE_GOOGLE_DRIVE_DOWNLOAD";
+    @Deprecated
     public static final String EXTRA_GOOGLE_DRIVE_URL = "com.winlator.Download.extra.GOOGLE_DRIVE_URL";
-
-    // Pixeldrain specific actions and extras
+    @Deprecated
     public static final String ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD = "com.winlator.Download.action.RESOLVE_PIXELDRAIN_DOWNLOAD";
+    @Deprecated
     public static final String EXTRA_PIXELDRAIN_URL = "com.winlator.Download.extra.PIXELDRAIN_URL";
 
     // New extra for Gofile content ID (root folder name)
     public static final String EXTRA_GOFILE_CONTENT_ID = "com.winlator.Download.extra.GOFILE_CONTENT_ID";
 
+    // Hash publicado pela origem ("md5:<hex>" / "sha256:<hex>"), verificado durante o download
+    public static final String EXTRA_EXPECTED_HASH = "com.winlator.Download.extra.EXPECTED_HASH";
+
     // SharedPreferences keys are now in AppSettings.java
 
-    // Broadcast actions
-    public static final String ACTION_DOWNLOAD_PROGRESS = "com.winlator.Download.action.DOWNLOAD_PROGRESS";
+    // Prioridades da fila (maior começa primeiro)
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    // Broadcast actions (o progresso em si vai pelo DownloadProgressBus)
     public static final String ACTION_DOWNLOAD_STATUS_CHANGED = "com.winlator.Download.action.DOWNLOAD_STATUS_CHANGED";
 
     private static final String CHANNEL_ID = "WinlatorDownloadChannel";
     private static final int NOTIFICATION_ID_BASE = 1000;
     private static final int GENERIC_SERVICE_NOTIFICATION_ID = NOTIFICATION_ID_BASE - 2;
+    private static final int SUMMARY_NOTIFICATION_ID = NOTIFICATION_ID_BASE - 3;
 
     private NotificationManager notificationManager;
     private SQLiteHelper dbHelper;
+    private DownloadRepository downloadRepository; // Tabela de downloads, com cache e eventos por linha
     private final IBinder binder = new DownloadBinder();
     private LocalBroadcastManager broadcastManager;
     private ExecutorService executor;
     private Handler mainThreadHandler;
+    // Threads das conexões de cada segmento dos downloads segmentados
+    private ExecutorService segmentExecutor;
+    // Extração de arquivos compactados, um de cada vez para não disputar o disco com os downloads
+    private ExecutorService extractionExecutor;
+    // Arquivos de downloads removidos em lote, apagados em paralelo fora da thread principal
+    private static final int FILE_IO_THREADS = 4;
+    private ExecutorService fileIoExecutor;
+    // Resolução de links de página (Gofile, MediaFire...), fora do executor que prepara os downloads,
+    // para que um host lento não atrase os outros pedidos
+    private static final int RESOLVE_THREADS = 3;
+    private ExecutorService resolveExecutor;
+    // Buffers de leitura compartilhados por todos os downloads
+    private final BufferPool bufferPool = new BufferPool();
+    // Mapas de segmentos e contadores gravados em lote fora das threads de download
+    private ProgressStore progressStore;
+    // Publica o progresso de todas as notificações em lote, com frequência limitada
+    private NotificationScheduler notificationScheduler;
+    // Slots de download: o limite de downloads simultâneos é aplicado aqui e só aqui
+    private DownloadScheduler scheduler;
+    // Limite de banda global; cada DownloadTask tem o seu próprio, que também consome deste
+    private final BandwidthLimiter globalBandwidthLimiter = new BandwidthLimiter(null);
+    // Referência forte: o SharedPreferences só guarda listeners por referência fraca
+    private final SharedPreferences.OnSharedPreferenceChangeListener settingsListener = (prefs, key) -> {
+        if (AppSettings.PREF_KEY_GLOBAL_BANDWIDTH_LIMIT_KBPS.equals(key)
+                || AppSettings.PREF_KEY_PER_DOWNLOAD_BANDWIDTH_LIMIT_KBPS.equals(key)) {
+            applyBandwidthLimits();
+        } else if (AppSettings.PREF_KEY_MAX_CONCURRENT_DOWNLOADS.equals(key) && scheduler != null) {
+            maxConcurrentDownloads = AppSettings.getMaxConcurrentDownloads(this);
+            scheduler.setMaxSlots(maxConcurrentDownloads);
+        } else if (AppSettings.PREF_KEY_MAX_DOWNLOADS_PER_HOST.equals(key) && scheduler != null) {
+            scheduler.setMaxSlotsPerHost(AppSettings.getMaxDownloadsPerHost(this));
+        } else if (AppSettings.PREF_KEY_QUEUE_SMALLEST_FIRST.equals(key) && scheduler != null) {
+            scheduler.setSmallestFirst(AppSettings.getQueueSmallestFirst(this));
+        } else if (AppSettings.PREF_KEY_GROUP_DOWNLOAD_NOTIFICATIONS.equals(key) && notificationScheduler != null) {
+            notificationScheduler.setGrouped(AppSettings.getGroupDownloadNotifications(this));
+        }
+    };
+    // Arquivos menores que isso não compensam várias conexões
+    private static final long SEGMENTED_MIN_BYTES = 16L * 1024 * 1024;
+    // Intervalo entre fsync + gravação do mapa de segmentos confirmados
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;
     
-    // Mapa para armazenar as tarefas de download ativas
+    // Tarefas agendadas (na fila do agendador ou em execução)
     private final Map<Long, DownloadTask> activeDownloads = new ConcurrentHashMap<>();
+    // Extrações na fila ou em execução
+    private final Map<Long, ExtractionTask> activeExtractions = new ConcurrentHashMap<>();
     // Mapa para armazenar as notificações ativas
     private final Map<Long, NotificationCompat.Builder> activeNotifications = new ConcurrentHashMap<>();
-
-    // Helper class to store intent data for queued downloads
-    private static class QueuedDownloadRequest {
-        Intent intent;
-        String urlString;
-        String fileName;
-        String authToken;
-        String gofileContentId;
-
-        QueuedDownloadRequest(Intent intent, String urlString, String fileName, String authToken, String gofileContentId) {
-            this.intent = intent; // Keep original intent if needed for all extras, or extract all necessary ones
-            this.urlString = urlString;
-            this.fileName = fileName;
-            this.authToken = authToken;
-            this.gofileContentId = gofileContentId;
-        }
-
-        void process(DownloadService service) {
-            // This re-constructs the core logic from handleStartDownload's executor block
-            // to prepare and then actually start the download via the main thread.
-            Log.d(TAG, "Processing queued request for: " + fileName);
-            service.prepareAndStartDownload(urlString, fileName, authToken, gofileContentId, intent);
+    // Novas tentativas automáticas esperando o fim do backoff (main thread)
+    private final Map<Long, Runnable> pendingRetries = new ConcurrentHashMap<>();
+    // Falhas seguidas sem progresso de cada download, base do backoff
+    private final Map<Long, Integer> consecutiveFailures = new ConcurrentHashMap<>();
+    // Uma tentativa que avançou pelo menos isso recomeça a contagem de falhas
+    private static final long RETRY_PROGRESS_RESET_BYTES = 1024 * 1024;
+    // Intervalo para verificar de novo o espaço livre enquanto há downloads esperando por ele
+    private static final long SPACE_RECHECK_INTERVAL_MS = 15000;
+    // Main thread: repete enquanto algum download da fila não cabe no volume
+    private final Runnable spaceRecheck = new Runnable() {
+        @Override
+        public void run() {
+            if (scheduler != null && scheduler.hasJobsWaitingForSpace()) {
+                scheduler.recheckSpace();
+                mainThreadHandler.postDelayed(this, SPACE_RECHECK_INTERVAL_MS);
+            }
         }
-    }
-
-    // Modify the existing pendingDownloadQueue to use this type
-    private final Queue<QueuedDownloadRequest> pendingDownloadQueueTyped = new LinkedList<>();
-
+    };
 
     public class DownloadBinder extends Binder {
         public DownloadService getService() {
@@ -154,11 +203,19 @@ public class DownloadService extends Service {
         super.onCreate();
         try {
             notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-            dbHelper = new SQLiteHelper(this);
+            dbHelper = SQLiteHelper.getInstance(this);
+            downloadRepository = DownloadRepository.getInstance(this);
             broadcastManager = LocalBroadcastManager.getInstance(this);
             createNotificationChannel();
             maxConcurrentDownloads = AppSettings.getMaxConcurrentDownloads(this); // Get from AppSettings
             Log.i(TAG, "Max concurrent downloads set to: " + maxConcurrentDownloads);
+            if (scheduler == null) {
+                scheduler = new DownloadScheduler(maxConcurrentDownloads, AppSettings.getMaxDownloadsPerHost(this));
+            }
+            scheduler.setSmallestFirst(AppSettings.getQueueSmallestFirst(this));
+            // Chamado pelo agendador (qualquer thread) quando um download da fila não cabe no volume
+            scheduler.setAdmissionListener((downloadId, requiredBytes, availableBytes) ->
+                    mainThreadHandler.post(() -> onWaitingForSpace(downloadId, requiredBytes, availableBytes)));
 
             if (executor == null || executor.isShutdown()) { // Ensure executor is initialized
                 executor = Executors.newSingleThreadExecutor();
@@ -166,6 +223,36 @@ public class DownloadService extends Service {
             if (mainThreadHandler == null) { // Ensure initialized
                 mainThreadHandler = new Handler(Looper.getMainLooper());
             }
+            if (segmentExecutor == null || segmentExecutor.isShutdown()) {
+                segmentExecutor = Executors.newCachedThreadPool();
+            }
+            if (extractionExecutor == null || extractionExecutor.isShutdown()) {
+                extractionExecutor = Executors.newSingleThreadExecutor();
+            }
+            if (fileIoExecutor == null || fileIoExecutor.isShutdown()) {
+                fileIoExecutor = Executors.newFixedThreadPool(FILE_IO_THREADS);
+            }
+            if (resolveExecutor == null || resolveExecutor.isShutdown()) {
+                resolveExecutor = Executors.newFixedThreadPool(RESOLVE_THREADS);
+            }
+            if (notificationScheduler == null) {
+                PendingIntent managerIntent = PendingIntent.getActivity(this, 0,
+                        new Intent(this, DownloadManagerActivity.class),
+                        PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+                notificationScheduler = new NotificationScheduler(this, notificationManager, activeNotifications,
+                        CHANNEL_ID, NOTIFICATION_ID_BASE, SUMMARY_NOTIFICATION_ID, managerIntent);
+            }
+            notificationScheduler.setGrouped(AppSettings.getGroupDownloadNotifications(this));
+            // Limites de banda aplicados imediatamente quando alterados nas configurações
+            applyBandwidthLimits();
+            getSharedPreferences(AppSettings.PREFS_NAME, Context.MODE_PRIVATE)
+                    .registerOnSharedPreferenceChangeListener(settingsListener);
+            if (progressStore == null) {
+                progressStore = new ProgressStore(dbHelper, downloadRepository);
+                progressStore.start();
+            }
+            // Retomar a fila persistida (downloads interrompidos pela morte do processo)
+            restoreQueuedDownloads();
             // Verificar e corrigir status de downloads ao iniciar o serviço
             verifyAndCorrectDownloadStatuses();
         } catch (Throwable t) {
@@ -214,16 +301,11 @@ public class DownloadService extends Service {
 
         String action = intent.getStringExtra(EXTRA_ACTION);
         if (action == null) {
-            if (intent.hasExtra(EXTRA_GOFILE_URL)) {
-                 action = ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD;
-            } else if (intent.hasExtra(EXTRA_MEDIAFIRE_URL)) {
-                 action = ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD;
-            } else if (intent.hasExtra(EXTRA_GOOGLE_DRIVE_URL)) {
-                 action = ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD;
-            } else if (intent.hasExtra(EXTRA_PIXELDRAIN_URL)) { // Added check for Pixeldrain URL
-                 action = ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD;
-            } else if (intent.hasExtra(EXTRA_URL)) {
-                 action = ACTION_START_DOWNLOAD;
+            action = intent.getAction();
+        }
+        if (action == null) {
+            if (getLinkUrl(intent) != null) {
+                 action = ACTION_RESOLVE_AND_START;
             } else {
                  Log.w(TAG, "onStartCommand: Intent has no action and no recognizable URL extra. Stopping.");
                  checkStopForeground();
@@ -238,56 +320,13 @@ public class DownloadService extends Service {
             case ACTION_START_DOWNLOAD:
                 handleStartDownload(intent);
                 break;
+            case ACTION_RESOLVE_AND_START:
             case ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD:
-                String gofileUrl = intent.getStringExtra(EXTRA_GOFILE_URL);
-                String gofilePassword = intent.getStringExtra(EXTRA_GOFILE_PASSWORD);
-                Log.d(TAG, "onStartCommand: ACTION_RESOLVE_AND_START_GOFILE_DOWNLOAD for URL: " + gofileUrl);
-                if (gofileUrl != null && !gofileUrl.isEmpty()) {
-                    if (executor == null || executor.isShutdown()) {
-                         executor = Executors.newSingleThreadExecutor();
-                    }
-                    executor.execute(() -> handleResolveGofileUrl(gofileUrl, gofilePassword));
-                } else {
-                    Log.e(TAG, "Gofile URL is missing for RESOLVE action.");
-                }
-                break;
-            case ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD: // New case for MediaFire
-                String mediafireUrl = intent.getStringExtra(EXTRA_MEDIAFIRE_URL);
-                Log.d(TAG, "onStartCommand: ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD for URL: " + mediafireUrl);
-                if (mediafireUrl != null && !mediafireUrl.isEmpty()) {
-                    if (executor == null || executor.isShutdown()) {
-                         executor = Executors.newSingleThreadExecutor();
-                    }
-                    executor.execute(() -> handleResolveMediafireUrl(mediafireUrl));
-                } else {
-                    Log.e(TAG, "MediaFire URL is missing for RESOLVE action.");
-                }
-                break;
-            case ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD: // New case for Google Drive
-                String googleDriveUrl = intent.getStringExtra(EXTRA_GOOGLE_DRIVE_URL);
-                Log.d(TAG, "onStartCommand: ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD for URL: " + googleDriveUrl);
-                if (googleDriveUrl != null && !googleDriveUrl.isEmpty()) {
-                     if (executor == null || executor.isShutdown()) {
-                         executor = Executors.newSingleThreadExecutor();
-                    }
-                    executor.execute(() -> handleResolveGoogleDriveUrl(googleDriveUrl));
-                } else {
-                    Log.e(TAG, "Google Drive URL is missing for RESOLVE action.");
-                }
-                break;
+            case ACTION_RESOLVE_AND_START_MEDIAFIRE_DOWNLOAD:
+            case ACTION_RESOLVE_AND_START_GOOGLE_DRIVE_DOWNLOAD:
             case ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD:
-                String pixeldrainUrl = intent.getStringExtra(EXTRA_PIXELDRAIN_URL);
-                Log.d(TAG, "onStartCommand: ACTION_RESOLVE_AND_START_PIXELDRAIN_DOWNLOAD for URL: " + pixeldrainUrl);
-                if (pixeldrainUrl != null && !pixeldrainUrl.isEmpty()) {
-                    if (executor == null || executor.isShutdown()) {
-                        executor = Executors.newSingleThreadExecutor();
-                    }
-                    executor.execute(() -> handleResolvePixeldrainUrl(pixeldrainUrl));
-                } else {
-                    Log.e(TAG, "Pixeldrain URL is missing for RESOLVE action.");
-                }
+                handleResolveAndStart(intent);
                 break;
-            // ... (other existing cases: PAUSE, RESUME, CANCEL, RETRY, default) ...
             case ACTION_PAUSE_DOWNLOAD:
                 handlePauseDownload(intent);
                 break;
@@ -319,188 +358,121 @@ public class DownloadService extends Service {
         return START_STICKY;
     }
 
-    private void handleResolveGofileUrl(String gofileUrl, String password) {
-        Log.i(TAG, "handleResolveGofileUrl: Starting resolution for " + gofileUrl);
-        GofileLinkResolver resolver = new GofileLinkResolver(this); // Use constructor with Context
-        GofileResolvedResult resolvedResult = resolver.resolveGofileUrl(gofileUrl, password);
-
-        if (resolvedResult != null && resolvedResult.hasItems()) {
-            Log.i(TAG, "Gofile resolution successful. Found " + resolvedResult.getItems().size() + " items. Token: " + resolvedResult.getAuthToken());
-            for (DownloadItem item : resolvedResult.getItems()) {
-                Intent downloadIntent = new Intent(this, DownloadService.class);
-                downloadIntent.putExtra(EXTRA_ACTION, ACTION_START_DOWNLOAD);
-                downloadIntent.putExtra(EXTRA_URL, item.directUrl);
-                // item.fileName is now the relative path (e.g., "folder/file.txt" or "file.txt")
-                downloadIntent.putExtra(EXTRA_FILE_NAME, item.fileName);
-                downloadIntent.putExtra(EXTRA_AUTH_TOKEN, resolvedResult.getAuthToken());
-                // item.gofileContentId is the rootFolderName/original contentId
-                downloadIntent.putExtra(EXTRA_GOFILE_CONTENT_ID, item.gofileContentId);
-
-                Log.d(TAG, "Dispatching new download task for resolved Gofile item: " + item.fileName + " in content: " + item.gofileContentId);
-                mainThreadHandler.post(() -> handleStartDownload(downloadIntent));
-            }
-        } else {
-            Log.e(TAG, "Gofile resolution failed or no items found for " + gofileUrl);
-            final String userMessage = "Falha ao resolver link Gofile: " + (gofileUrl != null && gofileUrl.lastIndexOf('/') != -1 && gofileUrl.lastIndexOf('/') < gofileUrl.length() -1 ? gofileUrl.substring(gofileUrl.lastIndexOf('/') + 1) : "Desconhecido");
-            mainThreadHandler.post(() -> Toast.makeText(DownloadService.this, userMessage, Toast.LENGTH_LONG).show());
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setSmallIcon(R.drawable.ic_cancel)
-                .setContentTitle("Erro no Link Gofile")
-                .setContentText("Não foi possível resolver arquivos do link Gofile.")
-                .setAutoCancel(true);
-            if (notificationManager != null) {
-                // GofileLinkResolver resolver = new GofileLinkResolver(this); // This line was an erroneous comment in original instructions
-                notificationManager.notify((int) (System.currentTimeMillis() % 10000), builder.build());
+    // Link do pedido: EXTRA_URL ou, em pedidos antigos, o extra específico do host
+    private static String getLinkUrl(Intent intent) {
+        for (String extra : new String[] {EXTRA_URL, EXTRA_GOFILE_URL, EXTRA_MEDIAFIRE_URL, EXTRA_GOOGLE_DRIVE_URL, EXTRA_PIXELDRAIN_URL}) {
+            String url = intent.getStringExtra(extra);
+            if (url != null && !url.trim().isEmpty()) {
+                return url.trim();
             }
         }
+        return null;
     }
 
-
-    // New method for MediaFire resolution
-    private void handleResolveMediafireUrl(String pageUrl) {
-        Log.i(TAG, "handleResolveMediafireUrl: Starting resolution for " + pageUrl);
-        MediafireLinkResolver resolver = new MediafireLinkResolver();
-        DownloadItem resolvedItem = resolver.resolveMediafireUrl(pageUrl);
-
-        if (resolvedItem != null && resolvedItem.directUrl != null && !resolvedItem.directUrl.isEmpty()) {
-            Log.i(TAG, "MediaFire resolution successful. Filename: " + resolvedItem.fileName + ", URL: " + resolvedItem.directUrl);
-
-            Intent downloadIntent = new Intent(this, DownloadService.class);
-            downloadIntent.putExtra(EXTRA_ACTION, ACTION_START_DOWNLOAD);
-            downloadIntent.putExtra(EXTRA_URL, resolvedItem.directUrl);
-            downloadIntent.putExtra(EXTRA_FILE_NAME, resolvedItem.fileName);
-            // No EXTRA_AUTH_TOKEN needed for MediaFire direct links typically
-
-            Log.d(TAG, "Dispatching new download task for resolved MediaFire item: " + resolvedItem.fileName);
-            mainThreadHandler.post(() -> handleStartDownload(downloadIntent));
-
-        } else {
-            Log.e(TAG, "MediaFire resolution failed or no items found for " + pageUrl);
-            final String userMessage = "Falha ao resolver link MediaFire: " + (pageUrl != null ? pageUrl.substring(pageUrl.lastIndexOf('/') + 1) : "Desconhecido");
-            mainThreadHandler.post(() -> Toast.makeText(DownloadService.this, userMessage, Toast.LENGTH_LONG).show());
-
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setSmallIcon(R.drawable.ic_cancel)
-                .setContentTitle("Erro no Link MediaFire")
-                .setContentText("Não foi possível resolver arquivos do link MediaFire.")
-                .setAutoCancel(true);
-            if (notificationManager != null) {
-                 notificationManager.notify((int) (System.currentTimeMillis() % 10000) + 1, builder.build());
-            }
+    private void handleResolveAndStart(Intent intent) {
+        String pageUrl = getLinkUrl(intent);
+        if (pageUrl == null) {
+            Log.e(TAG, "handleResolveAndStart: URL is missing for RESOLVE action.");
+            checkStopForeground();
+            return;
+        }
+        LinkResolver resolver = LinkResolvers.find(pageUrl);
+        if (resolver == null) {
+            // Não é página de um host conhecido: o link já é o arquivo
+            Log.d(TAG, "handleResolveAndStart: No resolver for " + pageUrl + ", starting it as a direct download.");
+            Intent downloadIntent = new Intent(intent);
+            downloadIntent.putExtra(EXTRA_URL, pageUrl);
+            handleStartDownload(downloadIntent);
+            return;
         }
+        String password = intent.getStringExtra(EXTRA_LINK_PASSWORD);
+        if (password == null) {
+            password = intent.getStringExtra(EXTRA_GOFILE_PASSWORD);
+        }
+        if (resolveExecutor == null || resolveExecutor.isShutdown()) {
+            resolveExecutor = Executors.newFixedThreadPool(RESOLVE_THREADS);
+        }
+        final String linkPassword = password;
+        resolveExecutor.execute(() -> resolveAndStart(resolver, pageUrl, linkPassword));
     }
 
-    // New method for Google Drive resolution
-    private void handleResolveGoogleDriveUrl(String pageUrl) {
-        Log.i(TAG, "handleResolveGoogleDriveUrl: Starting resolution for " + pageUrl);
-        GoogleDriveLinkResolver resolver = new GoogleDriveLinkResolver(); // Ensure GoogleDriveUtils is available
-        DownloadItem resolvedItem = resolver.resolveDriveUrl(pageUrl);
+    // No resolveExecutor: resolve o link e entrega cada arquivo encontrado a handleStartDownload
+    private void resolveAndStart(LinkResolver resolver, String pageUrl, String password) {
+        Log.i(TAG, "resolveAndStart: Resolving " + resolver.getName() + " link " + pageUrl);
+        ResolvedLink resolved;
+        try {
+            resolved = resolver.resolve(this, pageUrl, password);
+        } catch (RuntimeException e) {
+            Log.e(TAG, resolver.getName() + " resolver failed for " + pageUrl, e);
+            resolved = null;
+        }
 
-        if (resolvedItem != null && resolvedItem.directUrl != null && !resolvedItem.directUrl.isEmpty()) {
-            Log.i(TAG, "Google Drive resolution successful. Filename: " + resolvedItem.fileName + ", URL: " + resolvedItem.directUrl + ", Size: " + resolvedItem.size);
+        if (resolved == null || !resolved.hasItems()) {
+            Log.e(TAG, resolver.getName() + " resolution failed or no items found for " + pageUrl);
+            mainThreadHandler.post(() -> onResolveFailed(resolver, pageUrl));
+            return;
+        }
 
+        Log.i(TAG, resolver.getName() + " resolution successful. Found " + resolved.getItems().size() + " items.");
+        for (DownloadItem item : resolved.getItems()) {
+            if (item.directUrl == null || item.directUrl.isEmpty()) continue;
             Intent downloadIntent = new Intent(this, DownloadService.class);
             downloadIntent.putExtra(EXTRA_ACTION, ACTION_START_DOWNLOAD);
-            downloadIntent.putExtra(EXTRA_URL, resolvedItem.directUrl);
-            downloadIntent.putExtra(EXTRA_FILE_NAME, resolvedItem.fileName);
-            // If file size is available from resolver, it could be passed to insertDownload or startDownload
-            // For now, relying on DownloadTask to get size from Content-Length of direct URL.
-
-            Log.d(TAG, "Dispatching new download task for resolved Google Drive item: " + resolvedItem.fileName);
-            mainThreadHandler.post(() -> handleStartDownload(downloadIntent));
-
-        } else {
-            Log.e(TAG, "Google Drive resolution failed or no items found for " + pageUrl);
-            // Extract a more user-friendly part of the URL for the message
-            String displayUrl = pageUrl;
-            if (pageUrl != null) {
-                String id = GoogleDriveUtils.extractDriveId(pageUrl); // Use the new util
-                if (id != null) displayUrl = "ID: " + id;
-                else if (pageUrl.lastIndexOf('/') != -1 && pageUrl.lastIndexOf('/') < pageUrl.length() -1) {
-                     displayUrl = pageUrl.substring(pageUrl.lastIndexOf('/') + 1);
-                }
-            } else {
-                displayUrl = "Desconhecido";
+            downloadIntent.putExtra(EXTRA_URL, item.directUrl);
+            // Nos links do Gofile, fileName é o caminho relativo dentro da pasta ("pasta/arquivo.txt")
+            downloadIntent.putExtra(EXTRA_FILE_NAME, item.fileName);
+            if (resolved.getAuthToken() != null) {
+                downloadIntent.putExtra(EXTRA_AUTH_TOKEN, resolved.getAuthToken());
             }
-
-            final String userMessage = "Falha ao resolver link Google Drive: " + displayUrl;
-            mainThreadHandler.post(() -> Toast.makeText(DownloadService.this, userMessage, Toast.LENGTH_LONG).show());
-
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setSmallIcon(R.drawable.ic_cancel)
-                .setContentTitle("Erro no Link Google Drive")
-                .setContentText("Não foi possível resolver arquivos do link Google Drive.")
-                .setAutoCancel(true);
-            if (notificationManager != null) {
-                 notificationManager.notify((int) (System.currentTimeMillis() % 10000) + 2, builder.build()); // Use different ID
+            if (item.gofileContentId != null) {
+                downloadIntent.putExtra(EXTRA_GOFILE_CONTENT_ID, item.gofileContentId);
             }
+            if (item.expectedHash != null) {
+                downloadIntent.putExtra(EXTRA_EXPECTED_HASH, item.expectedHash);
+            }
+            Log.d(TAG, "Dispatching new download task for resolved " + resolver.getName() + " item: " + item.fileName);
+            mainThreadHandler.post(() -> handleStartDownload(downloadIntent));
         }
     }
 
-    private void handleResolvePixeldrainUrl(String pageUrl) {
-        Log.i(TAG, "handleResolvePixeldrainUrl: Starting resolution for " + pageUrl);
-        PixeldrainLinkResolver resolver = new PixeldrainLinkResolver();
-        DownloadItem resolvedItem = resolver.resolvePixeldrainUrl(pageUrl);
-
-        if (resolvedItem != null && resolvedItem.directUrl != null && !resolvedItem.directUrl.isEmpty()) {
-            Log.i(TAG, "Pixeldrain resolution successful. Filename: " + resolvedItem.fileName + ", URL: " + resolvedItem.directUrl + ", Size: " + resolvedItem.size);
-
-            Intent downloadIntent = new Intent(this, DownloadService.class);
-            downloadIntent.putExtra(EXTRA_ACTION, ACTION_START_DOWNLOAD);
-            downloadIntent.putExtra(EXTRA_URL, resolvedItem.directUrl);
-            downloadIntent.putExtra(EXTRA_FILE_NAME, resolvedItem.fileName);
-
-            Log.d(TAG, "Dispatching new download task for resolved Pixeldrain item: " + resolvedItem.fileName);
-            mainThreadHandler.post(() -> handleStartDownload(downloadIntent));
-
-        } else {
-            Log.e(TAG, "Pixeldrain resolution failed or no items found for " + pageUrl);
-            final String userMessage = "Falha ao resolver link Pixeldrain: "
-                                     + (pageUrl != null && pageUrl.lastIndexOf('/') != -1 && pageUrl.lastIndexOf('/') < pageUrl.length() -1
-                                        ? pageUrl.substring(pageUrl.lastIndexOf('/') + 1)
-                                        : "Desconhecido");
-            mainThreadHandler.post(() -> Toast.makeText(DownloadService.this, userMessage, Toast.LENGTH_LONG).show());
-
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setSmallIcon(R.drawable.ic_cancel)
-                .setContentTitle("Erro no Link Pixeldrain")
-                .setContentText("Não foi possível resolver o link Pixeldrain.")
-                .setAutoCancel(true);
-            if (notificationManager != null) {
-                 notificationManager.notify((int) (System.currentTimeMillis() % 10000) + 3, builder.build());
-            }
-        }
+    private void onResolveFailed(LinkResolver resolver, String pageUrl) {
+        // Endereço sem esquema nem parâmetros, o bastante para o usuário reconhecer o link
+        String displayUrl = pageUrl.replaceFirst("^[a-zA-Z][a-zA-Z0-9+.-]*://", "");
+        int query = displayUrl.indexOf('?');
+        if (query >= 0) displayUrl = displayUrl.substring(0, query);
+        Toast.makeText(this, "Falha ao resolver link " + resolver.getName() + ": " + displayUrl, Toast.LENGTH_LONG).show();
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_cancel)
+            .setContentTitle("Erro no Link " + resolver.getName())
+            .setContentText("Não foi possível resolver arquivos do link " + resolver.getName() + ".")
+            .setAutoCancel(true);
+        if (notificationManager != null) {
+            notificationManager.notify((int) (System.currentTimeMillis() % 10000), builder.build());
+        }
+        checkStopForeground();
     }
-    
+
     // Método para verificar e corrigir status de downloads fantasmas
     private void verifyAndCorrectDownloadStatuses() {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        String[] projection = { DownloadContract.DownloadEntry._ID };
-        String selection = DownloadContract.DownloadEntry.COLUMN_NAME_STATUS + " = ?";
-        String[] selectionArgs = { String.valueOf(Download.STATUS_DOWNLOADING) };
-
-        Cursor cursor = db.query(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            projection,
-            selection,
-            selectionArgs,
-            null,
-            null,
-            null
-        );
-
         boolean statusChanged = false;
-        if (cursor != null) {
-            while (cursor.moveToNext()) {
-                long downloadId = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry._ID));
-                // Se um download está como DOWNLOADING no DB mas não está ativo no Service, muda para PAUSED
-                if (!activeDownloads.containsKey(downloadId)) {
-                    Log.w(TAG, "Correcting status for orphaned download ID: " + downloadId);
-                    updateDownloadStatus(downloadId, Download.STATUS_PAUSED);
+        for (Download download : downloadRepository.getDownloadsWithStatus(Download.STATUS_DOWNLOADING, Download.STATUS_EXTRACTING)) {
+            long downloadId = download.getId();
+            // Extração interrompida (processo morto): o download em si está completo
+            if (download.getStatus() == Download.STATUS_EXTRACTING) {
+                if (!activeExtractions.containsKey(downloadId)) {
+                    Log.w(TAG, "Correcting status for interrupted extraction ID: " + downloadId);
+                    updateDownloadStatus(downloadId, Download.STATUS_COMPLETED);
                     statusChanged = true;
                 }
+                continue;
+            }
+            // Se um download está como DOWNLOADING no DB mas não está ativo no Service, muda para PAUSED
+            if (!activeDownloads.containsKey(downloadId)) {
+                Log.w(TAG, "Correcting status for orphaned download ID: " + downloadId);
+                updateDownloadStatus(downloadId, Download.STATUS_PAUSED);
+                statusChanged = true;
             }
-            cursor.close();
         }
 
         // Notificar a UI se algum status foi alterado
@@ -571,6 +543,7 @@ public class DownloadService extends Service {
         final String effectiveAuthToken = authToken;
         // Capture Gofile Content ID for use in path construction if present
         final String gofileContentId = intent.getStringExtra(EXTRA_GOFILE_CONTENT_ID);
+        final String expectedHash = intent.getStringExtra(EXTRA_EXPECTED_HASH);
 
         // ... (URL/FileName validation from existing handleStartDownload) ...
 
@@ -603,38 +576,17 @@ public class DownloadService extends Service {
     startForeground(TRANSIENT_NOTIFICATION_ID, transientNotificationObject);
 
     // The rest of the method (synchronized block and call to prepareAndStartDownload) remains the same
-        synchronized (queueLock) {
-            // Use the member variable maxConcurrentDownloads
-            if (activeDownloads.size() >= maxConcurrentDownloads) {
-                Log.i(TAG, "Max concurrent downloads (" + maxConcurrentDownloads + ") reached. Queuing download for: " + fileName);
-                pendingDownloadQueueTyped.offer(new QueuedDownloadRequest(intent, urlString, fileName, authToken, gofileContentId));
-                // Update status to PENDING in DB if not already
-                // This requires inserting first to get an ID, or finding existing.
-                // For simplicity, we'll ensure it's in DB as pending when it's actually processed from queue.
-                // The PREPARING_NOTIFICATION_ID will be cancelled when the queued item is processed or if service stops.
-                // We don't call checkStopForeground here as the service is active with queued items.
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    if (notificationManager != null) notificationManager.cancel(PREPARING_NOTIFICATION_ID);
-                    // Optionally, show a "Queued" toast or update a persistent "queued" notification
-                    Toast.makeText(DownloadService.this, fileName + " foi adicionado à fila.", Toast.LENGTH_SHORT).show();
-                }, 1000); // Delay to allow preparing notif to be seen briefly
-                return; // Queued, do not proceed to immediate execution.
-            }
-        }
-
-        // If not queued, proceed with immediate preparation and start.
-        // This is the logic that was previously inside executor.execute()
+        // O registro é criado como PENDING e entregue ao agendador, que decide quando o download começa
         if (executor == null || executor.isShutdown()) {
             executor = Executors.newSingleThreadExecutor();
         }
-        // Remove the PREPARING_NOTIFICATION_ID once actual processing starts
     // The TRANSIENT_NOTIFICATION_ID (showing "Preparing...") will be cancelled
     // by the logic within prepareAndStartDownload.
-        executor.execute(() -> prepareAndStartDownload(urlString, fileName, authToken, gofileContentId, intent));
+        executor.execute(() -> prepareAndStartDownload(urlString, fileName, authToken, gofileContentId, expectedHash, intent));
     }
 
 // Ensure prepareAndStartDownload cancels the TRANSIENT_NOTIFICATION_ID
-    private void prepareAndStartDownload(String urlString, String fileName, String authToken, String gofileContentId, Intent originalIntent) {
+    private void prepareAndStartDownload(String urlString, String fileName, String authToken, String gofileContentId, String expectedHash, Intent originalIntent) {
     // Use the same ID that handleStartDownload used for the "Preparing..." notification
     final int PREPARING_NOTIFICATION_ID_TO_CANCEL = NOTIFICATION_ID_BASE - 1;
 
@@ -659,7 +611,7 @@ public class DownloadService extends Service {
                 // Cancel the "Preparing..." notification
                 if (notificationManager != null) notificationManager.cancel(PREPARING_NOTIFICATION_ID_TO_CANCEL);
                     Toast.makeText(DownloadService.this, "Erro ao criar diretório para download.", Toast.LENGTH_SHORT).show();
-                checkAndDequeue();
+                checkStopForeground();
                 });
                 return;
             }
@@ -678,7 +630,7 @@ public class DownloadService extends Service {
                 // Cancel the "Preparing..." notification
                 if (notificationManager != null) notificationManager.cancel(PREPARING_NOTIFICATION_ID_TO_CANCEL);
                     Toast.makeText(DownloadService.this, actualDisplayFileName + " já está sendo baixado.", Toast.LENGTH_SHORT).show();
-                 checkAndDequeue();
+                 checkStopForeground();
                 });
                 return;
             }
@@ -686,53 +638,61 @@ public class DownloadService extends Service {
 
         long downloadId = getDownloadIdByLocalPath(finalLocalPath);
         Log.d(TAG, "prepareAndStartDownload (Executor): getDownloadIdByLocalPath for '" + finalLocalPath + "' returned ID: " + downloadId);
+        // Lido aqui, fora da main thread; null = download novo (ou o registro sumiu)
+        final Download existingDownload = downloadId != -1 ? getDownloadById(downloadId) : null;
 
-        final Handler mainHandler = new Handler(Looper.getMainLooper());
-        mainHandler.post(() -> {
+        mainThreadHandler.post(() -> {
         // Cancel the "Preparing..." notification as we are now handling this download specifically.
         if (notificationManager != null) notificationManager.cancel(PREPARING_NOTIFICATION_ID_TO_CANCEL);
 
-        long effectiveDownloadId = downloadId;
-
-            if (effectiveDownloadId != -1) {
-                Download existingDownload = getDownloadById(effectiveDownloadId);
-                if (existingDownload != null) {
-                    if (!existingDownload.getUrl().equals(urlString)) {
-                        Log.w(TAG, "Existing download for path " + finalLocalPath + " but different URL. Old: " + existingDownload.getUrl() + ", New: " + urlString + ". Overwriting.");
-                        deleteDownload(existingDownload.getId());
-                        effectiveDownloadId = -1; // Treat as new download
-                    } else {
-                        if (existingDownload.getStatus() == Download.STATUS_COMPLETED) {
-                            Toast.makeText(DownloadService.this, actualDisplayFileName + " já foi baixado.", Toast.LENGTH_SHORT).show();
-                        } else if (existingDownload.getStatus() == Download.STATUS_PAUSED || existingDownload.getStatus() == Download.STATUS_FAILED) {
-                            Log.i(TAG, "Resuming/Retrying existing download for " + actualDisplayFileName);
-                            updateDownloadStatus(effectiveDownloadId, Download.STATUS_PENDING); // Mark as pending before starting
-                            startDownload(effectiveDownloadId, existingDownload.getUrl(), actualDisplayFileName, authToken, finalLocalPath);
-                        } else if (existingDownload.getStatus() == Download.STATUS_DOWNLOADING) {
-                            Toast.makeText(DownloadService.this, actualDisplayFileName + " já está sendo baixado.", Toast.LENGTH_SHORT).show();
-                        }
-                        checkAndDequeue(); // Processed existing, check queue.
-                        return;
+            if (existingDownload != null && existingDownload.getUrl().equals(urlString)) {
+                long effectiveDownloadId = existingDownload.getId();
+                if (existingDownload.getStatus() == Download.STATUS_COMPLETED
+                        || existingDownload.getStatus() == Download.STATUS_EXTRACTING) {
+                    Toast.makeText(DownloadService.this, actualDisplayFileName + " já foi baixado.", Toast.LENGTH_SHORT).show();
+                } else if (existingDownload.getStatus() == Download.STATUS_PAUSED || existingDownload.getStatus() == Download.STATUS_FAILED) {
+                    Log.i(TAG, "Resuming/Retrying existing download for " + actualDisplayFileName);
+                    if (expectedHash != null) {
+                        dbHelper.executeWrite(() -> updateDownloadExpectedHash(effectiveDownloadId, expectedHash));
                     }
-                } else { // DB ID found but record was null, treat as new
-                    effectiveDownloadId = -1;
+                    // scheduleDownload marca como PENDING
+                    scheduleDownload(effectiveDownloadId, existingDownload.getUrl(), actualDisplayFileName, authToken, gofileContentId, finalLocalPath, false);
+                } else if (existingDownload.getStatus() == Download.STATUS_DOWNLOADING) {
+                    Toast.makeText(DownloadService.this, actualDisplayFileName + " já está sendo baixado.", Toast.LENGTH_SHORT).show();
                 }
+                checkStopForeground(); // Nothing new was scheduled
+                return;
             }
 
-            // If effectiveDownloadId is -1, it's a new download (or became one)
-            if (effectiveDownloadId == -1) {
-                effectiveDownloadId = insertDownload(urlString, actualDisplayFileName, finalLocalPath);
-                Log.d(TAG, "prepareAndStartDownload (MainThread): New download. Inserted record with ID: " + effectiveDownloadId);
+            final long staleDownloadId = existingDownload != null ? existingDownload.getId() : -1;
+            if (staleDownloadId != -1) {
+                Log.w(TAG, "Existing download for path " + finalLocalPath + " but different URL. Old: " + existingDownload.getUrl() + ", New: " + urlString + ". Overwriting.");
+                forgetDownload(staleDownloadId);
             }
 
-            if (effectiveDownloadId != -1) {
-                updateDownloadStatus(effectiveDownloadId, Download.STATUS_PENDING); // Mark as pending before starting
-                startDownload(effectiveDownloadId, urlString, actualDisplayFileName, authToken, finalLocalPath);
-            } else {
-                Log.e(TAG, "Failed to insert/obtain download record for: " + urlString + " at path " + finalLocalPath);
-                Toast.makeText(DownloadService.this, "Erro ao iniciar download para " + actualDisplayFileName, Toast.LENGTH_SHORT).show();
-                checkAndDequeue(); // Failed to start, check queue
-            }
+            // Novo download (ou que passou a ser): a linha é criada na thread de escrita do banco
+            dbHelper.executeWrite(() -> {
+                if (staleDownloadId != -1) {
+                    List<Download> removed = downloadRepository.deleteDownloads(Collections.singletonList(staleDownloadId));
+                    // Apagado aqui, antes do download novo começar a escrever no mesmo caminho
+                    File staleFile = new File(finalLocalPath);
+                    if (staleFile.exists() && !staleFile.delete()) {
+                        Log.w(TAG, "Failed to delete file: " + finalLocalPath);
+                    }
+                    onDownloadsRemoved(removed, false);
+                }
+                long newDownloadId = insertDownload(urlString, actualDisplayFileName, finalLocalPath, expectedHash);
+                Log.d(TAG, "prepareAndStartDownload (db-writer): New download. Inserted record with ID: " + newDownloadId);
+                mainThreadHandler.post(() -> {
+                    if (newDownloadId != -1) {
+                        scheduleDownload(newDownloadId, urlString, actualDisplayFileName, authToken, gofileContentId, finalLocalPath, false);
+                    } else {
+                        Log.e(TAG, "Failed to insert/obtain download record for: " + urlString + " at path " + finalLocalPath);
+                        Toast.makeText(DownloadService.this, "Erro ao iniciar download para " + actualDisplayFileName, Toast.LENGTH_SHORT).show();
+                        checkStopForeground(); // Failed to start
+                    }
+                });
+            });
         });
     }
 
@@ -744,17 +704,134 @@ public class DownloadService extends Service {
         }
     }
 
-    public void handlePauseDownload(long downloadId) {
+    private void applyBandwidthLimits() {
+        globalBandwidthLimiter.setRate(AppSettings.getGlobalBandwidthLimitKbps(this) * 1024L);
+        long perDownloadRate = AppSettings.getPerDownloadBandwidthLimitKbps(this) * 1024L;
+        for (DownloadTask task : activeDownloads.values()) {
+            task.bandwidthLimiter.setRate(perDownloadRate);
+        }
+        Log.d(TAG, "Bandwidth limits: global=" + globalBandwidthLimiter.getRate() + " B/s, per download=" + perDownloadRate + " B/s");
+    }
+
+    // --- Ordem da fila (usado pela UI através do DownloadBinder) ---
+
+    // Downloads esperando um slot, na ordem em que vão começar
+    public List<Long> getQueuedDownloadIds() {
+        return scheduler.getQueuedDownloadIds();
+    }
+
+    /**
+     * Define a prioridade (PRIORITY_LOW/NORMAL/HIGH ou outro inteiro) de um download da fila,
+     * inclusive pausados ou com falha, para quando voltarem.
+     */
+    public boolean setDownloadPriority(long downloadId, int priority) {
+        DownloadTask task = activeDownloads.get(downloadId);
+        boolean pinned = task != null && task.pinned;
+        long position = task != null ? task.queuePosition : getQueuePosition(downloadId);
+        if (position == Long.MIN_VALUE) {
+            return false;
+        }
+        if (task != null) {
+            task.priority = priority;
+        }
+        saveQueueOrder(downloadId, pinned, priority, position);
+        return true;
+    }
+
+    public boolean moveQueuedDownloadUp(long downloadId) {
+        return moveQueuedDownload(downloadId, -1);
+    }
+
+    public boolean moveQueuedDownloadDown(long downloadId) {
+        return moveQueuedDownload(downloadId, 1);
+    }
+
+    /**
+     * Troca o download de lugar com o vizinho na fila. Ele assume o pin e a prioridade do vizinho
+     * para que a troca valha mesmo entre prioridades diferentes. Com a ordem "menores primeiro"
+     * o tamanho decide dentro da mesma prioridade; nesse caso use setDownloadPriority ou pinDownloadNextUp.
+     */
+    private boolean moveQueuedDownload(long downloadId, int direction) {
+        List<Long> order = scheduler.getQueuedDownloadIds();
+        int index = order.indexOf(downloadId);
+        int neighbourIndex = index + direction;
+        if (index < 0 || neighbourIndex < 0 || neighbourIndex >= order.size()) {
+            return false;
+        }
+        DownloadTask task = activeDownloads.get(downloadId);
+        DownloadTask neighbour = activeDownloads.get(order.get(neighbourIndex));
+        if (task == null || neighbour == null) {
+            return false;
+        }
+        long position = task.queuePosition;
+        task.pinned = neighbour.pinned;
+        task.priority = neighbour.priority;
+        task.queuePosition = neighbour.queuePosition;
+        neighbour.queuePosition = position;
+        boolean pinned = task.pinned;
+        int priority = task.priority;
+        long taskPosition = task.queuePosition;
+        boolean neighbourPinned = neighbour.pinned;
+        int neighbourPriority = neighbour.priority;
+        long neighbourPosition = neighbour.queuePosition;
+        dbHelper.executeWrite(() -> {
+            updateQueueOrder(downloadId, pinned, priority, taskPosition);
+            updateQueueOrder(neighbour.downloadId, neighbourPinned, neighbourPriority, neighbourPosition);
+            mainThreadHandler.post(this::notifyQueueOrderChanged);
+        });
+        return true;
+    }
+
+    // Coloca o download à frente de toda a fila: é o próximo a ocupar um slot livre
+    public boolean pinDownloadNextUp(long downloadId) {
         DownloadTask task = activeDownloads.get(downloadId);
+        if (task == null && getQueuePosition(downloadId) == Long.MIN_VALUE) {
+            return false;
+        }
+        int priority = task != null ? task.priority : getQueuePriority(downloadId);
+        // As tarefas têm a posição mais recente; a tabela pode ainda não ter recebido a gravação
+        long position = getMinQueuePosition();
+        for (DownloadTask active : activeDownloads.values()) {
+            position = Math.min(position, active.queuePosition);
+        }
+        position--;
         if (task != null) {
-            task.pause();
-            updateDownloadStatus(downloadId, Download.STATUS_PAUSED);
+            task.queuePosition = position;
+            task.pinned = true;
+        }
+        saveQueueOrder(downloadId, true, priority, position);
+        return true;
+    }
+
+    // A tarefa já tem a ordem nova; a tabela é atualizada na thread de escrita e só então a UI é avisada
+    private void saveQueueOrder(long downloadId, boolean pinned, int priority, long position) {
+        dbHelper.executeWrite(() -> {
+            updateQueueOrder(downloadId, pinned, priority, position);
+            mainThreadHandler.post(this::notifyQueueOrderChanged);
+        });
+    }
+
+    private void notifyQueueOrderChanged() {
+        Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+        broadcastManager.sendBroadcast(broadcastIntent);
+    }
+
+    public void handlePauseDownload(long downloadId) {
+        DownloadTask task = activeDownloads.get(downloadId);
+        boolean waitingForRetry = task == null && cancelAutomaticRetry(downloadId);
+        if (task != null || waitingForRetry) {
+            if (task != null) {
+                task.pause(); // Se ainda estiver na fila, sai dela sem começar
+            }
+            consecutiveFailures.remove(downloadId);
+            notificationScheduler.untrack(downloadId);
             updateNotificationPaused(downloadId);
             
-            // Enviar broadcast
-            Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
-            broadcastIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
-            broadcastManager.sendBroadcast(broadcastIntent);
+            // Enviar broadcast depois de gravar o status
+            writeStatusAndNotify(downloadId, Download.STATUS_PAUSED, null);
+            if (waitingForRetry) {
+                checkStopForeground();
+            }
         }
     }
 
@@ -773,7 +850,8 @@ public class DownloadService extends Service {
              return;
         }
         if (download != null && (download.getStatus() == Download.STATUS_PAUSED || download.getStatus() == Download.STATUS_FAILED)) {
-            // For now, resume will not have the Gofile token unless we store it in DB.
+            consecutiveFailures.remove(downloadId);
+            // O token do Gofile fica guardado na fila persistida
             // Ensure localPath is available for resume.
             String localPath = download.getLocalPath();
             if (localPath == null || localPath.isEmpty()) {
@@ -782,7 +860,7 @@ public class DownloadService extends Service {
                 localPath = new File(baseAppDownloadDir, download.getFileName()).getAbsolutePath();
                 Log.w(TAG, "Resuming download for ID " + downloadId + " but localPath was missing. Reconstructed to: " + localPath);
             }
-            startDownload(downloadId, download.getUrl(), download.getFileName(), null, localPath);
+            startDownload(downloadId, download.getUrl(), download.getFileName(), getQueuedAuthToken(downloadId), localPath);
         }
     }
 
@@ -794,13 +872,29 @@ public class DownloadService extends Service {
     }
 
     public void handleCancelDownload(long downloadId) {
+        ExtractionTask extraction = activeExtractions.get(downloadId);
+        if (extraction != null) {
+            // Cancelar uma extração só interrompe a extração; o arquivo baixado continua
+            extraction.cancel();
+            return;
+        }
         DownloadTask task = activeDownloads.get(downloadId);
         if (task != null) {
-            task.cancel(true);
-            // A remoção de activeDownloads é feita no onPostExecute/onCancelled da AsyncTask
+            // A limpeza (arquivo, DB, notificação) é feita quando a tarefa realmente parar,
+            // para não apagar o arquivo enquanto ainda há escritas em andamento
+            task.cancel();
+            return;
         }
-        
+        boolean waitingForRetry = cancelAutomaticRetry(downloadId);
+        removeCancelledDownload(downloadId);
+        if (waitingForRetry) {
+            checkStopForeground();
+        }
+    }
+
+    private void removeCancelledDownload(long downloadId) {
         // Remover a notificação
+        notificationScheduler.untrack(downloadId);
         notificationManager.cancel((int) (NOTIFICATION_ID_BASE + downloadId));
         activeNotifications.remove(downloadId);
         
@@ -841,63 +935,94 @@ public class DownloadService extends Service {
              return;
         }
         if (download != null && download.getStatus() == Download.STATUS_FAILED) {
-            // Resetar o progresso e status
-            ContentValues values = new ContentValues();
-            values.put(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES, 0);
-            values.put(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS, Download.STATUS_PENDING);
-            
-            SQLiteDatabase db = dbHelper.getWritableDatabase();
-            db.update(
-                DownloadContract.DownloadEntry.TABLE_NAME,
-                values,
-                DownloadContract.DownloadEntry._ID + " = ?",
-                new String[] { String.valueOf(downloadId) }
-            );
+            // Retomar do último byte confirmado em disco (mapa de segmentos), não do zero
+            // (um arquivo corrompido já teve o progresso zerado)
+            consecutiveFailures.remove(downloadId);
+            if (download.getIntegrity() != Download.INTEGRITY_UNCHECKED) {
+                dbHelper.executeWrite(() -> updateDownloadIntegrity(downloadId, Download.INTEGRITY_UNCHECKED));
+            }
+            // scheduleDownload marca como PENDING
             
             // Iniciar o download novamente
-            // Retry will also not use a token unless persisted.
+            // Reutilizar o token guardado na fila persistida
             String localPath = download.getLocalPath();
             if (localPath == null || localPath.isEmpty()) {
                  File baseAppDownloadDir = new File(AppSettings.getDownloadPath(this));
                  localPath = new File(baseAppDownloadDir, download.getFileName()).getAbsolutePath();
                  Log.w(TAG, "Retrying download for ID " + downloadId + " but localPath was missing. Reconstructed to: " + localPath);
             }
-            startDownload(downloadId, download.getUrl(), download.getFileName(), null, localPath);
+            startDownload(downloadId, download.getUrl(), download.getFileName(), getQueuedAuthToken(downloadId), localPath);
         }
     }
 
     // Modified startDownload signature to include authToken and targetLocalPath
     private void startDownload(long downloadId, String urlString, String displayFileName, String authToken, String targetLocalPath) {
+        scheduleDownload(downloadId, urlString, displayFileName, authToken, null, targetLocalPath, false);
+    }
+
+    /**
+     * Registra o download na fila persistida e o entrega ao agendador.
+     * @param restoring true quando a fila está sendo restaurada em onCreate: a linha já existe e
+     *                  não são mostrados avisos de "adicionado à fila".
+     */
+    private void scheduleDownload(long downloadId, String urlString, String displayFileName, String authToken,
+                                  String gofileContentId, String targetLocalPath, boolean restoring) {
         Log.i(TAG, "startDownload: Entry. ID: " + downloadId + ", URL: '" + urlString + "', DisplayFileName: '" + displayFileName + "', LocalPath: '" + targetLocalPath + "', AuthToken: " + (authToken != null ? "present" : "null"));
 
         if (targetLocalPath == null || targetLocalPath.isEmpty()) {
             Log.e(TAG, "startDownload called with null or empty targetLocalPath for ID: " + downloadId + ". Aborting.");
             // Update status to FAILED as we can't proceed.
-            updateDownloadStatus(downloadId, Download.STATUS_FAILED);
+            writeStatusAndNotify(downloadId, Download.STATUS_FAILED, null);
             updateNotificationError(downloadId, displayFileName); // Show error notification
             return;
         }
 
         // Criar ou atualizar a notificação using displayFileName
         NotificationCompat.Builder builder = createOrUpdateNotificationBuilder(downloadId, displayFileName);
+        notificationScheduler.untrack(downloadId); // Builder novo: o que estava na tela não vale mais
         activeNotifications.put(downloadId, builder);
         
+        boolean queued = !scheduler.hasFreeSlot(urlString);
+        if (queued) {
+            builder.setContentText("Na fila...");
+        }
+
         // Iniciar o serviço em primeiro plano
         startForeground((int) (NOTIFICATION_ID_BASE + downloadId), builder.build());
         
-        // Atualizar o status no banco de dados (localPath might be updated here again if it changed, but should be set by now)
-        updateDownloadStatus(downloadId, Download.STATUS_DOWNLOADING, targetLocalPath);
-        
-        // Iniciar a tarefa de download, passing the authToken and targetLocalPath
+        // Agendar a tarefa de download, passing the authToken and targetLocalPath
         DownloadTask task = new DownloadTask(downloadId, urlString, displayFileName, builder, authToken, targetLocalPath);
-        activeDownloads.put(downloadId, task);
-        Log.i(TAG, "startDownload: About to execute DownloadTask for ID: " + downloadId + " on THREAD_POOL_EXECUTOR");
-        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
-        
-        // Enviar broadcast
-        Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
-        broadcastIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
-        broadcastManager.sendBroadcast(broadcastIntent);
+        loadQueueOrder(task);
+        if (activeDownloads.putIfAbsent(downloadId, task) != null) {
+            Log.w(TAG, "startDownload: Download ID " + downloadId + " is already scheduled");
+            return;
+        }
+
+        // Fica PENDING até o agendador liberar um slot; a tarefa muda para DOWNLOADING quando começar.
+        // Gravado na thread de escrita antes do submit: a tarefa espera essas gravações antes das dela
+        dbHelper.executeWrite(() -> {
+            updateDownloadStatus(downloadId, Download.STATUS_PENDING, targetLocalPath);
+            long position = restoring ? Long.MIN_VALUE : saveQueueEntry(downloadId, authToken, gofileContentId);
+            mainThreadHandler.post(() -> {
+                if (position != Long.MIN_VALUE && activeDownloads.get(downloadId) == task) {
+                    task.queuePosition = position;
+                }
+                Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+                broadcastIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+                broadcastManager.sendBroadcast(broadcastIntent);
+            });
+        });
+        if (!scheduler.submit(task)) {
+            Log.w(TAG, "startDownload: Download ID " + downloadId + " is already scheduled");
+            activeDownloads.remove(downloadId, task);
+            return;
+        }
+        Log.i(TAG, "startDownload: Scheduled DownloadTask for ID: " + downloadId + " (" + scheduler.getMetrics() + ")");
+        notificationScheduler.track(downloadId);
+        if (queued && !restoring) {
+            Toast.makeText(this, displayFileName + " foi adicionado à fila.", Toast.LENGTH_SHORT).show();
+        }
+        // O broadcast sai depois da gravação acima
     }
 
     // Overload for existing calls that don't have authToken (e.g., resume of non-Gofile)
@@ -964,33 +1089,6 @@ public class DownloadService extends Service {
         return builder;
     }
 
-    private void updateNotificationProgress(long downloadId, int progress, long downloadedBytes, long totalBytes, double speed) {
-        NotificationCompat.Builder builder = activeNotifications.get(downloadId);
-        if (builder != null) {
-            // Converter para MB e Mbps para exibição
-            double downloadedMB = bytesToMB(downloadedBytes);
-            double totalMB = bytesToMB(totalBytes);
-            double speedMbps = bytesToMB((long)speed);
-            
-            String contentText;
-            if (totalBytes > 0) {
-                 contentText = String.format("%.1f / %.1f MB (%.2f Mbps)",
-                    bytesToMB(downloadedBytes),
-                    bytesToMB(totalBytes),
-                    speedMbps);
-                 builder.setProgress(100, progress, false);
-            } else {
-                 contentText = String.format("%.1f MB (%.2f Mbps)",
-                    bytesToMB(downloadedBytes),
-                    speedMbps);
-                 builder.setProgress(0, 0, true); // Indeterminado se o total é desconhecido
-            }
-           
-            builder.setContentText(contentText);
-            notificationManager.notify((int) (NOTIFICATION_ID_BASE + downloadId), builder.build());
-        }
-    }
-
     private void updateNotificationPaused(long downloadId) {
         NotificationCompat.Builder builder = activeNotifications.get(downloadId);
         if (builder != null) {
@@ -1034,6 +1132,30 @@ public class DownloadService extends Service {
         }
     }
 
+    private void updateNotificationRetrying(long downloadId, String fileName, long delayMs, int failures) {
+        NotificationCompat.Builder builder = activeNotifications.get(downloadId);
+        if (builder == null) return;
+        builder.mActions.clear();
+
+        Intent cancelIntent = new Intent(this, DownloadService.class);
+        cancelIntent.putExtra(EXTRA_ACTION, ACTION_CANCEL_DOWNLOAD);
+        cancelIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+        PendingIntent cancelPendingIntent = PendingIntent.getService(
+            this,
+            (int) (downloadId + 200), // ID consistente com o de cancelamento
+            cancelIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        long seconds = Math.max(1, (delayMs + 999) / 1000);
+        builder.setContentTitle(fileName)
+               .setContentText("Falha na conexão. Nova tentativa em " + seconds + " s (" + failures + "/" + RetryPolicy.DOWNLOAD.getMaxAttempts() + ")")
+               .setOngoing(true)
+               .setOnlyAlertOnce(true)
+               .addAction(R.drawable.ic_cancel, "Cancelar", cancelPendingIntent);
+        notificationManager.notify((int) (NOTIFICATION_ID_BASE + downloadId), builder.build());
+    }
+
     private void updateNotificationComplete(long downloadId, String fileName, File downloadedFile) {
         NotificationCompat.Builder builder = activeNotifications.get(downloadId);
         // Se não houver builder ativo, criar um novo para a notificação de conclusão
@@ -1099,6 +1221,10 @@ public class DownloadService extends Service {
     }
 
     private void updateNotificationError(long downloadId, String fileName) {
+        updateNotificationError(downloadId, fileName, "Ocorreu um erro durante o download");
+    }
+
+    private void updateNotificationError(long downloadId, String fileName, String message) {
         NotificationCompat.Builder builder = activeNotifications.get(downloadId);
         // Se não houver builder ativo, criar um novo para a notificação de erro
          if (builder == null) {
@@ -1141,7 +1267,7 @@ public class DownloadService extends Service {
         );
 
         builder.setContentTitle(fileName + " - Download Falhou")
-               .setContentText("Ocorreu um erro durante o download")
+               .setContentText(message)
                .setProgress(0, 0, false)
                .setOngoing(false)
                .setAutoCancel(true)
@@ -1154,7 +1280,7 @@ public class DownloadService extends Service {
         stopForeground(false); // Parar foreground se for o último download
     }
 
-    private class DownloadTask extends AsyncTask<Void, Integer, File> {
+    private class DownloadTask implements DownloadScheduler.Job {
         private final long downloadId;
         private final String urlString;
         private final String displayFileName; // Renamed from fileName, used for notifications
@@ -1162,13 +1288,33 @@ public class DownloadService extends Service {
         private final String localPath; // Full local path for the download
         private final String authToken;
 
-        private boolean isPaused = false;
-        private boolean isCancelled = false;
+        private volatile boolean isPaused = false;
+        private volatile boolean isCancelled = false;
+        private volatile boolean isRemoved = false; // Cancelado porque a linha foi apagada em lote
         private long totalBytes = -1;
         private long downloadedBytes = 0;
-        private long startTime;
         private long lastUpdateTime = 0;
-        private double speed = 0;
+        // Velocidade só desta sessão (bytes de sessões anteriores não contam)
+        private final ThroughputEstimator throughput = new ThroughputEstimator();
+        private long lastCheckpointTime = 0;
+        private List<DownloadSegment> savedSegments = new ArrayList<>();
+        private String expectedHash; // Carregado do banco no início de cada tentativa
+        private volatile SegmentedDownloader segmentedDownloader;
+        private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(globalBandwidthLimiter);
+        private String failureMessage; // Texto da notificação de erro, null = mensagem genérica
+        private Exception failure; // Erro que encerrou a tentativa
+        private long retryDelayMs = -1; // >= 0: falha temporária, nova tentativa automática após esse tempo
+        private int failureCount = 0;
+        private long attemptStartedAt;
+        private long attemptStartBytes;
+        // Ordem na fila (espelho da tabela download_queue)
+        private volatile boolean pinned = false;
+        private volatile int priority = PRIORITY_NORMAL;
+        private volatile long queuePosition = 0;
+        private volatile long remainingBytes = -1;
+        private volatile long expectedTotalBytes = -1; // Tamanho salvo no banco, para a admissão por espaço
+        private boolean waitingForSpace = false; // O arquivo não coube: volta para a fila esperando espaço
+        private boolean spaceAllocated = false; // Arquivo pré-alocado: a reserva de espaço já foi usada
 
         // Modified constructor to include localPath
         DownloadTask(long downloadId, String urlString, String displayFileName, NotificationCompat.Builder builder, String authToken, String localPath) {
@@ -1178,6 +1324,7 @@ public class DownloadService extends Service {
             this.notificationBuilder = builder;
             this.authToken = authToken;
             this.localPath = localPath; // Full path where the file will be saved
+            this.bandwidthLimiter.setRate(AppSettings.getPerDownloadBandwidthLimitKbps(DownloadService.this) * 1024L);
         }
 
         // This overload might need adjustment or removal if all calls provide localPath
@@ -1189,80 +1336,300 @@ public class DownloadService extends Service {
 
         public void pause() {
             isPaused = true;
+            if (scheduler.isQueued(downloadId)) {
+                scheduler.cancel(downloadId); // Ainda não começou: só sair da fila
+            }
+        }
+
+        public void cancel() {
+            isCancelled = true;
+            scheduler.cancel(downloadId); // Interrompe a tarefa em execução ou a remove da fila
+        }
+
+        // Como cancel(), mas a linha e o arquivo são removidos por quem apagou o download
+        void remove() {
+            isRemoved = true;
+            cancel();
         }
 
         @Override
-        protected void onPreExecute() {
-            Log.d(TAG, "DownloadTask (" + this.downloadId + "): onPreExecute. URL: '" + this.urlString + "'");
-            super.onPreExecute();
-            startTime = System.currentTimeMillis();
-            
-            // Verificar se já existe um download parcial
-            Download existingDownload = getDownloadById(downloadId);
-            if (existingDownload != null && existingDownload.getDownloadedBytes() > 0) {
-                downloadedBytes = existingDownload.getDownloadedBytes();
-                totalBytes = existingDownload.getTotalBytes();
-            }
+        public long getDownloadId() {
+            return downloadId;
         }
 
         @Override
-        protected File doInBackground(Void... params) {
-            InputStream input = null;
-            OutputStream output = null;
-            HttpURLConnection connection = null;
-            File downloadedFile = null;
-            RandomAccessFile randomAccessFile = null;
+        public String getUrl() {
+            return urlString;
+        }
 
-            try {
-                Log.d(TAG, "DownloadTask (" + this.downloadId + "): doInBackground starting. URL: '" + this.urlString + "'. LocalPath: '" + this.localPath + "'. AuthToken: " + (this.authToken != null ? "present" : "null"));
+        @Override
+        public boolean isPinned() {
+            return pinned;
+        }
 
-                if (this.localPath == null || this.localPath.isEmpty()) {
-                    Log.e(TAG, "DownloadTask (" + this.downloadId + "): Local path is null or empty. Cannot proceed.");
-                    updateDownloadStatus(downloadId, Download.STATUS_FAILED);
-                    return null;
-                }
+        @Override
+        public int getPriority() {
+            return priority;
+        }
 
-                downloadedFile = new File(this.localPath);
+        @Override
+        public long getQueuePosition() {
+            return queuePosition;
+        }
 
-                // Ensure parent directories exist for the specific file path
-                File parentDir = downloadedFile.getParentFile();
-                if (parentDir != null && !parentDir.exists()) {
-                    if (!parentDir.mkdirs()) {
-                        Log.e(TAG, "DownloadTask (" + this.downloadId + "): Failed to create parent directory: " + parentDir.getAbsolutePath());
-                        updateDownloadStatus(downloadId, Download.STATUS_FAILED);
-                        return null;
-                    }
-                }
+        @Override
+        public long getRemainingBytes() {
+            return remainingBytes;
+        }
+
+        @Override
+        public double getSpeed() {
+            return throughput.getSmoothedSpeed();
+        }
+
+        @Override
+        public File getTargetFile() {
+            return new File(localPath);
+        }
+
+        @Override
+        public long getRequiredSpace() {
+            long total = totalBytes > 0 ? totalBytes : expectedTotalBytes;
+            if (total <= 0) return -1;
+            // O que o arquivo já ocupa no disco (pré-alocado ou baixado) já saiu do espaço livre.
+            // Não o tamanho: sem posix_fallocate, setLength deixa um arquivo esparso do tamanho total
+            long used = DownloadFileWriter.allocatedBytes(getTargetFile());
+            if (used < 0) {
+                return remainingBytes >= 0 ? remainingBytes : total;
+            }
+            return Math.max(0, total - used);
+        }
+
+        // Executado em um slot do DownloadScheduler
+        @Override
+        public void run() {
+            File result = null;
+            boolean attempted = false;
+            try {
+                // O PENDING e a entrada da fila gravados por scheduleDownload vêm antes do DOWNLOADING
+                try {
+                    dbHelper.awaitWrites();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Cancelado enquanto esperava
+                }
+                if (!isStopRequested()) {
+                    updateDownloadStatus(downloadId, Download.STATUS_DOWNLOADING, localPath);
+                    Intent intent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+                    intent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+                    broadcastManager.sendBroadcast(intent);
+
+                    attempted = true;
+                    attemptStartedAt = System.currentTimeMillis();
+                    loadSavedProgress();
+                    attemptStartBytes = downloadedBytes;
+                    throughput.reset(downloadedBytes, attemptStartedAt);
+                    result = download();
+                }
+            } finally {
+                if (attempted) {
+                    recordAttempt(result);
+                }
+                // O resultado só é tratado depois que a tarefa parou de escrever no arquivo
+                final File finalResult = result;
+                mainThreadHandler.post(() -> onFinished(finalResult));
+            }
+        }
+
+        @Override
+        public void onCancelledBeforeStart() {
+            mainThreadHandler.post(() -> {
+                if (isPaused || isCancelled) {
+                    onFinished(null);
+                } else {
+                    // Fila descartada com o serviço sendo encerrado: o download continua PENDING
+                    activeDownloads.remove(downloadId, this);
+                }
+            });
+        }
+
+        private void loadSavedProgress() {
+            Log.d(TAG, "DownloadTask (" + this.downloadId + "): Starting. URL: '" + this.urlString + "'");
+            
+            // Verificar se já existe um download parcial
+            Download existingDownload = getDownloadById(downloadId);
+            expectedHash = existingDownload != null ? existingDownload.getExpectedHash() : null;
+            if (existingDownload != null && existingDownload.getDownloadedBytes() > 0) {
+                downloadedBytes = existingDownload.getDownloadedBytes();
+                totalBytes = existingDownload.getTotalBytes();
+            }
+
+            // O mapa de segmentos só contém bytes confirmados em disco (fsync), então é ele que define
+            // de onde retomar. O contador da tabela de downloads serve apenas para exibição.
+            File partialFile = (localPath != null && !localPath.isEmpty()) ? new File(localPath) : null;
+            long fileLength = (partialFile != null && partialFile.exists()) ? partialFile.length() : 0;
+            savedSegments = new ArrayList<>();
+            List<DownloadSegment> storedSegments = loadDownloadSegments(downloadId);
+            if (!storedSegments.isEmpty()) {
+                long confirmedBytes = 0;
+                for (DownloadSegment segment : storedSegments) {
+                    // Nunca confiar em bytes além do que o arquivo realmente tem
+                    long onDisk = Math.max(0, Math.min(segment.getDownloaded(), fileLength - segment.getStart()));
+                    savedSegments.add(new DownloadSegment(segment.getIndex(), segment.getStart(), segment.getEnd(), onDisk));
+                    confirmedBytes += onDisk;
+                }
+                downloadedBytes = confirmedBytes;
+            } else if (downloadedBytes > 0) {
+                // Registro sem mapa de segmentos (versão anterior): limitar o contador ao tamanho do arquivo
+                downloadedBytes = Math.min(downloadedBytes, fileLength);
+            }
+            Log.d(TAG, "DownloadTask (" + downloadId + "): Resuming from " + downloadedBytes + " confirmed bytes, " + savedSegments.size() + " saved segment(s)");
+        }
+
+        // Where the first unfinished saved segment continues, or the contiguous progress for a plain download
+        private long resumeOffset() {
+            for (DownloadSegment segment : savedSegments) {
+                if (!segment.isComplete()) {
+                    return segment.position();
+                }
+            }
+            return savedSegments.isEmpty() ? downloadedBytes : 0;
+        }
+
+        // Opens a connection for bytes [from, to]; to = -1 means until the end of the file
+        private HttpURLConnection openRangeConnection(long from, long to) throws IOException {
+            URL url = new URL(urlString);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+            // Add Cookie header if authToken is present (for Gofile direct links)
+            if (this.authToken != null && !this.authToken.isEmpty()) {
+                connection.setRequestProperty("Cookie", "accountToken=" + this.authToken);
+            }
+            connection.setRequestProperty("Range", "bytes=" + from + "-" + (to >= 0 ? String.valueOf(to) : ""));
+            connection.setConnectTimeout(15000);
+            connection.setReadTimeout(15000);
+            connection.connect(); // Connect AFTER setting all properties
+            return connection;
+        }
+
+        // Splits what is left of the file into byte ranges, reusing the saved layout when resuming
+        private List<DownloadSegment> planSegments(boolean rangesSupported) {
+            List<DownloadSegment> segments = new ArrayList<>();
+            if (rangesSupported && !savedSegments.isEmpty()) {
+                long lastEnd = -1;
+                for (DownloadSegment segment : savedSegments) {
+                    lastEnd = Math.max(lastEnd, segment.getEnd());
+                }
+                if (lastEnd == totalBytes - 1) {
+                    return savedSegments;
+                }
+                Log.w(TAG, "DownloadTask (" + downloadId + "): Saved segments do not match file size " + totalBytes + ". Starting over.");
+                downloadedBytes = 0;
+            }
+
+            int segmentCount = AppSettings.getSegmentsPerDownload(DownloadService.this);
+            long remaining = totalBytes - downloadedBytes;
+            if (!rangesSupported || totalBytes <= 0 || segmentCount <= 1 || remaining < SEGMENTED_MIN_BYTES) {
+                // Download simples: um único segmento do início ao fim
+                segments.add(new DownloadSegment(0, 0, totalBytes > 0 ? totalBytes - 1 : -1, downloadedBytes));
+                return segments;
+            }
+
+            if (downloadedBytes > 0) {
+                // Parte já baixada por um download simples anterior
+                segments.add(new DownloadSegment(0, 0, downloadedBytes - 1, downloadedBytes));
+            }
+            long segmentSize = remaining / segmentCount;
+            long from = downloadedBytes;
+            for (int i = 0; i < segmentCount; i++) {
+                long to = (i == segmentCount - 1) ? totalBytes - 1 : from + segmentSize - 1;
+                segments.add(new DownloadSegment(segments.size(), from, to, 0));
+                from = to + 1;
+            }
+            return segments;
+        }
+
+        private boolean isStopRequested() {
+            return isPaused || isCancelled || Thread.currentThread().isInterrupted();
+        }
+
+        /**
+         * Flushes the file to disk and only then hands the segment map to the progress store,
+         * so every byte the database claims is really on disk. The database write itself
+         * happens later, batched with the other downloads.
+         */
+        private void checkpoint() throws IOException {
+            if (segmentedDownloader == null) return;
+            List<DownloadSegment> confirmed = segmentedDownloader.checkpoint();
+            progressStore.saveCheckpoint(downloadId, confirmed, totalBytes);
+            lastCheckpointTime = System.currentTimeMillis();
+            if (!spaceAllocated && totalBytes > 0) {
+                // Sem pré-alocação o espaço é ocupado conforme os dados chegam
+                scheduler.updateReservedSpace(downloadId, totalBytes - segmentedDownloader.getDownloadedBytes());
+            }
+        }
+
+        private void onDownloadTick(long currentDownloadedBytes) {
+            downloadedBytes = currentDownloadedBytes;
+            long currentTime = System.currentTimeMillis();
+            if (currentTime - lastCheckpointTime >= CHECKPOINT_INTERVAL_MS) {
+                try {
+                    checkpoint();
+                } catch (IOException e) {
+                    Log.w(TAG, "DownloadTask (" + downloadId + "): Checkpoint failed: " + e.getMessage());
+                }
+            }
+
+            // Velocidade suavizada sobre os últimos segundos, não a média desde o início
+            throughput.addSample(downloadedBytes, currentTime);
+            long remaining = totalBytes > 0 ? Math.max(0, totalBytes - downloadedBytes) : -1;
+
+            // Publicar o progresso: a UI recebe no máximo uma vez por frame e as notificações
+            // são lidas do bus pelo NotificationScheduler, sem post na main thread por tick
+            DownloadProgressBus.getInstance().publish(downloadId, downloadedBytes, totalBytes,
+                    throughput.getSmoothedSpeed(), throughput.getEtaSeconds(remaining));
+
+            lastUpdateTime = currentTime;
+        }
+
+        private File download() {
+            HttpURLConnection connection = null;
+            File downloadedFile = null;
+            DownloadFileWriter fileWriter = null;
+
+            try {
+                Log.d(TAG, "DownloadTask (" + this.downloadId + "): doInBackground starting. URL: '" + this.urlString + "'. LocalPath: '" + this.localPath + "'. AuthToken: " + (this.authToken != null ? "present" : "null"));
+
+                if (this.localPath == null || this.localPath.isEmpty()) {
+                    Log.e(TAG, "DownloadTask (" + this.downloadId + "): Local path is null or empty. Cannot proceed.");
+                    updateDownloadStatus(downloadId, Download.STATUS_FAILED);
+                    return null;
+                }
+
+                downloadedFile = new File(this.localPath);
+
+                // Ensure parent directories exist for the specific file path
+                File parentDir = downloadedFile.getParentFile();
+                if (parentDir != null && !parentDir.exists()) {
+                    if (!parentDir.mkdirs()) {
+                        Log.e(TAG, "DownloadTask (" + this.downloadId + "): Failed to create parent directory: " + parentDir.getAbsolutePath());
+                        updateDownloadStatus(downloadId, Download.STATUS_FAILED);
+                        return null;
+                    }
+                }
 
                 // Update DB with the definitive local path, especially if it wasn't set before task execution
                 // (e.g. if DownloadTask was called by an older part of the code not yet updated to provide full path to startDownload)
                 updateDownloadLocalPath(downloadId, this.localPath);
                 
-                // Configurar a conexão
-                URL url = new URL(urlString);
-                connection = (HttpURLConnection) url.openConnection();
-
-                // Add Cookie header if authToken is present (for Gofile direct links)
-                if (this.authToken != null && !this.authToken.isEmpty()) {
-                    connection.setRequestProperty("Cookie", "accountToken=" + this.authToken);
-                    Log.d(TAG, "DownloadTask (" + this.downloadId + "): Added auth token to Cookie header.");
-                }
-                
-                // Se já temos bytes baixados, configurar o cabeçalho Range
-                if (downloadedBytes > 0) {
-                    connection.setRequestProperty("Range", "bytes=" + downloadedBytes + "-");
-                }
-                
-                connection.setConnectTimeout(15000);
-                connection.setReadTimeout(15000);
-                connection.connect(); // Connect AFTER setting all properties
+                // Requisição inicial: descobre o tamanho total e se o servidor aceita Range.
+                // Começa onde o primeiro segmento incompleto parou, para que a conexão possa ser reaproveitada.
+                long probeFrom = resumeOffset();
+                connection = openRangeConnection(probeFrom, -1);
                 
                 int responseCode = connection.getResponseCode();
                 // Tratar resposta parcial (206) ou OK (200)
                 if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
-                    Log.e(TAG, "Server returned HTTP " + responseCode + " " + connection.getResponseMessage());
-                    updateDownloadStatus(downloadId, Download.STATUS_FAILED);
-                    return null;
+                    throw HttpStatusException.from(connection, "Download");
                 }
                 
                 // Obter o tamanho total do arquivo (considerando Range)
@@ -1276,10 +1643,10 @@ public class DownloadService extends Service {
                                  totalBytes = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1));
                              } catch (Exception e) {
                                  Log.w(TAG, "Could not parse Content-Range: " + contentRange);
-                                 totalBytes = downloadedBytes + contentLengthHeader; // Estimativa
+                                 totalBytes = probeFrom + contentLengthHeader; // Estimativa
                              }
                          } else {
-                             totalBytes = downloadedBytes + contentLengthHeader; // Estimativa
+                             totalBytes = probeFrom + contentLengthHeader; // Estimativa
                          }
                     } else {
                          totalBytes = contentLengthHeader;
@@ -1290,201 +1657,546 @@ public class DownloadService extends Service {
                     }
                     updateDownloadTotalBytes(downloadId, totalBytes);
                 }
-                
-                // Abrir o arquivo para escrita
-                if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
-                    randomAccessFile = new RandomAccessFile(downloadedFile, "rw");
-                    randomAccessFile.seek(downloadedBytes);
-                    output = new FileOutputStream(randomAccessFile.getFD());
-                } else {
-                    // Se for 200 OK, começar do início (ou sobrescrever)
+
+                fileWriter = new DownloadFileWriter(downloadedFile);
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    // Se for 200 OK, o servidor ignorou o Range: começar do início (ou sobrescrever)
                     downloadedBytes = 0;
-                    output = new FileOutputStream(downloadedFile);
+                    if (!savedSegments.isEmpty()) {
+                        savedSegments.clear();
+                        deleteDownloadSegments(downloadId);
+                    }
+                    fileWriter.truncate(0);
                 }
-                
-                input = new BufferedInputStream(connection.getInputStream());
-                
-                byte[] data = new byte[8192]; // Buffer maior
-                int count;
-                long bytesSinceLastUpdate = 0;
-                
-                while ((count = input.read(data)) != -1) {
-                    if (isCancelled) {
-                        return null;
+                // Antes de ocupar o disco, garantir que o espaço não está prometido a outros downloads;
+                // se não couber, o download volta para a fila e espera espaço em vez de falhar no meio
+                long requiredSpace = -1;
+                if (totalBytes > 0) {
+                    long used = fileWriter.allocatedBytes(); // Não size(): o arquivo pode ser esparso
+                    requiredSpace = Math.max(0, totalBytes - (used >= 0 ? used : downloadedBytes));
+                }
+                if (!scheduler.reserveSpace(downloadId, downloadedFile, requiredSpace)) {
+                    Log.w(TAG, "DownloadTask (" + downloadId + "): Not enough free space for " + requiredSpace + " bytes, waiting in the queue");
+                    waitingForSpace = true;
+                    return null;
+                }
+                // Reservar o arquivo inteiro de uma vez: falha logo se não houver espaço
+                // e evita a fragmentação causada por várias conexões escrevendo em offsets distantes
+                spaceAllocated = fileWriter.preallocate(totalBytes);
+                if (spaceAllocated) {
+                    scheduler.updateReservedSpace(downloadId, 0);
+                }
+
+                boolean rangesSupported = responseCode == HttpURLConnection.HTTP_PARTIAL
+                        || "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+                List<DownloadSegment> segments = planSegments(rangesSupported);
+                boolean segmented = segments.size() > 1;
+                int workerCount = segmented ? AppSettings.getSegmentsPerDownload(DownloadService.this) : 1;
+                Log.d(TAG, "DownloadTask (" + downloadId + "): rangesSupported=" + rangesSupported + ", segments=" + segments.size() + ", workers=" + workerCount);
+
+                segmentedDownloader = new SegmentedDownloader(fileWriter, segments, this::openRangeConnection,
+                        segmentExecutor, bufferPool, bandwidthLimiter, rangesSupported, workerCount);
+                segmentedDownloader.adoptConnection(connection, probeFrom);
+                connection = null; // Agora pertence ao downloader
+                // Hash calculado enquanto o arquivo é escrito, sem reler o arquivo inteiro no final
+                StreamingHasher hasher = StreamingHasher.forExpectedHash(expectedHash);
+                if (hasher != null) {
+                    segmentedDownloader.setHasher(hasher);
+                }
+
+                boolean completed = segmentedDownloader.run(new SegmentedDownloader.Listener() {
+                    @Override
+                    public boolean isStopRequested() {
+                        return DownloadTask.this.isStopRequested();
+                    }
+
+                    @Override
+                    public void onTick(long currentDownloadedBytes) {
+                        onDownloadTick(currentDownloadedBytes);
                     }
+                });
+                downloadedBytes = segmentedDownloader.getDownloadedBytes();
+
+                if (!completed) {
                     if (isPaused) {
                         // Salvar o progresso atual antes de pausar
-                        updateDownloadProgress(downloadId, downloadedBytes, totalBytes);
-                        return null; // Indica que foi pausado, não concluído
+                        checkpoint();
+                        progressStore.flush();
                     }
-                    
-                    downloadedBytes += count;
-                    bytesSinceLastUpdate += count;
-                    output.write(data, 0, count);
-                    
-                    // Atualizar o progresso (limitado a cada 500ms ou 1MB)
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - lastUpdateTime > 500 || bytesSinceLastUpdate > (1024 * 1024)) {
-                        updateDownloadProgress(downloadId, downloadedBytes, totalBytes);
-                        
-                        // Calcular a velocidade
-                        long elapsedTime = currentTime - startTime;
-                        if (elapsedTime > 500) { // Evitar divisão por zero ou valores irreais no início
-                            speed = (double) downloadedBytes / (elapsedTime / 1000.0);
-                        }
-                        
-                        // Publicar o progresso
-                        if (totalBytes > 0) {
-                            int progress = (int) ((downloadedBytes * 100) / totalBytes);
-                            publishProgress(progress);
-                        } else {
-                            publishProgress(-1); // Indeterminado
-                        }
-                        
-                        // Enviar broadcast para atualizar a UI
-                        Intent intent = new Intent(ACTION_DOWNLOAD_PROGRESS);
-                        intent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
-                        intent.putExtra("progress", totalBytes > 0 ? (int) ((downloadedBytes * 100) / totalBytes) : 0);
-                        intent.putExtra("downloadedBytes", downloadedBytes);
-                        intent.putExtra("totalBytes", totalBytes);
-                        intent.putExtra("speed", speed);
-                        broadcastManager.sendBroadcast(intent);
-                        
-                        // Resetar contador e atualizar timestamp
-                        bytesSinceLastUpdate = 0;
-                        lastUpdateTime = currentTime;
+                    return null; // Pausado ou cancelado, não concluído
+                }
+
+                if (totalBytes > 0 && fileWriter.size() > totalBytes) {
+                    // Sobras de uma versão anterior maior do arquivo
+                    fileWriter.truncate(totalBytes);
+                }
+
+                // Download concluído: garantir que tudo está em disco antes de marcar como concluído
+                segmentedDownloader.checkpoint();
+                if (hasher != null) {
+                    if (!segmentedDownloader.verify(fileWriter.size())) {
+                        // A origem só publica o hash do arquivo inteiro: não há como saber qual trecho
+                        // está errado, então a próxima tentativa baixa tudo de novo
+                        Log.e(TAG, "DownloadTask (" + downloadId + "): " + hasher.getAlgorithmName() + " mismatch, file is corrupt");
+                        fileWriter.truncate(0);
+                        deleteDownloadSegments(downloadId);
+                        downloadedBytes = 0;
+                        updateDownloadProgress(downloadId, 0, totalBytes);
+                        updateDownloadIntegrity(downloadId, Download.INTEGRITY_CORRUPT);
+                        failureMessage = "Arquivo corrompido: o " + hasher.getAlgorithmName() + " não confere. Tente novamente.";
+                        onAttemptFailed(new IOException("Checksum mismatch"));
+                        return null;
                     }
+                    Log.i(TAG, "DownloadTask (" + downloadId + "): " + hasher.getAlgorithmName() + " verified");
+                    updateDownloadIntegrity(downloadId, Download.INTEGRITY_VERIFIED);
                 }
-                
-                // Download concluído
+                deleteDownloadSegments(downloadId);
+                updateDownloadProgress(downloadId, downloadedBytes, totalBytes);
                 updateDownloadStatus(downloadId, Download.STATUS_COMPLETED);
+                deleteQueueEntry(downloadId);
+                consecutiveFailures.remove(downloadId);
                 return downloadedFile;
                 
+            } catch (InterruptedException e) {
+                Log.d(TAG, "DownloadTask (" + this.downloadId + "): Interrupted, download cancelled.");
+                return null;
+            } catch (InsufficientSpaceException e) {
+                Log.e(TAG, "DownloadTask (" + this.downloadId + "): " + e.getMessage());
+                failureMessage = String.format("Espaço insuficiente: são necessários %.1f MB, disponível %.1f MB",
+                        bytesToMB(e.getRequiredBytes()), bytesToMB(e.getAvailableBytes()));
+                onAttemptFailed(e);
+                return null;
             } catch (Exception e) {
                 Log.e(TAG, "DownloadTask (" + this.downloadId + "): Exception during download: " + e.getMessage(), e);
-                updateDownloadStatus(downloadId, Download.STATUS_FAILED);
+                if (segmentedDownloader != null) {
+                    downloadedBytes = segmentedDownloader.getDownloadedBytes();
+                    try {
+                        checkpoint(); // Preservar o que já chegou ao disco para a próxima tentativa
+                        progressStore.flush();
+                    } catch (IOException checkpointError) {
+                        Log.w(TAG, "DownloadTask (" + downloadId + "): Final checkpoint failed: " + checkpointError.getMessage());
+                    }
+                }
+                onAttemptFailed(e);
                 return null;
             } finally {
-                try {
-                    if (output != null) output.close();
-                    if (input != null) input.close();
-                    if (randomAccessFile != null) randomAccessFile.close();
-                    if (connection != null) connection.disconnect();
-                } catch (IOException e) {
-                    Log.e(TAG, "Error closing streams: " + e.getMessage(), e);
+                if (connection != null) connection.disconnect();
+                if (fileWriter != null) {
+                    try {
+                        fileWriter.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "DownloadTask (" + downloadId + "): Error closing file: " + e.getMessage());
+                    }
                 }
             }
         }
 
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            int progress = values[0];
-            if (progress >= 0) {
-                updateNotificationProgress(downloadId, progress, downloadedBytes, totalBytes, speed);
+        /**
+         * Falhas temporárias (timeout, conexão, 5xx, 429) voltam para a fila como PENDING após um
+         * backoff; as demais, ou depois de RetryPolicy.DOWNLOAD.getMaxAttempts() falhas seguidas, são FAILED.
+         */
+        private void onAttemptFailed(Exception e) {
+            failure = e;
+            if (isStopRequested()) {
+                return; // Pausa/cancelamento já cuidam do status
+            }
+            Integer previous = consecutiveFailures.get(downloadId);
+            boolean madeProgress = downloadedBytes - attemptStartBytes >= RETRY_PROGRESS_RESET_BYTES;
+            failureCount = (previous == null || madeProgress) ? 1 : previous + 1;
+            RetryPolicy.FailureKind kind = RetryPolicy.classify(e);
+            if (RetryPolicy.DOWNLOAD.shouldRetry(e, failureCount)) {
+                retryDelayMs = RetryPolicy.DOWNLOAD.delayMs(e, failureCount);
+                consecutiveFailures.put(downloadId, failureCount);
+                Log.w(TAG, "DownloadTask (" + downloadId + "): " + kind + " failure " + failureCount + "/" + RetryPolicy.DOWNLOAD.getMaxAttempts() + ", retrying in " + retryDelayMs + " ms");
+                updateDownloadStatus(downloadId, Download.STATUS_PENDING);
+            } else {
+                consecutiveFailures.remove(downloadId);
+                Log.e(TAG, "DownloadTask (" + downloadId + "): Giving up after " + failureCount + " failure(s) (" + kind + ")");
+                updateDownloadStatus(downloadId, Download.STATUS_FAILED);
+            }
+        }
+
+        private void recordAttempt(File result) {
+            if (isRemoved) return; // Não há mais linha para o histórico
+            String outcome;
+            if (result != null) {
+                outcome = DownloadContract.AttemptEntry.OUTCOME_COMPLETED;
+            } else if (isCancelled) {
+                outcome = DownloadContract.AttemptEntry.OUTCOME_CANCELLED;
+            } else if (isPaused) {
+                outcome = DownloadContract.AttemptEntry.OUTCOME_PAUSED;
+            } else if (waitingForSpace) {
+                outcome = DownloadContract.AttemptEntry.OUTCOME_WAITING_FOR_SPACE;
+            } else if (retryDelayMs >= 0) {
+                outcome = DownloadContract.AttemptEntry.OUTCOME_RETRY;
             } else {
-                // Progresso indeterminado
-                updateNotificationProgress(downloadId, 0, downloadedBytes, -1, speed);
+                outcome = DownloadContract.AttemptEntry.OUTCOME_FAILED;
+            }
+            try {
+                insertDownloadAttempt(downloadId, attemptStartedAt, attemptStartBytes, downloadedBytes, outcome, failure, Math.max(0, retryDelayMs));
+            } catch (Exception e) {
+                Log.w(TAG, "DownloadTask (" + downloadId + "): Could not record attempt: " + e.getMessage());
             }
         }
 
-        @Override
-        protected void onPostExecute(File result) {
-            Log.d(TAG, "DownloadTask (" + this.downloadId + "): onPostExecute. Result is null: " + (result == null) + ". Task was paused: " + isPaused + ". URL: '" + this.urlString + "'");
-            activeDownloads.remove(downloadId);
-            
-            if (isPaused) {
+        // Main thread, depois que a tarefa terminou (ou saiu da fila sem começar)
+        private void onFinished(File result) {
+            Log.d(TAG, "DownloadTask (" + this.downloadId + "): Finished. Result is null: " + (result == null) + ". Paused: " + isPaused + ". Cancelled: " + isCancelled + ". Scheduler: " + scheduler.getMetrics());
+            activeDownloads.remove(downloadId, this);
+            if (activeDownloads.get(downloadId) == null) {
+                notificationScheduler.untrack(downloadId);
+            }
+            DownloadProgressBus.getInstance().clear(downloadId);
+
+            if (isRemoved) {
+                Log.d(TAG, "Download removed: " + displayFileName);
+                deleteOrphanedFile(localPath);
+            } else if (isCancelled) {
+                Log.d(TAG, "Download cancelled: " + displayFileName); // Use displayFileName for logs
+                removeCancelledDownload(downloadId); // Também envia o broadcast
+            } else if (isPaused) {
                 Log.d(TAG, "Download paused: " + displayFileName); // Use displayFileName for logs
                 // Already handled in handlePauseDownload
-            } else if (result != null) {
-                Log.d(TAG, "Download completed: " + displayFileName);
-                updateNotificationComplete(downloadId, displayFileName, result);
+            } else if (result == null && waitingForSpace) {
+                // De volta à fila; o agendador só o inicia quando houver espaço (onWaitingForSpace)
+                if (activeDownloads.get(downloadId) == null) {
+                    scheduleDownload(downloadId, urlString, displayFileName, authToken, null, localPath, true);
+                }
+            } else if (result == null && retryDelayMs >= 0) {
+                scheduleAutomaticRetry(downloadId, retryDelayMs);
+                updateNotificationRetrying(downloadId, displayFileName, retryDelayMs, failureCount);
+
+                Intent intent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+                intent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+                broadcastManager.sendBroadcast(intent);
             } else {
-                Log.d(TAG, "Download failed: " + displayFileName);
-                updateNotificationError(downloadId, displayFileName);
-            }
-            
-            // Enviar broadcast para atualizar a UI
-            if (!isPaused) {
+                if (result != null) {
+                    Log.d(TAG, "Download completed: " + displayFileName);
+                    updateNotificationComplete(downloadId, displayFileName, result);
+                    if (AppSettings.getAutoExtractArchives(DownloadService.this)) {
+                        startExtraction(downloadId, displayFileName, result); // Só se for um formato suportado
+                    }
+                } else {
+                    Log.d(TAG, "Download failed: " + displayFileName);
+                    if (failureMessage != null) {
+                        updateNotificationError(downloadId, displayFileName, failureMessage);
+                    } else {
+                        updateNotificationError(downloadId, displayFileName);
+                    }
+                }
+
+                // Enviar broadcast para atualizar a UI
                 Intent intent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
                 intent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
                 broadcastManager.sendBroadcast(intent);
             }
-            
-            // Se não houver mais downloads ativos, parar o serviço em primeiro plano
-            // checkStopForeground(); // Moved to checkAndDequeue
-            checkAndDequeue(); // Call the new method
+
+            // Se não houver mais downloads agendados, parar o serviço em primeiro plano
+            checkStopForeground();
         }
+    }
 
-        @Override
-        protected void onCancelled(File result) { // onCancelled pode receber o resultado também
-            super.onCancelled(result);
+    // Main thread: o download está na fila mas o volume não tem espaço para ele
+    private void onWaitingForSpace(long downloadId, long requiredBytes, long availableBytes) {
+        if (!scheduler.isWaitingForSpace(downloadId) || !activeDownloads.containsKey(downloadId)) {
+            return; // Já começou ou foi removido
+        }
+        Log.i(TAG, "Download " + downloadId + " waiting for space: needs " + requiredBytes + " bytes, " + availableBytes + " available");
+        updateDownloadStatus(downloadId, Download.STATUS_WAITING_FOR_SPACE);
+        NotificationCompat.Builder builder = activeNotifications.get(downloadId);
+        if (builder != null) {
+            builder.setContentText(String.format("Aguardando espaço livre: faltam %.1f MB",
+                    bytesToMB(requiredBytes - availableBytes)));
+            notificationManager.notify((int) (NOTIFICATION_ID_BASE + downloadId), builder.build());
+        }
+        mainThreadHandler.removeCallbacks(spaceRecheck);
+        mainThreadHandler.postDelayed(spaceRecheck, SPACE_RECHECK_INTERVAL_MS);
+
+        Intent intent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+        intent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+        broadcastManager.sendBroadcast(intent);
+    }
+
+    /**
+     * Extrai o arquivo de um download concluído para uma pasta ao lado dele (main thread).
+     * @return false se o download não está concluído ou não é um formato suportado.
+     */
+    public boolean extractDownload(long downloadId) {
+        Download download = getDownloadById(downloadId);
+        if (download == null || download.getStatus() != Download.STATUS_COMPLETED
+                || download.getLocalPath() == null || download.getLocalPath().isEmpty()) {
+            return false;
+        }
+        return startExtraction(downloadId, download.getFileName(), new File(download.getLocalPath()));
+    }
+
+    // Se o arquivo do download é um formato que pode ser extraído
+    public boolean canExtractDownload(Download download) {
+        return download != null && download.getLocalPath() != null && !download.getLocalPath().isEmpty()
+                && ArchiveExtractors.find(new File(download.getLocalPath())) != null;
+    }
+
+    // Main thread
+    private boolean startExtraction(long downloadId, String displayFileName, File archive) {
+        if (activeExtractions.containsKey(downloadId)) return true;
+        ArchiveExtractor extractor = ArchiveExtractors.find(archive);
+        if (extractor == null) return false;
+
+        ExtractionTask task = new ExtractionTask(downloadId, displayFileName, archive,
+                ArchiveExtractors.getDestination(archive), extractor);
+        activeExtractions.put(downloadId, task);
+
+        NotificationCompat.Builder builder = createExtractionNotificationBuilder(downloadId, displayFileName);
+        notificationScheduler.untrack(downloadId);
+        activeNotifications.put(downloadId, builder);
+        startForeground((int) (NOTIFICATION_ID_BASE + downloadId), builder.build());
+
+        updateDownloadStatus(downloadId, Download.STATUS_EXTRACTING);
+        extractionExecutor.execute(task);
+        notificationScheduler.track(downloadId); // O progresso da extração usa a mesma notificação
+        Log.i(TAG, "Extracting " + archive + " to " + task.destination);
+
+        Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+        broadcastIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+        broadcastManager.sendBroadcast(broadcastIntent);
+        return true;
+    }
+
+    private NotificationCompat.Builder createExtractionNotificationBuilder(long downloadId, String displayFileName) {
+        Intent notificationIntent = new Intent(this, DownloadManagerActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            this,
+            (int) downloadId,
+            notificationIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        // Cancelar interrompe apenas a extração (ver handleCancelDownload)
+        Intent cancelIntent = new Intent(this, DownloadService.class);
+        cancelIntent.putExtra(EXTRA_ACTION, ACTION_CANCEL_DOWNLOAD);
+        cancelIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+        PendingIntent cancelPendingIntent = PendingIntent.getService(
+            this,
+            (int) (downloadId + 200),
+            cancelIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.drawable.ic_download)
+            .setContentTitle("Extraindo: " + displayFileName)
+            .setContentText("Preparando extração...")
+            .setProgress(100, 0, true)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setContentIntent(pendingIntent)
+            .addAction(R.drawable.ic_cancel, "Cancelar", cancelPendingIntent);
+    }
+
+    private void updateNotificationExtractionFinished(long downloadId, String fileName, File destination, Exception error) {
+        Intent managerIntent = new Intent(this, DownloadManagerActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            this,
+            (int) downloadId,
+            managerIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        String text;
+        if (error == null) {
+            text = "Extraído em " + destination.getName();
+        } else if (error instanceof InsufficientSpaceException) {
+            text = "Espaço insuficiente para extrair o arquivo";
+        } else {
+            text = "Não foi possível extrair o arquivo";
+        }
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(error == null ? R.drawable.ic_download : R.drawable.ic_cancel)
+            .setContentTitle(fileName + (error == null ? " - Extração Concluída" : " - Extração Falhou"))
+            .setContentText(text)
+            .setAutoCancel(true)
+            .setContentIntent(pendingIntent);
+        notificationManager.notify((int) (NOTIFICATION_ID_BASE + downloadId), builder.build());
+        stopForeground(false); // Mantém a notificação final se era a do serviço em primeiro plano
+    }
+
+    // Extração do arquivo de um download concluído, no extractionExecutor
+    private class ExtractionTask implements Runnable, ArchiveExtractor.Listener {
+        private final long downloadId;
+        private final String displayFileName;
+        private final File archive;
+        private final File destination;
+        private final ArchiveExtractor extractor;
+        private final ThroughputEstimator throughput = new ThroughputEstimator();
+        private volatile boolean isCancelled = false;
+        private long lastPublishTime = 0;
+
+        ExtractionTask(long downloadId, String displayFileName, File archive, File destination, ArchiveExtractor extractor) {
+            this.downloadId = downloadId;
+            this.displayFileName = displayFileName;
+            this.archive = archive;
+            this.destination = destination;
+            this.extractor = extractor;
+        }
+
+        void cancel() {
             isCancelled = true;
-            activeDownloads.remove(downloadId); // This should be before checkAndDequeue
-            Log.d(TAG, "Download cancelled: " + displayFileName); // Use displayFileName for logs
-            // A limpeza (DB, notificação, arquivo) é feita em handleCancelDownload
-            // Enviar broadcast para garantir que a UI atualize
-            Intent intent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
-            intent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
-            broadcastManager.sendBroadcast(intent);
-            // checkStopForeground(); // Moved to checkAndDequeue
-            checkAndDequeue(); // Call the new method
-        }
-    }
-
-    private void checkAndDequeue() {
-        synchronized (queueLock) {
-            Log.d(TAG, "checkAndDequeue: Active downloads: " + activeDownloads.size() + ", Queue size: " + pendingDownloadQueueTyped.size() + ", Max concurrent: " + maxConcurrentDownloads);
-            // Use the member variable maxConcurrentDownloads
-            if (activeDownloads.size() < maxConcurrentDownloads && !pendingDownloadQueueTyped.isEmpty()) {
-                QueuedDownloadRequest requestToProcess = pendingDownloadQueueTyped.poll();
-                if (requestToProcess != null) {
-                    Log.i(TAG, "Dequeuing download request for: " + requestToProcess.fileName);
-                    // The requestToProcess.process() method itself calls prepareAndStartDownload,
-                    // which runs on the executor.
-                    if (executor == null || executor.isShutdown()) {
-                        executor = Executors.newSingleThreadExecutor();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        @Override
+        public void onProgress(long bytesDone, long totalBytes) {
+            long now = System.currentTimeMillis();
+            throughput.addSample(bytesDone, now);
+            if (now - lastPublishTime < 100 && bytesDone != totalBytes) return;
+            lastPublishTime = now;
+            long remaining = totalBytes > 0 ? Math.max(0, totalBytes - bytesDone) : -1;
+            DownloadProgressBus.getInstance().publish(downloadId, bytesDone, totalBytes,
+                    throughput.getSmoothedSpeed(), throughput.getEtaSeconds(remaining));
+        }
+
+        @Override
+        public void run() {
+            Exception error = null;
+            // Uma pasta que já existia (vazia: o extrator recusa outras) não é apagada se a extração falhar
+            boolean destinationExisted = destination.exists();
+            String[] existing = destination.list();
+            boolean destinationWasEmpty = existing == null || existing.length == 0;
+            if (!isCancelled) {
+                try {
+                    throughput.reset(0, System.currentTimeMillis());
+                    extractor.extract(archive, destination, this);
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            final boolean extracted = error == null && !isCancelled;
+            if (extracted) {
+                Log.d(TAG, "Extraction completed: " + displayFileName);
+                if (AppSettings.getDeleteArchiveAfterExtract(DownloadService.this) && !archive.delete()) {
+                    Log.w(TAG, "Failed to delete archive after extraction: " + archive);
+                }
+            } else {
+                Log.w(TAG, "Extraction " + (isCancelled ? "cancelled" : "failed") + ": " + displayFileName, error);
+                if (!destinationExisted) {
+                    deleteRecursively(destination);
+                } else if (destinationWasEmpty) {
+                    // Só o que esta extração criou
+                    File[] created = destination.listFiles();
+                    if (created != null) {
+                        for (File file : created) {
+                            deleteRecursively(file);
+                        }
                     }
-                    executor.execute(() -> requestToProcess.process(this));
                 }
+            }
+            final Exception finalError = error;
+            mainThreadHandler.post(() -> onExtractionFinished(extracted, finalError));
+        }
+
+        // Main thread
+        private void onExtractionFinished(boolean extracted, Exception error) {
+            activeExtractions.remove(downloadId, this);
+            notificationScheduler.untrack(downloadId);
+            DownloadProgressBus.getInstance().clear(downloadId);
+            activeNotifications.remove(downloadId);
+            // O download continua concluído, com ou sem a extração
+            updateDownloadStatus(downloadId, Download.STATUS_COMPLETED);
+
+            if (extracted) {
+                updateNotificationExtractionFinished(downloadId, displayFileName, destination, null);
+            } else if (!isCancelled) {
+                updateNotificationExtractionFinished(downloadId, displayFileName, destination, error);
             } else {
-                // If nothing to dequeue and no active downloads, consider stopping foreground
-                checkStopForeground();
+                notificationManager.cancel((int) (NOTIFICATION_ID_BASE + downloadId));
             }
+
+            Intent intent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+            intent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+            broadcastManager.sendBroadcast(intent);
+            checkStopForeground();
         }
     }
-    
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file);
+        }
+    }
+
     private void checkStopForeground() {
-        synchronized (queueLock) { // Synchronize if accessing queue size
-            if (activeDownloads.isEmpty() && pendingDownloadQueueTyped.isEmpty()) {
-                Log.d(TAG, "No active or pending downloads. Stopping foreground service.");
-                stopForeground(true);
-                // Consider stopSelf() here if the service should fully stop when idle.
-                // stopSelf();
-            } else {
-                Log.d(TAG, "Service still has active ("+ activeDownloads.size() +") or pending ("+ pendingDownloadQueueTyped.size() +") downloads. Not stopping foreground.");
+        if (activeDownloads.isEmpty() && pendingRetries.isEmpty() && activeExtractions.isEmpty()) {
+            Log.d(TAG, "No scheduled downloads. Stopping foreground service.");
+            stopForeground(true);
+            // Consider stopSelf() here if the service should fully stop when idle.
+            // stopSelf();
+        } else {
+            Log.d(TAG, "Service still has " + activeDownloads.size() + " scheduled download(s) (" + scheduler.getMetrics() + "). Not stopping foreground.");
+        }
+    }
+
+    // Agenda (main thread) a próxima tentativa de um download que teve uma falha temporária
+    private void scheduleAutomaticRetry(final long downloadId, long delayMs) {
+        Runnable retry = new Runnable() {
+            @Override
+            public void run() {
+                if (!pendingRetries.remove(downloadId, this)) return;
+                Download download = getDownloadById(downloadId);
+                // Pausado, cancelado ou já reiniciado pelo usuário enquanto esperava
+                if (download == null || download.getStatus() != Download.STATUS_PENDING || activeDownloads.containsKey(downloadId)) {
+                    checkStopForeground();
+                    return;
+                }
+                String localPath = download.getLocalPath();
+                if (localPath == null || localPath.isEmpty()) {
+                    localPath = new File(new File(AppSettings.getDownloadPath(DownloadService.this)), download.getFileName()).getAbsolutePath();
+                }
+                Log.i(TAG, "Automatic retry of download ID " + downloadId);
+                scheduleDownload(downloadId, download.getUrl(), download.getFileName(), getQueuedAuthToken(downloadId), null, localPath, true);
             }
+        };
+        Runnable previous = pendingRetries.put(downloadId, retry);
+        if (previous != null) {
+            mainThreadHandler.removeCallbacks(previous);
+        }
+        mainThreadHandler.postDelayed(retry, delayMs);
+    }
+
+    // @return true se havia uma nova tentativa automática esperando
+    private boolean cancelAutomaticRetry(long downloadId) {
+        Runnable retry = pendingRetries.remove(downloadId);
+        if (retry != null) {
+            mainThreadHandler.removeCallbacks(retry);
         }
+        return retry != null;
+    }
+
+    /**
+     * Estado atual do agendador: threads, slots em uso, tamanho da fila.
+     */
+    public DownloadScheduler.Metrics getSchedulerMetrics() {
+        return scheduler.getMetrics();
     }
 
     // --- Database Operations ---
 
     // Modified insertDownload to include localPath
     private long insertDownload(String url, String displayFileName, String localPath) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_URL, url);
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME, displayFileName); // Store display name
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS, Download.STATUS_PENDING);
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES, 0);
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES, -1);
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH, localPath); // Store full local path
+        return insertDownload(url, displayFileName, localPath, null);
+    }
 
-        long id = db.insert(DownloadContract.DownloadEntry.TABLE_NAME, null, values);
-        if (id == -1) {
-            Log.e(TAG, "Error inserting download record for: " + url + " at path " + localPath);
-        }
-        return id;
+    private long insertDownload(String url, String displayFileName, String localPath, String expectedHash) {
+        return downloadRepository.insertDownload(url, displayFileName, localPath, expectedHash);
     }
 
     // Legacy insertDownload (calls the new one with null localPath, DownloadTask will update it)
@@ -1495,206 +2207,426 @@ public class DownloadService extends Service {
 
     // New method to get download ID by local path
     private long getDownloadIdByLocalPath(String localPath) {
-        if (localPath == null || localPath.isEmpty()) return -1;
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String[] projection = { DownloadContract.DownloadEntry._ID };
-        String selection = DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH + " = ?";
-        String[] selectionArgs = { localPath };
-        Cursor cursor = db.query(DownloadContract.DownloadEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, null);
-        long id = -1;
-        if (cursor != null && cursor.moveToFirst()) {
-            id = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry._ID));
-            cursor.close();
-        }
-        return id;
+        return downloadRepository.getDownloadIdByLocalPath(localPath);
     }
 
 
     private void updateDownloadProgress(long downloadId, long downloadedBytes, long totalBytes) {
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES, downloadedBytes);
-        if (totalBytes > 0) {
-            values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES, totalBytes);
-        }
+        downloadRepository.updateProgress(downloadId, downloadedBytes, totalBytes);
+    }
 
-        db.update(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            values,
-            DownloadContract.DownloadEntry._ID + " = ?",
-            new String[] { String.valueOf(downloadId) }
+    private List<DownloadSegment> loadDownloadSegments(long downloadId) {
+        List<DownloadSegment> segments = new ArrayList<>();
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String[] projection = {
+            DownloadContract.SegmentEntry.COLUMN_NAME_SEGMENT_INDEX,
+            DownloadContract.SegmentEntry.COLUMN_NAME_START_BYTE,
+            DownloadContract.SegmentEntry.COLUMN_NAME_END_BYTE,
+            DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOADED_BYTES
+        };
+        Cursor cursor = db.query(
+            DownloadContract.SegmentEntry.TABLE_NAME,
+            projection,
+            DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(downloadId) },
+            null,
+            null,
+            DownloadContract.SegmentEntry.COLUMN_NAME_START_BYTE + " ASC"
         );
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                segments.add(new DownloadSegment(
+                    cursor.getInt(cursor.getColumnIndexOrThrow(DownloadContract.SegmentEntry.COLUMN_NAME_SEGMENT_INDEX)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.SegmentEntry.COLUMN_NAME_START_BYTE)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.SegmentEntry.COLUMN_NAME_END_BYTE)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOADED_BYTES))
+                ));
+            }
+            cursor.close();
+        }
+        return segments;
     }
 
-    private void updateDownloadTotalBytes(long downloadId, long totalBytes) {
-        if (totalBytes <= 0) return;
-        
+    private void deleteDownloadSegments(long downloadId) {
+        progressStore.forget(downloadId); // Um mapa ainda não gravado não pode recriar as linhas
         SQLiteDatabase db = dbHelper.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES, totalBytes);
-
-        db.update(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            values,
-            DownloadContract.DownloadEntry._ID + " = ?",
+        db.delete(
+            DownloadContract.SegmentEntry.TABLE_NAME,
+            DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
             new String[] { String.valueOf(downloadId) }
         );
     }
-    
-    private void updateDownloadLocalPath(long downloadId, String localPath) {
+
+    // --- Fila persistida ---
+
+    /**
+     * Insere ou atualiza a entrada da fila; valores nulos mantêm os já guardados.
+     * @return A posição da entrada na fila.
+     */
+    private long saveQueueEntry(long downloadId, String authToken, String gofileContentId) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH, localPath);
+        db.beginTransaction();
+        try {
+            long position = 0;
+            Cursor cursor = db.query(
+                DownloadContract.QueueEntry.TABLE_NAME,
+                new String[] {
+                    DownloadContract.QueueEntry.COLUMN_NAME_AUTH_TOKEN,
+                    DownloadContract.QueueEntry.COLUMN_NAME_GOFILE_CONTENT_ID,
+                    DownloadContract.QueueEntry.COLUMN_NAME_POSITION
+                },
+                DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+                new String[] { String.valueOf(downloadId) },
+                null, null, null
+            );
+            boolean exists = false;
+            if (cursor != null) {
+                if (cursor.moveToFirst()) {
+                    exists = true;
+                    if (authToken == null) authToken = cursor.getString(0);
+                    if (gofileContentId == null) gofileContentId = cursor.getString(1);
+                    position = cursor.getLong(2);
+                }
+                cursor.close();
+            }
+            if (!exists) {
+                // Novo download entra no fim da fila
+                cursor = db.rawQuery("SELECT MAX(" + DownloadContract.QueueEntry.COLUMN_NAME_POSITION + ") FROM " + DownloadContract.QueueEntry.TABLE_NAME, null);
+                if (cursor != null) {
+                    if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                        position = cursor.getLong(0) + 1;
+                    }
+                    cursor.close();
+                }
+            }
 
-        db.update(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            values,
-            DownloadContract.DownloadEntry._ID + " = ?",
-            new String[] { String.valueOf(downloadId) }
-        );
+            ContentValues values = new ContentValues();
+            values.put(DownloadContract.QueueEntry.COLUMN_NAME_AUTH_TOKEN, authToken);
+            values.put(DownloadContract.QueueEntry.COLUMN_NAME_GOFILE_CONTENT_ID, gofileContentId);
+            values.put(DownloadContract.QueueEntry.COLUMN_NAME_ENQUEUED_AT, System.currentTimeMillis());
+            if (exists) {
+                // Posição, prioridade e fixação escolhidas antes continuam valendo
+                db.update(
+                    DownloadContract.QueueEntry.TABLE_NAME,
+                    values,
+                    DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+                    new String[] { String.valueOf(downloadId) }
+                );
+            } else {
+                values.put(DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID, downloadId);
+                values.put(DownloadContract.QueueEntry.COLUMN_NAME_POSITION, position);
+                values.put(DownloadContract.QueueEntry.COLUMN_NAME_PRIORITY, PRIORITY_NORMAL);
+                values.put(DownloadContract.QueueEntry.COLUMN_NAME_PINNED, 0);
+                db.insert(DownloadContract.QueueEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+            return position;
+        } finally {
+            db.endTransaction();
+        }
     }
 
-    private void updateDownloadStatus(long downloadId, int status) {
-        updateDownloadStatus(downloadId, status, null);
+    // Copia pin, prioridade e posição da fila persistida para a tarefa, que o agendador consulta
+    private void loadQueueOrder(DownloadTask task) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.query(
+            DownloadContract.QueueEntry.TABLE_NAME,
+            new String[] {
+                DownloadContract.QueueEntry.COLUMN_NAME_PINNED,
+                DownloadContract.QueueEntry.COLUMN_NAME_PRIORITY,
+                DownloadContract.QueueEntry.COLUMN_NAME_POSITION
+            },
+            DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(task.downloadId) },
+            null, null, null
+        );
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                task.pinned = cursor.getInt(0) != 0;
+                task.priority = cursor.getInt(1);
+                task.queuePosition = cursor.getLong(2);
+            } else {
+                task.queuePosition = Long.MAX_VALUE; // Entrada ainda não gravada: fim da fila até saber a posição
+            }
+            cursor.close();
+        }
+        Download download = getDownloadById(task.downloadId);
+        if (download != null && download.getTotalBytes() > 0) {
+            task.remainingBytes = Math.max(0, download.getTotalBytes() - download.getDownloadedBytes());
+            task.expectedTotalBytes = download.getTotalBytes();
+        }
     }
 
-    private void updateDownloadStatus(long downloadId, int status, String localPath) {
+    private boolean updateQueueOrder(long downloadId, boolean pinned, int priority, long position) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
         ContentValues values = new ContentValues();
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS, status);
-        if (localPath != null) {
-            values.put(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH, localPath);
-        }
-        // Atualizar o timestamp sempre que o status mudar
-        values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
-
-        int rowsAffected = db.update(
-            DownloadContract.DownloadEntry.TABLE_NAME,
+        values.put(DownloadContract.QueueEntry.COLUMN_NAME_PINNED, pinned ? 1 : 0);
+        values.put(DownloadContract.QueueEntry.COLUMN_NAME_PRIORITY, priority);
+        values.put(DownloadContract.QueueEntry.COLUMN_NAME_POSITION, position);
+        return db.update(
+            DownloadContract.QueueEntry.TABLE_NAME,
             values,
-            DownloadContract.DownloadEntry._ID + " = ?",
+            DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
             new String[] { String.valueOf(downloadId) }
-        );
-        Log.d(TAG, "Updated status for download " + downloadId + " to " + status + ". Rows affected: " + rowsAffected);
+        ) > 0;
     }
 
-    private long getDownloadIdByUrl(String url) {
+    private String getQueuedAuthToken(long downloadId) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String[] projection = { DownloadContract.DownloadEntry._ID };
-        String selection = DownloadContract.DownloadEntry.COLUMN_NAME_URL + " = ?";
-        String[] selectionArgs = { url };
-
         Cursor cursor = db.query(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            projection,
-            selection,
-            selectionArgs,
-            null,
-            null,
-            null
+            DownloadContract.QueueEntry.TABLE_NAME,
+            new String[] { DownloadContract.QueueEntry.COLUMN_NAME_AUTH_TOKEN },
+            DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(downloadId) },
+            null, null, null
         );
-
-        long id = -1;
-        if (cursor != null && cursor.moveToFirst()) {
-            id = cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry._ID));
+        String authToken = null;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                authToken = cursor.getString(0);
+            }
             cursor.close();
         }
-        return id;
+        return authToken;
     }
 
-    public Download getDownloadById(long id) {
+    // Long.MIN_VALUE se o download não está na fila persistida
+    private long getQueuePosition(long downloadId) {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String[] projection = {
-            DownloadContract.DownloadEntry._ID,
-            DownloadContract.DownloadEntry.COLUMN_NAME_URL,
-            DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME,
-            DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH,
-            DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES,
-            DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES,
-            DownloadContract.DownloadEntry.COLUMN_NAME_STATUS,
-            DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP
-        };
-        String selection = DownloadContract.DownloadEntry._ID + " = ?";
-        String[] selectionArgs = { String.valueOf(id) };
-
         Cursor cursor = db.query(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            projection,
-            selection,
-            selectionArgs,
-            null,
-            null,
-            null
+            DownloadContract.QueueEntry.TABLE_NAME,
+            new String[] { DownloadContract.QueueEntry.COLUMN_NAME_POSITION },
+            DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(downloadId) },
+            null, null, null
         );
+        long position = Long.MIN_VALUE;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                position = cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return position;
+    }
 
-        Download download = null;
-        if (cursor != null && cursor.moveToFirst()) {
-            download = cursorToDownload(cursor);
+    private int getQueuePriority(long downloadId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor cursor = db.query(
+            DownloadContract.QueueEntry.TABLE_NAME,
+            new String[] { DownloadContract.QueueEntry.COLUMN_NAME_PRIORITY },
+            DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(downloadId) },
+            null, null, null
+        );
+        int priority = PRIORITY_NORMAL;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                priority = cursor.getInt(0);
+            }
             cursor.close();
         }
-        return download;
+        return priority;
     }
 
-    public List<Download> getAllDownloads() {
+    private long getMinQueuePosition() {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String[] projection = {
-            DownloadContract.DownloadEntry._ID,
-            DownloadContract.DownloadEntry.COLUMN_NAME_URL,
-            DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME,
-            DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH,
-            DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES,
-            DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES,
-            DownloadContract.DownloadEntry.COLUMN_NAME_STATUS,
-            DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP
-        };
-        String sortOrder = DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP + " DESC";
+        Cursor cursor = db.rawQuery("SELECT MIN(" + DownloadContract.QueueEntry.COLUMN_NAME_POSITION + ") FROM " + DownloadContract.QueueEntry.TABLE_NAME, null);
+        long position = 0;
+        if (cursor != null) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                position = cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return position;
+    }
+
+    // --- Histórico de tentativas ---
+
+    private void insertDownloadAttempt(long downloadId, long startedAt, long startByte, long endByte,
+                                       String outcome, Exception failure, long retryDelayMs) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(DownloadContract.AttemptEntry.COLUMN_NAME_DOWNLOAD_ID, downloadId);
+        values.put(DownloadContract.AttemptEntry.COLUMN_NAME_STARTED_AT, startedAt);
+        values.put(DownloadContract.AttemptEntry.COLUMN_NAME_ENDED_AT, System.currentTimeMillis());
+        values.put(DownloadContract.AttemptEntry.COLUMN_NAME_START_BYTE, startByte);
+        values.put(DownloadContract.AttemptEntry.COLUMN_NAME_END_BYTE, endByte);
+        values.put(DownloadContract.AttemptEntry.COLUMN_NAME_OUTCOME, outcome);
+        if (failure != null) {
+            values.put(DownloadContract.AttemptEntry.COLUMN_NAME_FAILURE_KIND, RetryPolicy.classify(failure).name());
+            values.put(DownloadContract.AttemptEntry.COLUMN_NAME_ERROR_MESSAGE, failure.getMessage());
+            if (failure instanceof HttpStatusException) {
+                values.put(DownloadContract.AttemptEntry.COLUMN_NAME_HTTP_STATUS, ((HttpStatusException) failure).getStatusCode());
+            }
+        }
+        values.put(DownloadContract.AttemptEntry.COLUMN_NAME_RETRY_DELAY_MS, retryDelayMs);
+        // Na mesma transação que a verificação: uma remoção em lote não pode ficar no meio
+        db.beginTransaction();
+        try {
+            if (DatabaseUtils.queryNumEntries(db, DownloadContract.DownloadEntry.TABLE_NAME,
+                    DownloadContract.DownloadEntry._ID + " = ?", new String[] { String.valueOf(downloadId) }) > 0) {
+                db.insert(DownloadContract.AttemptEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
 
+    // Tentativas de um download, da mais antiga para a mais recente
+    public List<DownloadAttempt> getDownloadAttempts(long downloadId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
         Cursor cursor = db.query(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            projection,
+            DownloadContract.AttemptEntry.TABLE_NAME,
             null,
+            DownloadContract.AttemptEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(downloadId) },
             null,
             null,
-            null,
-            sortOrder
+            DownloadContract.AttemptEntry._ID + " ASC"
         );
-
-        List<Download> downloads = new ArrayList<>();
+        List<DownloadAttempt> attempts = new ArrayList<>();
         if (cursor != null) {
-             while (cursor.moveToNext()) {
-                 Download download = cursorToDownload(cursor);
-                 
-                 // Adicionar informações de velocidade para downloads ativos
-                 DownloadTask task = activeDownloads.get(download.getId());
-                 if (task != null && task.speed > 0 && download.getStatus() == Download.STATUS_DOWNLOADING) {
-                     download.setSpeed(task.speed);
-                 }
-                 
-                 downloads.add(download);
-             }
-             cursor.close();
+            while (cursor.moveToNext()) {
+                attempts.add(new DownloadAttempt(
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry._ID)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_DOWNLOAD_ID)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_STARTED_AT)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_ENDED_AT)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_START_BYTE)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_END_BYTE)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_OUTCOME)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_FAILURE_KIND)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_HTTP_STATUS)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_ERROR_MESSAGE)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.AttemptEntry.COLUMN_NAME_RETRY_DELAY_MS))
+                ));
+            }
+            cursor.close();
         }
-        
-        return downloads;
+        return attempts;
     }
 
-    public int clearCompletedDownloads() {
+    private void deleteDownloadAttempts(long downloadId) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
-        // Apenas remover do DB, não deletar arquivos
-        int deletedRows = db.delete(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            DownloadContract.DownloadEntry.COLUMN_NAME_STATUS + " = ?",
-            new String[] { String.valueOf(Download.STATUS_COMPLETED) }
+        db.delete(
+            DownloadContract.AttemptEntry.TABLE_NAME,
+            DownloadContract.AttemptEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(downloadId) }
         );
-        if (deletedRows > 0) {
-            // Notificar UI
-            Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
-            broadcastManager.sendBroadcast(broadcastIntent);
+    }
+
+    private void deleteQueueEntry(long downloadId) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(
+            DownloadContract.QueueEntry.TABLE_NAME,
+            DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?",
+            new String[] { String.valueOf(downloadId) }
+        );
+    }
+
+    /**
+     * Reagenda, na ordem original, os downloads da fila persistida que estavam esperando ou
+     * baixando quando o processo morreu. Pausados e com falha ficam na fila (para manter o token)
+     * mas só voltam quando o usuário pedir; entradas de downloads concluídos ou removidos são apagadas.
+     */
+    private void restoreQueuedDownloads() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        List<Long> stale = new ArrayList<>();
+        List<Download> toRestore = new ArrayList<>();
+        Cursor cursor = db.query(
+            DownloadContract.QueueEntry.TABLE_NAME,
+            new String[] { DownloadContract.QueueEntry.COLUMN_NAME_DOWNLOAD_ID },
+            null, null, null, null,
+            DownloadContract.QueueEntry.COLUMN_NAME_POSITION + " ASC"
+        );
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                long downloadId = cursor.getLong(0);
+                Download download = getDownloadById(downloadId);
+                if (download == null || download.getStatus() == Download.STATUS_COMPLETED) {
+                    stale.add(downloadId);
+                } else if ((download.getStatus() == Download.STATUS_PENDING || download.getStatus() == Download.STATUS_DOWNLOADING
+                        || download.getStatus() == Download.STATUS_WAITING_FOR_SPACE)
+                        && !activeDownloads.containsKey(downloadId)) {
+                    toRestore.add(download);
+                }
+            }
+            cursor.close();
+        }
+        for (long downloadId : stale) {
+            deleteQueueEntry(downloadId);
         }
-        return deletedRows;
+        if (toRestore.isEmpty()) return;
+
+        Log.i(TAG, "restoreQueuedDownloads: Restoring " + toRestore.size() + " queued download(s)");
+        for (Download download : toRestore) {
+            String localPath = download.getLocalPath();
+            if (localPath == null || localPath.isEmpty()) {
+                localPath = new File(new File(AppSettings.getDownloadPath(this)), download.getFileName()).getAbsolutePath();
+            }
+            scheduleDownload(download.getId(), download.getUrl(), download.getFileName(), getQueuedAuthToken(download.getId()), null, localPath, true);
+        }
+    }
+
+    private void updateDownloadExpectedHash(long downloadId, String expectedHash) {
+        downloadRepository.updateExpectedHash(downloadId, expectedHash);
+    }
+
+    private void updateDownloadIntegrity(long downloadId, int integrity) {
+        downloadRepository.updateIntegrity(downloadId, integrity);
+    }
+
+    private void updateDownloadTotalBytes(long downloadId, long totalBytes) {
+        downloadRepository.updateTotalBytes(downloadId, totalBytes);
+    }
+    
+    private void updateDownloadLocalPath(long downloadId, String localPath) {
+        downloadRepository.updateLocalPath(downloadId, localPath);
+    }
+
+    private void updateDownloadStatus(long downloadId, int status) {
+        updateDownloadStatus(downloadId, status, null);
+    }
+
+    private void updateDownloadStatus(long downloadId, int status, String localPath) {
+        downloadRepository.updateStatus(downloadId, status, localPath);
+    }
+
+    // Main thread: grava o status na thread de escrita do banco e só então avisa a UI
+    private void writeStatusAndNotify(long downloadId, int status, String localPath) {
+        dbHelper.executeWrite(() -> {
+            updateDownloadStatus(downloadId, status, localPath);
+            mainThreadHandler.post(() -> {
+                Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
+                broadcastIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId);
+                broadcastManager.sendBroadcast(broadcastIntent);
+            });
+        });
+    }
+
+    private long getDownloadIdByUrl(String url) {
+        return downloadRepository.getDownloadIdByUrl(url);
+    }
+
+    public Download getDownloadById(long id) {
+        return downloadRepository.getDownloadById(id);
+    }
+
+    /**
+     * Remove da lista todos os downloads concluídos, numa única transação na thread de escrita
+     * do banco. Com deleteFiles, os arquivos também são apagados, em paralelo. Retorna sem esperar.
+     */
+    public void clearCompletedDownloads(boolean deleteFiles) {
+        dbHelper.executeWrite(() -> onDownloadsRemoved(
+                downloadRepository.deleteDownloadsWithStatus(Download.STATUS_COMPLETED), deleteFiles));
     }
     
     // Método para deletar um download específico (e seu arquivo)
     public boolean deleteDownload(long downloadId) {
+        forgetDownload(downloadId);
         Download download = getDownloadById(downloadId);
         boolean fileDeleted = false;
         if (download != null && download.getLocalPath() != null && !download.getLocalPath().isEmpty()) {
@@ -1712,50 +2644,113 @@ public class DownloadService extends Service {
         }
         
         // Deletar do banco de dados
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        int deletedRows = db.delete(
-            DownloadContract.DownloadEntry.TABLE_NAME,
-            DownloadContract.DownloadEntry._ID + " = ?",
-            new String[] { String.valueOf(downloadId) }
-        );
+        deleteDownloadSegments(downloadId);
+        deleteQueueEntry(downloadId);
+        deleteDownloadAttempts(downloadId);
+        boolean deleted = downloadRepository.deleteDownload(downloadId);
         
-        if (deletedRows > 0) {
+        if (fileDeleted && scheduler != null) {
+            scheduler.recheckSpace(); // O espaço liberado pode bastar para um download esperando
+        }
+        if (deleted) {
             // Notificar UI
             Intent broadcastIntent = new Intent(ACTION_DOWNLOAD_STATUS_CHANGED);
             broadcastIntent.putExtra(EXTRA_DOWNLOAD_ID, downloadId); // Informar qual foi removido
             broadcastManager.sendBroadcast(broadcastIntent);
         }
         
-        return deletedRows > 0;
+        return deleted;
     }
     
-    // Método para deletar múltiplos downloads
-    public int deleteDownloads(List<Long> downloadIds) {
-        int deletedCount = 0;
-        for (long id : downloadIds) {
-            if (deleteDownload(id)) {
-                deletedCount++;
+    /**
+     * Remove vários downloads e seus arquivos de uma vez: as linhas (com segmentos, fila e
+     * tentativas) numa única transação na thread de escrita do banco, os arquivos em paralelo no
+     * fileIoExecutor e uma única notificação para a UI. Retorna sem esperar.
+     */
+    public void deleteDownloads(List<Long> downloadIds) {
+        if (downloadIds.isEmpty()) return;
+        final List<Long> ids = new ArrayList<>(downloadIds);
+        for (long id : ids) {
+            stopForRemoval(id);
+            forgetDownload(id);
+        }
+        dbHelper.executeWrite(() -> onDownloadsRemoved(downloadRepository.deleteDownloads(ids), true));
+    }
+
+    /**
+     * Mesma parada de handleCancelDownload para um download que vai ser apagado: sai da fila ou
+     * é interrompido (liberando a vaga e a reserva de espaço) e perde a notificação. A tarefa não
+     * apaga linha nem arquivo ao terminar; isso fica com quem a removeu.
+     */
+    private void stopForRemoval(long downloadId) {
+        DownloadTask task = activeDownloads.get(downloadId);
+        if (task != null) {
+            task.remove();
+        }
+        notificationScheduler.untrack(downloadId);
+        notificationManager.cancel((int) (NOTIFICATION_ID_BASE + downloadId));
+        activeNotifications.remove(downloadId);
+        DownloadProgressBus.getInstance().clear(downloadId);
+    }
+
+    // Main thread: arquivo de uma tarefa removida que pode ter sido recriado depois da remoção em lote
+    private void deleteOrphanedFile(String localPath) {
+        if (localPath == null || localPath.isEmpty()) return;
+        if (getDownloadIdByLocalPath(localPath) != -1) return; // Ainda (ou de novo) de algum download
+        File file = new File(localPath);
+        if (file.exists() && file.delete() && scheduler != null) {
+            scheduler.recheckSpace();
+        }
+    }
+
+    // Estado em memória de um download que vai ser removido
+    private void forgetDownload(long downloadId) {
+        ExtractionTask extraction = activeExtractions.get(downloadId);
+        if (extraction != null) {
+            extraction.cancel(); // Para antes de apagar o arquivo que está sendo lido
+        }
+        cancelAutomaticRetry(downloadId);
+        consecutiveFailures.remove(downloadId);
+        if (progressStore != null) {
+            progressStore.forget(downloadId); // Um mapa ainda não gravado não pode recriar as linhas
+        }
+    }
+
+    // Na thread de escrita do banco, depois da transação que removeu as linhas
+    private void onDownloadsRemoved(List<Download> removed, boolean deleteFiles) {
+        if (removed.isEmpty()) return;
+        Log.i(TAG, "Removed " + removed.size() + " download(s) from the database");
+        broadcastManager.sendBroadcast(new Intent(ACTION_DOWNLOAD_STATUS_CHANGED));
+        if (!deleteFiles) return;
+
+        List<File> files = new ArrayList<>();
+        for (Download download : removed) {
+            if (download.getLocalPath() != null && !download.getLocalPath().isEmpty()) {
+                files.add(new File(download.getLocalPath()));
+            }
+        }
+        if (files.isEmpty()) return;
+        // O último arquivo apagado reavalia a fila: o espaço liberado pode bastar para um download esperando
+        final AtomicInteger remaining = new AtomicInteger(files.size());
+        for (File file : files) {
+            Runnable deleteFile = () -> {
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Failed to delete file: " + file.getAbsolutePath());
+                }
+                if (remaining.decrementAndGet() == 0 && scheduler != null) {
+                    scheduler.recheckSpace();
+                }
+            };
+            try {
+                fileIoExecutor.execute(deleteFile);
+            } catch (RejectedExecutionException e) {
+                deleteFile.run(); // Serviço encerrando: apaga aqui mesmo
             }
         }
-        // A notificação da UI já é feita dentro de deleteDownload
-        return deletedCount;
     }
 
     // --- End Database Operations ---
     
-    private Download cursorToDownload(Cursor cursor) {
-         return new Download(
-             cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry._ID)),
-             cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_URL)),
-             cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_FILE_NAME)),
-             cursor.getString(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_LOCAL_PATH)),
-             cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES)),
-             cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES)),
-             cursor.getInt(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_STATUS)),
-             cursor.getLong(cursor.getColumnIndexOrThrow(DownloadContract.DownloadEntry.COLUMN_NAME_TIMESTAMP))
-         );
-    }
-
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             CharSequence name = "Download Channel";
@@ -1784,6 +2779,17 @@ public class DownloadService extends Service {
         return binder;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Liberar os buffers em cache e limitar o tamanho dos novos enquanto houver pressão de memória
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            bufferPool.trim(BufferPool.MIN_BUFFER_BYTES);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            bufferPool.trim(BufferPool.MAX_BUFFER_BYTES / 4);
+        }
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         return super.onUnbind(intent);
@@ -1792,23 +2798,58 @@ public class DownloadService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        // Tentar pausar downloads ativos ao destruir o serviço (melhor esforço)
+        // Tentar interromper downloads em execução ao destruir o serviço (melhor esforço).
+        // Eles voltam para PENDING junto com os que ainda estão na fila, para que
+        // restoreQueuedDownloads os retome quando o serviço for recriado.
         for (DownloadTask task : activeDownloads.values()) {
-             if (task != null && !task.isCancelled() && !task.isPaused) {
+             if (task != null && !task.isCancelled && !task.isPaused && !scheduler.isQueued(task.downloadId)) {
                  task.pause();
-                 updateDownloadStatus(task.downloadId, Download.STATUS_PAUSED);
+                 updateDownloadStatus(task.downloadId, Download.STATUS_PENDING);
              }
         }
+        // Downloads esperando nova tentativa continuam PENDING e são retomados por restoreQueuedDownloads
+        for (Runnable retry : pendingRetries.values()) {
+            mainThreadHandler.removeCallbacks(retry);
+        }
+        pendingRetries.clear();
+        mainThreadHandler.removeCallbacks(spaceRecheck);
+        // Extrações interrompidas voltam para COMPLETED; podem ser refeitas pelo gerenciador
+        for (ExtractionTask extraction : activeExtractions.values()) {
+            extraction.cancel();
+            updateDownloadStatus(extraction.downloadId, Download.STATUS_COMPLETED);
+        }
+        activeExtractions.clear();
+        if (extractionExecutor != null && !extractionExecutor.isShutdown()) {
+            extractionExecutor.shutdownNow();
+        }
+        if (fileIoExecutor != null && !fileIoExecutor.isShutdown()) {
+            fileIoExecutor.shutdown(); // Remoções em andamento terminam
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
         activeDownloads.clear();
+        if (notificationScheduler != null) {
+            notificationScheduler.shutdown();
+        }
         activeNotifications.clear();
+        getSharedPreferences(AppSettings.PREFS_NAME, Context.MODE_PRIVATE)
+                .unregisterOnSharedPreferenceChangeListener(settingsListener);
 
         if (executor != null && !executor.isShutdown()) {
             executor.shutdown(); // Properly shutdown the executor
         }
+        if (segmentExecutor != null && !segmentExecutor.isShutdown()) {
+            segmentExecutor.shutdownNow(); // Interrompe as conexões dos segmentos
+        }
+        if (resolveExecutor != null && !resolveExecutor.isShutdown()) {
+            resolveExecutor.shutdownNow();
+        }
 
-        if (dbHelper != null) {
-            dbHelper.close();
+        if (progressStore != null) {
+            progressStore.close();
         }
+        // O banco é compartilhado com o resto do app e fica aberto enquanto o processo viver
         Log.d(TAG, "DownloadService destroyed.");
     }
 }
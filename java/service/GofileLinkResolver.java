@@ -28,13 +28,30 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class GofileLinkResolver {
+public class GofileLinkResolver implements LinkResolver {
 
     private static final String TAG = "GofileLinkResolver";
-    private final Context context;
+    // e.g., gofile.io/d/contentId, gofile.io/download/contentId, gofile.io/w/contentId, gofile.io/edit/contentId
+    private static final Pattern CONTENT_ID_PATTERN = Pattern.compile("gofile\\.io/(?:d|download|w|edit)/([a-zA-Z0-9]+(?:-[a-zA-Z0-9]+)*)");
 
-    public GofileLinkResolver(Context context) {
-        this.context = context.getApplicationContext();
+    @Override
+    public String getName() {
+        return "Gofile";
+    }
+
+    @Override
+    public String[] getHosts() {
+        return new String[] {"gofile.io"};
+    }
+
+    @Override
+    public boolean canResolve(String url) {
+        return CONTENT_ID_PATTERN.matcher(url).find();
+    }
+
+    @Override
+    public ResolvedLink resolve(Context context, String url, String password) {
+        return resolveGofileUrl(context.getApplicationContext(), url, password);
     }
 
     private static String sha256(final String text) {
@@ -57,9 +74,7 @@ public class GofileLinkResolver {
     private String extractContentId(String gofilePageUrl) {
         if (gofilePageUrl == null) return null;
         // Updated pattern to be more inclusive of potential Gofile URL variations
-        // e.g., gofile.io/d/contentId, gofile.io/download/contentId, gofile.io/w/contentId, gofile.io/edit/contentId
-        Pattern pattern = Pattern.compile("gofile\\.io/(?:d|download|w|edit)/([a-zA-Z0-9]+(?:-[a-zA-Z0-9]+)*)");
-        Matcher matcher = pattern.matcher(gofilePageUrl);
+        Matcher matcher = CONTENT_ID_PATTERN.matcher(gofilePageUrl);
         if (matcher.find()) {
             return matcher.group(1);
         }
@@ -67,27 +82,27 @@ public class GofileLinkResolver {
         return null;
     }
 
-    public GofileResolvedResult resolveGofileUrl(String gofilePageUrl, String password) {
+    public ResolvedLink resolveGofileUrl(Context context, String gofilePageUrl, String password) {
         Log.i(TAG, "Attempting to resolve Gofile URL: " + gofilePageUrl + (password != null ? " with password" : ""));
         List<DownloadItem> downloadItems = new ArrayList<>();
 
         String contentId = extractContentId(gofilePageUrl);
         if (contentId == null) {
             Log.e(TAG, "Failed to extract content ID from URL: " + gofilePageUrl);
-            return new GofileResolvedResult(downloadItems, null); // Return empty result, no token to return yet
+            return new ResolvedLink(downloadItems, null); // Return empty result, no token to return yet
         }
 
         String accountToken = AppSettings.getGofileAccountToken(context);
         if (accountToken == null || accountToken.isEmpty()) {
             Log.e(TAG, "Failed to obtain Gofile account token. Cannot proceed with API call.");
-            return new GofileResolvedResult(downloadItems, null); // No token, can't make authenticated call
+            return new ResolvedLink(downloadItems, null); // No token, can't make authenticated call
         }
         Log.d(TAG, "Using Gofile account token for API call.");
 
         String dynamicWt = AppSettings.getDynamicGofileWt(context);
         if (dynamicWt == null || dynamicWt.isEmpty()) {
             Log.e(TAG, "Failed to obtain dynamic Gofile WT. Cannot proceed.");
-            return new GofileResolvedResult(new ArrayList<>(), accountToken); // Return empty result, but with accountToken
+            return new ResolvedLink(new ArrayList<>(), accountToken); // Return empty result, but with accountToken
         }
         Log.d(TAG, "Using dynamic Gofile WT: " + dynamicWt);
 
@@ -209,7 +224,7 @@ public class GofileLinkResolver {
             }
         }
         Log.i(TAG, "Resolved " + downloadItems.size() + " items from Gofile URL " + gofilePageUrl);
-        return new GofileResolvedResult(downloadItems, accountToken); // Return items and the token used
+        return new ResolvedLink(downloadItems, accountToken); // Return items and the token used
     }
 
     private void parseGofileEntry(JSONObject entryJson, List<DownloadItem> downloadItems, String rootFolderName, String currentRelativePath, String accountToken) throws JSONException {
@@ -234,11 +249,13 @@ public class GofileLinkResolver {
         if ("file".equals(type)) {
             String directLink = entryJson.optString("link");
             long size = entryJson.optLong("size", -1);
-            // String md5 = entryJson.optString("md5"); // Available if needed
+            // Verified while downloading (DownloadService marks the download verified or corrupt)
+            String md5 = entryJson.optString("md5", "");
+            String expectedHash = md5.isEmpty() ? null : "md5:" + md5;
 
             if (directLink != null && !directLink.isEmpty()) {
                 Log.d(TAG, "Found file: '" + itemPathForDownloadItem + "' (size: " + size + ") link: " + directLink);
-                downloadItems.add(new DownloadItem(itemPathForDownloadItem, directLink, size, rootFolderName));
+                downloadItems.add(new DownloadItem(itemPathForDownloadItem, directLink, size, rootFolderName, expectedHash));
             } else {
                 Log.w(TAG, "File entry '" + name + "' is missing a direct download link. Skipping.");
             }
@@ -1,5 +1,6 @@
 package com.winlator.Download.service;
 
+import android.content.Context;
 import android.util.Log;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -13,7 +14,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.net.URLDecoder;
 
-public class GoogleDriveLinkResolver {
+public class GoogleDriveLinkResolver implements LinkResolver {
 
     private static final String TAG = "GoogleDriveResolver";
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/125.0.0.0 Safari/537.36";
@@ -23,15 +24,43 @@ public class GoogleDriveLinkResolver {
     private static final Pattern CONFIRM_TOKEN_PATTERN_2 = Pattern.compile("name=\"confirm\"\\s+value=\"([0-9A-Za-z_-]+)\"", Pattern.CASE_INSENSITIVE);
     private static final Pattern UUID_TOKEN_PATTERN = Pattern.compile("name=\"uuid\"\\s+value=\"([0-9A-Za-z_-]+)\"", Pattern.CASE_INSENSITIVE);
 
-    static {
-        CookieManager cookieManager = new CookieManager();
-        cookieManager.setCookiePolicy(CookiePolicy.ACCEPT_ALL);
-        CookieHandler.setDefault(cookieManager);
-        Log.d(TAG, "Default CookieManager initialized.");
+    // The confirmation pages set cookies the download needs. Installed on the first resolution,
+    // not when the resolver is registered, since it replaces the cookie handler of the process
+    private static final class Cookies {
+        static {
+            CookieManager cookieManager = new CookieManager();
+            cookieManager.setCookiePolicy(CookiePolicy.ACCEPT_ALL);
+            CookieHandler.setDefault(cookieManager);
+            Log.d(TAG, "Default CookieManager initialized.");
+        }
+
+        static void install() {
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Google Drive";
+    }
+
+    @Override
+    public String[] getHosts() {
+        return new String[] {"drive.google.com"};
+    }
+
+    @Override
+    public boolean canResolve(String url) {
+        return GoogleDriveUtils.extractDriveId(url) != null;
+    }
+
+    @Override
+    public ResolvedLink resolve(Context context, String url, String password) {
+        return ResolvedLink.of(resolveDriveUrl(url));
     }
 
     public DownloadItem resolveDriveUrl(String pageUrl) {
         Log.d(TAG, "Attempting to resolve Google Drive URL: " + pageUrl);
+        Cookies.install();
         String fileId = GoogleDriveUtils.extractDriveId(pageUrl);
         if (fileId == null) {
             Log.e(TAG, "Could not extract File ID from URL: " + pageUrl);
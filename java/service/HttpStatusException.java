@@ -0,0 +1,55 @@
+package com.winlator.Download.service;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Thrown when the server answers a download request with an unexpected HTTP status.
+ * Keeps the status and the server's Retry-After hint so the failure can be classified.
+ */
+public class HttpStatusException extends IOException {
+    private final int statusCode;
+    private final long retryAfterMs; // -1 when the server did not send Retry-After
+
+    public HttpStatusException(String message, int statusCode, long retryAfterMs) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Builds the exception from a connection whose response code has already been read.
+     */
+    static HttpStatusException from(HttpURLConnection connection, String message) throws IOException {
+        int statusCode = connection.getResponseCode();
+        return new HttpStatusException(message + ": HTTP " + statusCode + " " + connection.getResponseMessage(),
+                statusCode, parseRetryAfter(connection.getHeaderField("Retry-After")));
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date
+    static long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value)) * 1000;
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            Date date = format.parse(value, new ParsePosition(0));
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.winlator.Download.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the target volume cannot hold the file being downloaded.
+ */
+public class InsufficientSpaceException extends IOException {
+    private final long requiredBytes;
+    private final long availableBytes;
+
+    public InsufficientSpaceException(String path, long requiredBytes, long availableBytes) {
+        super("Not enough space for " + path + ": need " + requiredBytes + " bytes, " + availableBytes + " available");
+        this.requiredBytes = requiredBytes;
+        this.availableBytes = availableBytes;
+    }
+
+    public long getRequiredBytes() {
+        return requiredBytes;
+    }
+
+    public long getAvailableBytes() {
+        return availableBytes;
+    }
+}
@@ -0,0 +1,35 @@
+package com.winlator.Download.service;
+
+import android.content.Context;
+
+/**
+ * Turns the page link of a file host (Gofile, MediaFire...) into the direct links of its
+ * files. Implementations are registered with {@link LinkResolvers}, which picks one by the host
+ * of the link; adding a host is a matter of registering another implementation.
+ */
+public interface LinkResolver {
+
+    // Host name used in logs and messages ("Gofile")
+    String getName();
+
+    /**
+     * @return The domains this resolver handles ("gofile.io"). A link matches a domain when its
+     *         host is the domain or one of its subdomains, so "www.mediafire.com" is covered by
+     *         "mediafire.com".
+     */
+    String[] getHosts();
+
+    /**
+     * @return true if the link, whose host is one of {@link #getHosts()}, points to something
+     *         this resolver can resolve. Should be cheap: no network.
+     */
+    boolean canResolve(String url);
+
+    /**
+     * Resolves the link. Blocks on the network, so never call it on the main thread.
+     *
+     * @param password Password of a protected share, null if none.
+     * @return The files found; null or an empty result when the link could not be resolved.
+     */
+    ResolvedLink resolve(Context context, String url, String password);
+}
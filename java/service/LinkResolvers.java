@@ -0,0 +1,97 @@
+package com.winlator.Download.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The file hosts whose page links the app can resolve. Resolvers are indexed by the domains
+ * they declare, so finding the one for a link is a few map lookups on its host rather than a
+ * test of every known host. Resolvers registered later are asked first, so an app-provided
+ * resolver can take over a host that is also built in.
+ */
+public final class LinkResolvers {
+
+    // Domain -> resolvers for it, newest first. Replaced as a whole on register, never modified
+    private static volatile Map<String, List<LinkResolver>> byHost = Collections.emptyMap();
+
+    static {
+        register(new GoogleDriveLinkResolver());
+        register(new MediafireLinkResolver());
+        register(new PixeldrainLinkResolver());
+        register(new GofileLinkResolver());
+    }
+
+    private LinkResolvers() {
+    }
+
+    public static synchronized void register(LinkResolver resolver) {
+        if (resolver == null) return;
+        Map<String, List<LinkResolver>> index = new HashMap<>(byHost);
+        for (String host : resolver.getHosts()) {
+            String key = host.toLowerCase(Locale.ROOT);
+            List<LinkResolver> resolvers = new ArrayList<>();
+            resolvers.add(resolver);
+            List<LinkResolver> existing = index.get(key);
+            if (existing != null) {
+                for (LinkResolver other : existing) {
+                    if (other != resolver) resolvers.add(other);
+                }
+            }
+            index.put(key, Collections.unmodifiableList(resolvers));
+        }
+        byHost = index;
+    }
+
+    /**
+     * @return The resolver for the link, or null if it is not a page of a known host (it is
+     *         then downloaded as it is).
+     */
+    public static LinkResolver find(String url) {
+        String host = hostOf(url);
+        if (host == null) return null;
+        Map<String, List<LinkResolver>> index = byHost;
+        // "a.b.example.com", then "b.example.com", then "example.com"
+        for (String domain = host; domain != null; domain = parentDomain(domain)) {
+            List<LinkResolver> resolvers = index.get(domain);
+            if (resolvers == null) continue;
+            for (LinkResolver resolver : resolvers) {
+                if (resolver.canResolve(url)) {
+                    return resolver;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Host of the link in lower case, without user info or port. Links without a scheme are accepted
+    static String hostOf(String url) {
+        if (url == null) return null;
+        String link = url.trim();
+        int start = link.indexOf("://");
+        start = start >= 0 ? start + 3 : 0;
+        int end = link.length();
+        for (int i = start; i < link.length(); i++) {
+            char c = link.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        String authority = link.substring(start, end);
+        int at = authority.lastIndexOf('@');
+        if (at >= 0) authority = authority.substring(at + 1);
+        int colon = authority.indexOf(':');
+        if (colon >= 0) authority = authority.substring(0, colon);
+        return authority.isEmpty() ? null : authority.toLowerCase(Locale.ROOT);
+    }
+
+    private static String parentDomain(String domain) {
+        int dot = domain.indexOf('.');
+        // Stop before the bare top-level domain
+        return dot >= 0 && domain.indexOf('.', dot + 1) >= 0 ? domain.substring(dot + 1) : null;
+    }
+}
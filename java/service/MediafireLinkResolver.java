@@ -1,5 +1,6 @@
 package com.winlator.Download.service;
 
+import android.content.Context;
 import android.util.Log;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -10,7 +11,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.net.URLDecoder; // For decoding filename
 
-public class MediafireLinkResolver {
+public class MediafireLinkResolver implements LinkResolver {
 
     private static final String TAG = "MediafireLinkResolver";
     // User-Agent from the Python script
@@ -20,8 +21,30 @@ public class MediafireLinkResolver {
     // Regex to extract filename from Content-Disposition header
     // Handles filename="filename.ext" and filename*=UTF-8''filename.ext
     private static final Pattern FILENAME_PATTERN = Pattern.compile("filename\\*?=['\"]?(?:UTF-8''|MarkDialogue)?([^'\"]+)['\"]?", Pattern.CASE_INSENSITIVE);
+    // File pages: www.mediafire.com/file/<key>/<name>/file
+    private static final Pattern PAGE_URL_PATTERN = Pattern.compile("mediafire\\.com/file/", Pattern.CASE_INSENSITIVE);
 
 
+    @Override
+    public String getName() {
+        return "MediaFire";
+    }
+
+    @Override
+    public String[] getHosts() {
+        return new String[] {"mediafire.com"};
+    }
+
+    @Override
+    public boolean canResolve(String url) {
+        return PAGE_URL_PATTERN.matcher(url).find();
+    }
+
+    @Override
+    public ResolvedLink resolve(Context context, String url, String password) {
+        return ResolvedLink.of(resolveMediafireUrl(url));
+    }
+
     public DownloadItem resolveMediafireUrl(String pageUrl) {
         Log.d(TAG, "Attempting to resolve MediaFire URL: " + pageUrl);
         HttpURLConnection connection = null;
@@ -0,0 +1,249 @@
+package com.winlator.Download.service;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LongSparseArray;
+
+import androidx.core.app.NotificationCompat;
+
+import com.winlator.Download.R;
+import com.winlator.Download.model.Download;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Publishes the progress notifications of all running downloads from one timer on the main
+ * thread, at most once every {@link #UPDATE_INTERVAL_MS}, instead of one notify() per progress
+ * tick per download. Progress is read from {@link DownloadProgressBus}; a notification is only
+ * posted again when its visible text or bar changed. With two or more downloads running (and
+ * grouping enabled) they are bundled under a summary notification showing the total speed and
+ * the time left for all of them.
+ *
+ * Main thread only. Pause, completion, failure and cancellation notifications are still posted
+ * by the service directly, right after {@link #untrack(long)}, so a late progress update can
+ * never overwrite them.
+ */
+final class NotificationScheduler {
+
+    static final long UPDATE_INTERVAL_MS = 1000;
+    static final String GROUP_KEY = "com.winlator.Download.DOWNLOADS";
+
+    // What is currently shown for one download
+    private static final class Shown {
+        boolean hasProgress;
+        long downloadedBytes;
+        long totalBytes;
+        double speed;
+        long etaSeconds;
+        String text;
+        int percent = Integer.MIN_VALUE; // -1 = indeterminate
+    }
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+    private final Map<Long, NotificationCompat.Builder> builders;
+    private final String channelId;
+    private final int notificationIdBase;
+    private final int summaryNotificationId;
+    private final PendingIntent summaryIntent;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final LongSparseArray<Shown> tracked = new LongSparseArray<>();
+    private final DownloadProgressBus.Progress snapshot = new DownloadProgressBus.Progress();
+
+    private boolean grouped = true;
+    private boolean running = false;
+    private boolean summaryShown = false;
+    private NotificationCompat.Builder summaryBuilder;
+    private String summaryText;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            publish();
+            if (tracked.size() > 0) {
+                handler.postDelayed(this, UPDATE_INTERVAL_MS);
+            } else {
+                running = false;
+            }
+        }
+    };
+
+    /**
+     * @param builders The service's notification builders, by download id; a download's
+     *                 notification id is notificationIdBase + its id.
+     */
+    NotificationScheduler(Context context, NotificationManager notificationManager,
+                          Map<Long, NotificationCompat.Builder> builders, String channelId,
+                          int notificationIdBase, int summaryNotificationId, PendingIntent summaryIntent) {
+        this.context = context;
+        this.notificationManager = notificationManager;
+        this.builders = builders;
+        this.channelId = channelId;
+        this.notificationIdBase = notificationIdBase;
+        this.summaryNotificationId = summaryNotificationId;
+        this.summaryIntent = summaryIntent;
+    }
+
+    void setGrouped(boolean grouped) {
+        this.grouped = grouped; // Applied on the next update
+    }
+
+    // Starts publishing the progress of a download (from its first progress report on)
+    void track(long downloadId) {
+        if (tracked.get(downloadId) == null) {
+            tracked.put(downloadId, new Shown());
+        }
+        if (!running) {
+            running = true;
+            handler.postDelayed(tick, UPDATE_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Stops publishing the progress of a download. Call before posting its final notification,
+     * which then leaves the summary group.
+     */
+    void untrack(long downloadId) {
+        if (tracked.get(downloadId) == null) return;
+        tracked.remove(downloadId);
+        NotificationCompat.Builder builder = builders.get(downloadId);
+        if (builder != null) {
+            builder.setGroup(null);
+        }
+    }
+
+    void shutdown() {
+        handler.removeCallbacks(tick);
+        running = false;
+        tracked.clear();
+        cancelSummary();
+    }
+
+    private void publish() {
+        int reporting = 0;
+        double totalSpeed = 0;
+        long remainingBytes = 0;
+        boolean remainingKnown = true;
+        DownloadProgressBus bus = DownloadProgressBus.getInstance();
+        for (int i = 0; i < tracked.size(); i++) {
+            Shown shown = tracked.valueAt(i);
+            // Nothing published yet while it waits in the queue
+            shown.hasProgress = bus.getLatest(tracked.keyAt(i), snapshot);
+            if (!shown.hasProgress) continue;
+            shown.downloadedBytes = snapshot.getDownloadedBytes();
+            shown.totalBytes = snapshot.getTotalBytes();
+            shown.speed = snapshot.getSpeed();
+            shown.etaSeconds = snapshot.getEtaSeconds();
+            reporting++;
+            totalSpeed += shown.speed;
+            if (shown.totalBytes > 0) {
+                remainingBytes += Math.max(0, shown.totalBytes - shown.downloadedBytes);
+            } else {
+                remainingKnown = false;
+            }
+        }
+
+        boolean wantSummary = grouped && reporting >= 2;
+        if (wantSummary != summaryShown) {
+            // Children move in or out of the group before the summary appears or goes away:
+            // cancelling a summary also cancels the notifications still in its group
+            for (int i = 0; i < tracked.size(); i++) {
+                NotificationCompat.Builder builder = builders.get(tracked.keyAt(i));
+                if (builder != null) {
+                    builder.setGroup(wantSummary ? GROUP_KEY : null);
+                }
+                tracked.valueAt(i).text = null; // Post again with the new group
+            }
+        }
+
+        for (int i = 0; i < tracked.size(); i++) {
+            Shown shown = tracked.valueAt(i);
+            if (shown.hasProgress) {
+                publishDownload(tracked.keyAt(i), shown);
+            }
+        }
+
+        if (wantSummary) {
+            publishSummary(reporting, totalSpeed, remainingKnown ? remainingBytes : -1);
+        } else {
+            cancelSummary();
+        }
+    }
+
+    private void publishDownload(long downloadId, Shown shown) {
+        NotificationCompat.Builder builder = builders.get(downloadId);
+        if (builder == null) return;
+
+        String text;
+        int percent;
+        if (shown.totalBytes > 0) {
+            text = String.format(Locale.getDefault(), "%.1f / %.1f MB (%.2f Mbps)",
+                    toMB(shown.downloadedBytes), toMB(shown.totalBytes), toMB((long) shown.speed));
+            percent = (int) ((shown.downloadedBytes * 100) / shown.totalBytes);
+            if (shown.etaSeconds >= 0) {
+                text += " • " + Download.formatTimeLeft(shown.etaSeconds);
+            }
+        } else {
+            text = String.format(Locale.getDefault(), "%.1f MB (%.2f Mbps)",
+                    toMB(shown.downloadedBytes), toMB((long) shown.speed));
+            percent = -1;
+        }
+        if (text.equals(shown.text) && percent == shown.percent) {
+            return; // Same as on screen: nothing for system_server to do
+        }
+        shown.text = text;
+        shown.percent = percent;
+
+        builder.setContentText(text);
+        if (percent >= 0) {
+            builder.setProgress(100, percent, false);
+        } else {
+            builder.setProgress(0, 0, true); // Indeterminado se o total é desconhecido
+        }
+        notificationManager.notify((int) (notificationIdBase + downloadId), builder.build());
+    }
+
+    private void publishSummary(int downloads, double totalSpeed, long remainingBytes) {
+        String title = downloads + " downloads em andamento";
+        String text = String.format(Locale.getDefault(), "%.2f MB/s", toMB((long) totalSpeed));
+        if (remainingBytes >= 0 && totalSpeed > 0) {
+            text += " • " + Download.formatTimeLeft((long) (remainingBytes / totalSpeed));
+        }
+        String summary = title + "\n" + text;
+        if (summaryShown && summary.equals(summaryText)) return;
+
+        if (summaryBuilder == null) {
+            summaryBuilder = new NotificationCompat.Builder(context, channelId)
+                    .setSmallIcon(R.drawable.ic_download)
+                    .setGroup(GROUP_KEY)
+                    .setGroupSummary(true)
+                    .setOngoing(true)
+                    .setOnlyAlertOnce(true)
+                    .setPriority(NotificationCompat.PRIORITY_LOW)
+                    .setContentIntent(summaryIntent);
+        }
+        // The sub text also shows in the header of the expanded group
+        summaryBuilder.setContentTitle(title)
+                .setContentText(text)
+                .setSubText(text)
+                .setNumber(downloads);
+        notificationManager.notify(summaryNotificationId, summaryBuilder.build());
+        summaryShown = true;
+        summaryText = summary;
+    }
+
+    private void cancelSummary() {
+        if (!summaryShown) return;
+        notificationManager.cancel(summaryNotificationId);
+        summaryShown = false;
+        summaryText = null;
+    }
+
+    private static double toMB(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
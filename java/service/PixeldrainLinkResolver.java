@@ -1,5 +1,6 @@
 package com.winlator.Download.service;
 
+import android.content.Context;
 import android.util.Log;
 
 import com.winlator.Download.service.DownloadItem; // Changed import
@@ -11,7 +12,7 @@ import java.net.URL;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class PixeldrainLinkResolver {
+public class PixeldrainLinkResolver implements LinkResolver {
 
     private static final String TAG = "PixeldrainLinkResolver";
     private static final String API_DOWNLOAD_URL_BASE = "https://pixeldrain.com/api/file/";
@@ -22,6 +23,26 @@ public class PixeldrainLinkResolver {
     // For now, focusing on single file '/u/' links primarily.
     private static final Pattern PIXELDRAIN_URL_PATTERN = Pattern.compile("pixeldrain\\.com/(?:u|l)/([a-zA-Z0-9]+)");
 
+    @Override
+    public String getName() {
+        return "Pixeldrain";
+    }
+
+    @Override
+    public String[] getHosts() {
+        return new String[] {"pixeldrain.com"};
+    }
+
+    @Override
+    public boolean canResolve(String url) {
+        return PIXELDRAIN_URL_PATTERN.matcher(url).find();
+    }
+
+    @Override
+    public ResolvedLink resolve(Context context, String url, String password) {
+        return ResolvedLink.of(resolvePixeldrainUrl(url));
+    }
+
     public DownloadItem resolvePixeldrainUrl(String pageUrl) {
         if (pageUrl == null || pageUrl.trim().isEmpty()) {
             Log.e(TAG, "Page URL is null or empty.");
@@ -0,0 +1,184 @@
+package com.winlator.Download.service;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.winlator.Download.db.DownloadContract;
+import com.winlator.Download.db.DownloadRepository;
+import com.winlator.Download.db.SQLiteHelper;
+
+import java.util.List;
+
+/**
+ * Write-behind store for download progress. Download threads hand over their confirmed
+ * segment maps (already fsync'd) and return immediately; the latest one per download is kept
+ * in memory and written, for all downloads at once, in a single transaction on the shared
+ * database writer thread every {@link #FLUSH_INTERVAL_MS}. Callers that need the data on disk
+ * right away (pause, failure, shutdown) call {@link #flush()}, which writes on the calling thread.
+ */
+final class ProgressStore {
+
+    private static final String TAG = "ProgressStore";
+    static final long FLUSH_INTERVAL_MS = 3000;
+
+    private static final class Pending {
+        List<DownloadSegment> segments; // Null when only the counters changed
+        long downloadedBytes;
+        long totalBytes;
+        long confirmedAt;
+    }
+
+    private final SQLiteHelper dbHelper;
+    private final DownloadRepository downloadRepository;
+    private final Object flushLock = new Object(); // Serialises flushes with forget()
+    private LongSparseArray<Pending> pending = new LongSparseArray<>(); // Guarded by this
+    private LongSparseArray<Pending> spare = new LongSparseArray<>(); // Guarded by flushLock
+    private Handler handler;
+    private volatile boolean closed = false;
+
+    private final Runnable periodicFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            if (!closed) {
+                handler.postDelayed(this, FLUSH_INTERVAL_MS);
+            }
+        }
+    };
+
+    ProgressStore(SQLiteHelper dbHelper, DownloadRepository downloadRepository) {
+        this.dbHelper = dbHelper;
+        this.downloadRepository = downloadRepository;
+    }
+
+    void start() {
+        handler = dbHelper.getWriteHandler();
+        handler.postDelayed(periodicFlush, FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Records a segment map that is confirmed on disk. Replaces any map of the same download
+     * that was not written yet.
+     */
+    void saveCheckpoint(long downloadId, List<DownloadSegment> segments, long totalBytes) {
+        long downloadedBytes = 0;
+        for (DownloadSegment segment : segments) {
+            downloadedBytes += segment.getDownloaded();
+        }
+        synchronized (this) {
+            Pending entry = pending.get(downloadId);
+            if (entry == null) {
+                entry = new Pending();
+                pending.put(downloadId, entry);
+            }
+            entry.segments = segments;
+            entry.downloadedBytes = downloadedBytes;
+            entry.totalBytes = totalBytes;
+            entry.confirmedAt = System.currentTimeMillis();
+        }
+        if (closed) {
+            flush(); // No database thread anymore
+        }
+    }
+
+    /**
+     * Drops whatever is waiting for the download, after any flush in progress has finished.
+     * Call before deleting its rows so a late flush cannot bring them back.
+     */
+    void forget(long downloadId) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                pending.remove(downloadId);
+            }
+        }
+    }
+
+    // Writes everything pending in one transaction, on the calling thread
+    void flush() {
+        synchronized (flushLock) {
+            LongSparseArray<Pending> batch;
+            synchronized (this) {
+                if (pending.size() == 0) return;
+                batch = pending;
+                pending = spare;
+            }
+            try {
+                write(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    Pending entry = batch.valueAt(i);
+                    downloadRepository.onProgressSaved(batch.keyAt(i), entry.downloadedBytes, entry.totalBytes);
+                }
+            } catch (RuntimeException e) {
+                // Keep the newer of the two for the next flush
+                Log.e(TAG, "Progress flush failed, will retry", e);
+                synchronized (this) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (pending.get(batch.keyAt(i)) == null) {
+                            pending.put(batch.keyAt(i), batch.valueAt(i));
+                        }
+                    }
+                }
+            }
+            batch.clear();
+            spare = batch;
+        }
+    }
+
+    private void write(LongSparseArray<Pending> batch) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < batch.size(); i++) {
+                long downloadId = batch.keyAt(i);
+                Pending entry = batch.valueAt(i);
+                String[] idArgs = { String.valueOf(downloadId) };
+
+                values.clear();
+                values.put(DownloadContract.DownloadEntry.COLUMN_NAME_DOWNLOADED_BYTES, entry.downloadedBytes);
+                if (entry.totalBytes > 0) {
+                    values.put(DownloadContract.DownloadEntry.COLUMN_NAME_TOTAL_BYTES, entry.totalBytes);
+                }
+                // The download was deleted after this checkpoint was taken: writing its segments
+                // would leave a map that a new download reusing the rowid would pick up
+                if (db.update(DownloadContract.DownloadEntry.TABLE_NAME, values,
+                        DownloadContract.DownloadEntry._ID + " = ?", idArgs) == 0) {
+                    continue;
+                }
+
+                if (entry.segments != null) {
+                    db.delete(DownloadContract.SegmentEntry.TABLE_NAME,
+                            DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOAD_ID + " = ?", idArgs);
+                    for (DownloadSegment segment : entry.segments) {
+                        values.clear();
+                        values.put(DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOAD_ID, downloadId);
+                        values.put(DownloadContract.SegmentEntry.COLUMN_NAME_SEGMENT_INDEX, segment.getIndex());
+                        values.put(DownloadContract.SegmentEntry.COLUMN_NAME_START_BYTE, segment.getStart());
+                        values.put(DownloadContract.SegmentEntry.COLUMN_NAME_END_BYTE, segment.getEnd());
+                        values.put(DownloadContract.SegmentEntry.COLUMN_NAME_DOWNLOADED_BYTES, segment.getDownloaded());
+                        values.put(DownloadContract.SegmentEntry.COLUMN_NAME_CONFIRMED_AT, entry.confirmedAt);
+                        db.insert(DownloadContract.SegmentEntry.TABLE_NAME, null, values);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Writes what is left and stops the periodic flush. Later checkpoints are written
+     * directly on the caller's thread.
+     */
+    void close() {
+        closed = true;
+        if (handler != null) {
+            handler.removeCallbacks(periodicFlush);
+        }
+        flush();
+    }
+}
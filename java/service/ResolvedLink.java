@@ -0,0 +1,39 @@
+package com.winlator.Download.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a {@link LinkResolver} found behind a page link: the files to download (direct URL,
+ * name, size and published hash of each) and the token, if any, the host wants sent with
+ * those downloads.
+ */
+public class ResolvedLink {
+    private final List<DownloadItem> items;
+    private final String authToken; // Sent as the accountToken cookie when downloading, null if not needed
+
+    public ResolvedLink(List<DownloadItem> items, String authToken) {
+        this.items = items;
+        this.authToken = authToken;
+    }
+
+    // For hosts that resolve a page to one file; a null item (resolution failed) gives an empty result
+    public static ResolvedLink of(DownloadItem item) {
+        if (item == null || item.directUrl == null || item.directUrl.isEmpty()) {
+            return new ResolvedLink(Collections.<DownloadItem>emptyList(), null);
+        }
+        return new ResolvedLink(Collections.singletonList(item), null);
+    }
+
+    public List<DownloadItem> getItems() {
+        return items;
+    }
+
+    public String getAuthToken() {
+        return authToken;
+    }
+
+    public boolean hasItems() {
+        return items != null && !items.isEmpty();
+    }
+}
@@ -0,0 +1,111 @@
+package com.winlator.Download.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * Decides whether a failed download attempt is worth repeating and how long to wait first.
+ * Timeouts, dropped connections, 5xx responses and rate limiting (429) are transient; other
+ * HTTP errors, storage problems and anything unrecognised are not. Delays grow exponentially
+ * with full jitter, so downloads that failed together do not all come back at the same moment;
+ * a Retry-After sent by the server takes precedence.
+ */
+final class RetryPolicy {
+
+    enum FailureKind {
+        TIMEOUT(true),
+        CONNECTION(true),
+        SERVER_ERROR(true),
+        RATE_LIMITED(true),
+        HTTP_ERROR(false),
+        STORAGE(false),
+        OTHER(false);
+
+        final boolean isTransient;
+
+        FailureKind(boolean isTransient) {
+            this.isTransient = isTransient;
+        }
+    }
+
+    // Whole-download attempts, scheduled again through the download queue
+    static final RetryPolicy DOWNLOAD = new RetryPolicy(6, 5000, 10 * 60 * 1000);
+    // Reconnections of a single segment while the rest of the download keeps going
+    static final RetryPolicy SEGMENT = new RetryPolicy(3, 1000, 60 * 1000);
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Random random = new Random();
+
+    RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    static FailureKind classify(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException) {
+                int status = ((HttpStatusException) cause).getStatusCode();
+                if (status == 429) return FailureKind.RATE_LIMITED;
+                if (status == HttpURLConnection.HTTP_CLIENT_TIMEOUT) return FailureKind.TIMEOUT;
+                if (status >= 500) return FailureKind.SERVER_ERROR;
+                return FailureKind.HTTP_ERROR;
+            }
+            if (cause instanceof InsufficientSpaceException) return FailureKind.STORAGE;
+            if (cause instanceof SocketTimeoutException) return FailureKind.TIMEOUT;
+            if (cause instanceof SocketException || cause instanceof UnknownHostException
+                    || cause instanceof SSLException || cause instanceof EOFException) {
+                return FailureKind.CONNECTION;
+            }
+            // OkHttp (behind HttpURLConnection on Android) reports dropped responses this way
+            if (cause instanceof IOException && cause.getMessage() != null
+                    && cause.getMessage().contains("unexpected end of stream")) {
+                return FailureKind.CONNECTION;
+            }
+            if (cause instanceof InterruptedIOException) {
+                return FailureKind.OTHER; // Interrupted on purpose (pause/cancel), not a network problem
+            }
+        }
+        return FailureKind.OTHER;
+    }
+
+    /**
+     * @param failures Consecutive failed attempts so far, including this one.
+     */
+    boolean shouldRetry(Throwable error, int failures) {
+        return failures < maxAttempts && classify(error).isTransient;
+    }
+
+    /**
+     * Delay before the next attempt: the server's Retry-After when given (capped at the maximum),
+     * otherwise a random value up to base * 2^(failures - 1).
+     */
+    long delayMs(Throwable error, int failures) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException && ((HttpStatusException) cause).getRetryAfterMs() >= 0) {
+                return Math.min(((HttpStatusException) cause).getRetryAfterMs(), maxDelayMs);
+            }
+        }
+        int exponent = Math.min(Math.max(0, failures - 1), 20);
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << exponent);
+        // Never retry instantly: at least half the base delay
+        long floor = Math.min(ceiling, baseDelayMs / 2);
+        synchronized (random) {
+            return floor + (long) (random.nextDouble() * (ceiling - floor));
+        }
+    }
+}
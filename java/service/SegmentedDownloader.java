@@ -0,0 +1,418 @@
+package com.winlator.Download.service;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a file as a set of byte ranges running in parallel, each one written at its own
+ * offset of the target file. Workers that run out of work split the largest remaining segment,
+ * so a slow range does not hold up the end of the download, and segments that stall are
+ * reconnected. A plain single-connection download is just the one-segment case.
+ * Workers only read from the network; disk writes go through a {@link WritePipeline}.
+ */
+class SegmentedDownloader {
+
+    private static final String TAG = "SegmentedDownloader";
+
+    // Segments smaller than twice this value are not split any further
+    static final long MIN_SPLIT_BYTES = 4L * 1024 * 1024;
+    private static final long TICK_INTERVAL_MS = 500;
+    private static final long SLOW_CHECK_INTERVAL_MS = 10000;
+    private static final long DRAIN_TIMEOUT_MS = 30000;
+    // Data read back per tick for the checksum (out-of-order segments, earlier sessions)
+    private static final long HASH_CATCH_UP_BYTES_PER_TICK = 16L * 1024 * 1024;
+
+    interface ConnectionFactory {
+        // to = -1 requests everything from 'from' until the end of the file
+        HttpURLConnection open(long from, long to) throws IOException;
+    }
+
+    interface Listener {
+        boolean isStopRequested();
+        // Called from the coordinating thread roughly every TICK_INTERVAL_MS
+        void onTick(long downloadedBytes);
+    }
+
+    private final DownloadFileWriter writer;
+    private final WritePipeline pipeline;
+    private final List<DownloadSegment> segments; // Guarded by 'this'
+    private final ConnectionFactory connectionFactory;
+    private final ExecutorService workerPool;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final boolean rangesSupported;
+    private final int workerCount;
+
+    private final Map<DownloadSegment, HttpURLConnection> liveConnections = new ConcurrentHashMap<>();
+    private final Map<DownloadSegment, Boolean> restartRequested = new ConcurrentHashMap<>();
+    private final List<DownloadSegment> assigned = new ArrayList<>(); // Guarded by 'this'
+
+    private volatile boolean stopped = false;
+    private volatile IOException failure;
+
+    private HttpURLConnection adoptedConnection;
+    private long adoptedFrom = -1;
+    private StreamingHasher hasher;
+
+    SegmentedDownloader(DownloadFileWriter writer, List<DownloadSegment> segments, ConnectionFactory connectionFactory,
+                        ExecutorService workerPool, BufferPool bufferPool, BandwidthLimiter bandwidthLimiter,
+                        boolean rangesSupported, int workerCount) {
+        this.segments = new ArrayList<>(segments);
+        this.connectionFactory = connectionFactory;
+        this.workerPool = workerPool;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.rangesSupported = rangesSupported;
+        // Without range support only one connection can make progress
+        this.workerCount = rangesSupported ? Math.max(1, workerCount) : 1;
+        // Two buffers per worker: one being filled while the other waits for the disk
+        this.pipeline = new WritePipeline(writer, bufferPool, this.workerCount * 2 + 2, this::fail);
+        this.writer = writer;
+    }
+
+    /**
+     * Lets the first worker reuse a connection that is already open at the given offset
+     * (typically the probe request used to discover the file size).
+     */
+    void adoptConnection(HttpURLConnection connection, long from) {
+        this.adoptedConnection = connection;
+        this.adoptedFrom = from;
+    }
+
+    // Computes the file's checksum while it downloads; call before run()
+    void setHasher(StreamingHasher hasher) {
+        this.hasher = hasher;
+        pipeline.setHasher(hasher);
+    }
+
+    /**
+     * Runs until every segment is complete, the listener asks to stop or a segment fails.
+     * @return true if the whole file was downloaded, false if it was stopped.
+     */
+    boolean run(Listener listener) throws IOException, InterruptedException {
+        pipeline.start(workerPool);
+        CountDownLatch workersDone = new CountDownLatch(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            final boolean first = i == 0;
+            workerPool.execute(() -> {
+                try {
+                    runWorker(first);
+                } catch (Throwable t) {
+                    Log.e(TAG, "Segment worker crashed", t);
+                    fail(t instanceof IOException ? (IOException) t : new IOException(t));
+                } finally {
+                    workersDone.countDown();
+                }
+            });
+        }
+
+        long[] lastDownloaded = new long[0];
+        long lastSlowCheck = System.currentTimeMillis();
+        try {
+            while (!workersDone.await(TICK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (listener.isStopRequested()) {
+                    stop();
+                }
+                listener.onTick(getDownloadedBytes());
+                if (hasher != null) {
+                    try {
+                        hasher.catchUp(writer, this::writtenEnd, HASH_CATCH_UP_BYTES_PER_TICK);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Checksum read-back failed, retrying at the end: " + e.getMessage());
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSlowCheck >= SLOW_CHECK_INTERVAL_MS) {
+                    lastDownloaded = restartSlowSegments(lastDownloaded);
+                    lastSlowCheck = now;
+                    Log.d(TAG, "Pipeline: " + pipeline.getStats());
+                }
+            }
+            // Whatever the workers received is still worth keeping, even when stopping
+            if (!pipeline.drain(DRAIN_TIMEOUT_MS)) {
+                fail(new IOException("Timed out waiting for pending writes"));
+            }
+        } catch (InterruptedException e) {
+            // Task cancelled: stop the workers and give them a moment to release the file
+            stop();
+            workersDone.await(5, TimeUnit.SECONDS);
+            throw e;
+        } finally {
+            pipeline.close();
+            Log.d(TAG, "Pipeline finished: " + pipeline.getStats());
+            if (adoptedConnection != null) {
+                adoptedConnection.disconnect();
+                adoptedConnection = null;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return !stopped && isComplete();
+    }
+
+    void stop() {
+        stopped = true;
+        for (HttpURLConnection connection : liveConnections.values()) {
+            connection.disconnect();
+        }
+    }
+
+    synchronized long getDownloadedBytes() {
+        long total = 0;
+        for (DownloadSegment segment : segments) {
+            total += segment.getDownloaded();
+        }
+        return total;
+    }
+
+    /**
+     * End of the data already written from 'offset' on, within the segment containing it.
+     * Segments cover the file without gaps, so following them in order walks the whole file.
+     */
+    synchronized long writtenEnd(long offset) {
+        for (DownloadSegment segment : segments) {
+            long end = segment.getEnd();
+            if (segment.getStart() <= offset && (end < 0 || offset <= end)) {
+                return Math.max(offset, segment.position());
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Hashes whatever the checksum is still missing and compares it with the expected value.
+     * Call after run() returned true.
+     */
+    boolean verify(long length) throws IOException {
+        return hasher == null || hasher.verify(writer, this::writtenEnd, length);
+    }
+
+    // Copy of the current segment layout, safe to persist from another thread
+    synchronized List<DownloadSegment> snapshotSegments() {
+        List<DownloadSegment> copy = new ArrayList<>(segments.size());
+        for (DownloadSegment segment : segments) {
+            copy.add(new DownloadSegment(segment.getIndex(), segment.getStart(), segment.getEnd(), segment.getDownloaded()));
+        }
+        return copy;
+    }
+
+    /**
+     * Snapshots the segment progress and then fsyncs the file. Every byte counted in the
+     * snapshot was written before the sync (bytes still queued in the pipeline are not counted),
+     * so the returned layout is confirmed on disk.
+     */
+    List<DownloadSegment> checkpoint() throws IOException {
+        List<DownloadSegment> snapshot = snapshotSegments();
+        writer.force();
+        return snapshot;
+    }
+
+    private synchronized boolean isComplete() {
+        for (DownloadSegment segment : segments) {
+            if (!segment.isComplete()) return false;
+        }
+        return true;
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        stop();
+    }
+
+    /**
+     * Next piece of work for an idle worker: an unassigned incomplete segment if there is one,
+     * otherwise the second half of the largest segment still being downloaded.
+     */
+    private synchronized DownloadSegment nextSegment() {
+        for (DownloadSegment segment : segments) {
+            if (!segment.isComplete() && !assigned.contains(segment)) {
+                assigned.add(segment);
+                return segment;
+            }
+        }
+        if (!rangesSupported) return null;
+
+        DownloadSegment largest = null;
+        for (DownloadSegment segment : assigned) {
+            if (!segment.isComplete() && (largest == null || segment.remaining() > largest.remaining())) {
+                largest = segment;
+            }
+        }
+        if (largest == null) return null;
+        DownloadSegment tail = largest.splitTail(segments.size(), MIN_SPLIT_BYTES);
+        if (tail != null) {
+            Log.d(TAG, "Rebalancing: split " + largest + " -> new " + tail);
+            segments.add(tail);
+            assigned.add(tail);
+        }
+        return tail;
+    }
+
+    private void runWorker(boolean first) {
+        HttpURLConnection adopted = null;
+        long from = -1;
+        if (first) {
+            adopted = adoptedConnection;
+            from = adoptedFrom;
+            adoptedConnection = null;
+        }
+        DownloadSegment segment;
+        while (!stopped && (segment = nextSegment()) != null) {
+            if (adopted != null && segment.receivedPosition() != from) {
+                adopted.disconnect();
+                adopted = null;
+            }
+            downloadSegment(segment, adopted);
+            adopted = null;
+        }
+        if (adopted != null) {
+            adopted.disconnect();
+        }
+    }
+
+    private void downloadSegment(DownloadSegment segment, HttpURLConnection connection) {
+        int attempt = 0;
+        while (!stopped && !segment.isReceived()) {
+            InputStream input = null;
+            ByteBuffer buffer = null;
+            try {
+                if (connection == null) {
+                    connection = connectionFactory.open(segment.receivedPosition(), segment.getEnd());
+                    int responseCode = connection.getResponseCode();
+                    boolean wholeFile = responseCode == HttpURLConnection.HTTP_OK && segment.receivedPosition() == 0;
+                    if (responseCode != HttpURLConnection.HTTP_PARTIAL && !wholeFile) {
+                        throw HttpStatusException.from(connection, "Segment " + segment.getIndex());
+                    }
+                }
+                liveConnections.put(segment, connection);
+                if (stopped) break; // stop() may have run before the connection was registered
+
+                input = connection.getInputStream();
+                long lastSubmit = System.currentTimeMillis();
+                boolean endOfStream = false;
+                while (!stopped && !segment.isReceived()) {
+                    if (buffer == null && (buffer = pipeline.acquire()) == null) break;
+                    // Read straight into the pooled buffer's array, as much as it has room for
+                    // (or one chunk of the bandwidth budget when limited)
+                    int length = bandwidthLimiter.chunkSize(buffer.remaining());
+                    int count = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                    if (count == -1) {
+                        endOfStream = true;
+                        break;
+                    }
+                    buffer.position(buffer.position() + count);
+                    bandwidthLimiter.acquire(count);
+                    long now = System.currentTimeMillis();
+                    // Hand over when full, or periodically so slow links still report progress
+                    if (!buffer.hasRemaining() || now - lastSubmit >= TICK_INTERVAL_MS) {
+                        lastSubmit = now;
+                        pipeline.submit(segment, buffer);
+                        buffer = null;
+                        attempt = 0;
+                    }
+                }
+                if (buffer != null) {
+                    pipeline.submit(segment, buffer);
+                    buffer = null;
+                }
+                if (!stopped && endOfStream && segment.getEnd() < 0) {
+                    segment.markFinished(); // Open-ended download: end of stream is end of file
+                } else if (!stopped && !segment.isReceived()) {
+                    throw new EOFException("Connection closed before end of segment " + segment.getIndex());
+                }
+            } catch (IOException e) {
+                // Keep whatever was received before the connection dropped
+                if (buffer != null) {
+                    pipeline.submit(segment, buffer);
+                    buffer = null;
+                }
+                if (stopped || Thread.currentThread().isInterrupted()) break;
+                if (restartRequested.remove(segment) != null) {
+                    Log.i(TAG, "Reconnecting slow segment " + segment.getIndex());
+                    continue;
+                }
+                attempt++;
+                // Permanent errors go straight to the download, which decides about retrying as a whole
+                if (!rangesSupported || !RetryPolicy.SEGMENT.shouldRetry(e, attempt)) {
+                    Log.e(TAG, "Segment " + segment.getIndex() + " failed after " + attempt + " attempt(s)", e);
+                    fail(e);
+                    break;
+                }
+                long delay = RetryPolicy.SEGMENT.delayMs(e, attempt);
+                Log.w(TAG, "Segment " + segment.getIndex() + " attempt " + attempt + " failed (" + RetryPolicy.classify(e)
+                        + "), retrying in " + delay + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } finally {
+                if (buffer != null) {
+                    pipeline.release(buffer);
+                }
+                liveConnections.remove(segment);
+                try {
+                    if (input != null) input.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing segment stream: " + e.getMessage(), e);
+                }
+                if (connection != null) {
+                    connection.disconnect();
+                    connection = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops and reopens the connection of any segment that moved far less data than its
+     * siblings since the last check; a fresh connection often lands on a better route.
+     */
+    private long[] restartSlowSegments(long[] lastDownloaded) {
+        List<DownloadSegment> current = snapshotSegments();
+        long[] downloadedNow = new long[current.size()];
+        long totalDelta = 0;
+        int activeCount = 0;
+        for (int i = 0; i < current.size(); i++) {
+            DownloadSegment segment = current.get(i);
+            downloadedNow[i] = segment.getDownloaded();
+            if (!segment.isComplete() && i < lastDownloaded.length) {
+                totalDelta += downloadedNow[i] - lastDownloaded[i];
+                activeCount++;
+            }
+        }
+        if (activeCount < 2 || totalDelta <= 0) return downloadedNow;
+
+        long average = totalDelta / activeCount;
+        synchronized (this) {
+            for (int i = 0; i < current.size() && i < lastDownloaded.length; i++) {
+                DownloadSegment segment = segments.get(i);
+                long delta = downloadedNow[i] - lastDownloaded[i];
+                if (!segment.isComplete() && delta < average / 4 && segment.remaining() > MIN_SPLIT_BYTES) {
+                    HttpURLConnection connection = liveConnections.get(segment);
+                    if (connection != null) {
+                        restartRequested.put(segment, Boolean.TRUE);
+                        connection.disconnect();
+                    }
+                }
+            }
+        }
+        return downloadedNow;
+    }
+}
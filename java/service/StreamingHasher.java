@@ -0,0 +1,163 @@
+package com.winlator.Download.service;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Checksum of a download computed while it is being written, so a completed file does not
+ * have to be read back in full to be verified. Bytes that reach the file in order (a plain
+ * download, or the first segment) are hashed straight from the write buffers. Bytes written
+ * ahead of that point by other segments, or left on disk by an earlier session, are read
+ * back from the file a bounded amount at a time once everything before them is hashed.
+ *
+ * Expected hashes use the "algorithm:hex" form of GitHub's asset digests ("sha256:…",
+ * "md5:…"); a bare hex string is taken as MD5 or SHA-256 by its length.
+ */
+final class StreamingHasher {
+
+    private static final String TAG = "StreamingHasher";
+    private static final int READ_CHUNK_BYTES = 256 * 1024;
+
+    /**
+     * Where the written data that starts at a given offset ends.
+     */
+    interface WrittenRanges {
+        // First offset at or after 'offset' that is not written yet (offset itself if none is)
+        long writtenEnd(long offset);
+    }
+
+    private final String algorithm; // "md5" or "sha256"
+    private final String expectedHex;
+    private final MessageDigest digest;
+    private long hashedUpTo = 0; // Guarded by this: bytes [0, hashedUpTo) are in the digest
+    private ByteBuffer readBuffer;
+
+    private StreamingHasher(String algorithm, String expectedHex, MessageDigest digest) {
+        this.algorithm = algorithm;
+        this.expectedHex = expectedHex;
+        this.digest = digest;
+    }
+
+    /**
+     * @return A hasher for the expected hash, or null if there is none or its algorithm is not supported.
+     */
+    static StreamingHasher forExpectedHash(String expectedHash) {
+        if (expectedHash == null || expectedHash.trim().isEmpty()) return null;
+        String value = expectedHash.trim().toLowerCase(Locale.US);
+        String algorithm;
+        String hex;
+        int separator = value.indexOf(':');
+        if (separator >= 0) {
+            algorithm = value.substring(0, separator).replace("-", "");
+            hex = value.substring(separator + 1);
+        } else {
+            hex = value;
+            algorithm = hex.length() == 32 ? "md5" : hex.length() == 64 ? "sha256" : null;
+        }
+        if (!hex.matches("[0-9a-f]+")) return null;
+
+        String javaName;
+        if ("md5".equals(algorithm) && hex.length() == 32) {
+            javaName = "MD5";
+        } else if ("sha256".equals(algorithm) && hex.length() == 64) {
+            javaName = "SHA-256";
+        } else {
+            Log.w(TAG, "Unsupported expected hash: " + expectedHash);
+            return null;
+        }
+        try {
+            return new StreamingHasher(algorithm, hex, MessageDigest.getInstance(javaName));
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, javaName + " not available", e);
+            return null;
+        }
+    }
+
+    // "MD5" / "SHA-256", for messages
+    String getAlgorithmName() {
+        return "md5".equals(algorithm) ? "MD5" : "SHA-256";
+    }
+
+    synchronized long getHashedBytes() {
+        return hashedUpTo;
+    }
+
+    /**
+     * Called by the writer thread after buffer[offset, offset + length) was written at 'position'.
+     * Only bytes that continue the hashed prefix are used; the buffer is left as it was.
+     */
+    synchronized void onWritten(long position, ByteBuffer buffer, int offset, int length) {
+        long end = position + length;
+        if (position > hashedUpTo || end <= hashedUpTo) return; // Out of order, or hashed already
+        int skip = (int) (hashedUpTo - position);
+        int oldPosition = buffer.position();
+        int oldLimit = buffer.limit();
+        buffer.limit(offset + length);
+        buffer.position(offset + skip);
+        digest.update(buffer);
+        buffer.limit(oldLimit);
+        buffer.position(oldPosition);
+        hashedUpTo = end;
+    }
+
+    /**
+     * Reads back and hashes up to 'maxBytes' of data that is on disk but was not hashed while
+     * being written. The lock is held one chunk at a time, so the writer thread is never kept
+     * waiting for long.
+     * @return The number of bytes read.
+     */
+    long catchUp(DownloadFileWriter writer, WrittenRanges ranges, long maxBytes) throws IOException {
+        long read = 0;
+        while (read < maxBytes) {
+            int count;
+            synchronized (this) {
+                long available = ranges.writtenEnd(hashedUpTo) - hashedUpTo;
+                if (available <= 0) break;
+                if (readBuffer == null) {
+                    readBuffer = ByteBuffer.allocate(READ_CHUNK_BYTES);
+                }
+                readBuffer.clear();
+                readBuffer.limit((int) Math.min(readBuffer.capacity(), Math.min(available, maxBytes - read)));
+                count = writer.read(readBuffer, hashedUpTo);
+                if (count <= 0) break;
+                readBuffer.flip();
+                digest.update(readBuffer);
+                hashedUpTo += count;
+            }
+            read += count;
+        }
+        return read;
+    }
+
+    /**
+     * Hashes whatever is still missing, up to 'length', and compares with the expected value.
+     */
+    boolean verify(DownloadFileWriter writer, WrittenRanges ranges, long length) throws IOException {
+        catchUp(writer, ranges, Long.MAX_VALUE);
+        synchronized (this) {
+            if (hashedUpTo != length) {
+                Log.w(TAG, "Hashed " + hashedUpTo + " of " + length + " bytes");
+                return false;
+            }
+            String actual = toHex(digest.digest());
+            if (!actual.equals(expectedHex)) {
+                Log.w(TAG, getAlgorithmName() + " mismatch: expected " + expectedHex + ", got " + actual);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
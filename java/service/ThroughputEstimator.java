@@ -0,0 +1,90 @@
+package com.winlator.Download.service;
+
+/**
+ * Download speed from recent progress only: an exponentially weighted moving average of the
+ * rate between consecutive samples, with a weight that depends on the time between them
+ * (alpha = 1 - e^(-dt / timeConstant)), so irregular tick intervals do not skew it. Bytes that
+ * were already on disk when the session started (a resumed download) never count as
+ * throughput, since only differences between samples are used.
+ *
+ * Samples come from one thread (the download's progress tick); the getters may be called from
+ * any thread. Nothing is allocated per sample.
+ */
+final class ThroughputEstimator {
+
+    static final long DEFAULT_TIME_CONSTANT_MS = 5000;
+    // Shorter intervals only add noise; their bytes are kept for the next sample
+    private static final long MIN_SAMPLE_INTERVAL_MS = 200;
+
+    private final double timeConstantMs;
+
+    private long lastBytes = -1; // -1 until reset() gives a baseline
+    private long lastTimeMs;
+    private boolean hasRate = false;
+    private volatile double instantSpeed = 0;
+    private volatile double smoothedSpeed = 0;
+
+    ThroughputEstimator() {
+        this(DEFAULT_TIME_CONSTANT_MS);
+    }
+
+    ThroughputEstimator(long timeConstantMs) {
+        this.timeConstantMs = Math.max(1, timeConstantMs);
+    }
+
+    /**
+     * Starts a new session: 'bytes' is what is already downloaded, which is not throughput.
+     */
+    synchronized void reset(long bytes, long nowMs) {
+        lastBytes = bytes;
+        lastTimeMs = nowMs;
+        hasRate = false;
+        instantSpeed = 0;
+        smoothedSpeed = 0;
+    }
+
+    /**
+     * @param bytes Total downloaded so far (not the increment).
+     */
+    synchronized void addSample(long bytes, long nowMs) {
+        if (lastBytes < 0) {
+            reset(bytes, nowMs);
+            return;
+        }
+        long elapsedMs = nowMs - lastTimeMs;
+        if (elapsedMs < MIN_SAMPLE_INTERVAL_MS) return;
+
+        // A segment restarted from its last checkpoint can make the total go back a little
+        double rate = Math.max(0, bytes - lastBytes) * 1000.0 / elapsedMs;
+        instantSpeed = rate;
+        if (hasRate) {
+            double alpha = 1 - Math.exp(-elapsedMs / timeConstantMs);
+            smoothedSpeed += alpha * (rate - smoothedSpeed);
+        } else {
+            smoothedSpeed = rate; // No history to average with yet
+            hasRate = true;
+        }
+        lastBytes = bytes;
+        lastTimeMs = nowMs;
+    }
+
+    // Bytes per second over the last sample interval
+    double getInstantSpeed() {
+        return instantSpeed;
+    }
+
+    // Bytes per second, averaged over roughly the last time constant
+    double getSmoothedSpeed() {
+        return smoothedSpeed;
+    }
+
+    /**
+     * @return Seconds until 'remainingBytes' are downloaded at the smoothed speed, or -1 when
+     *         unknown (no size, or no speed yet).
+     */
+    long getEtaSeconds(long remainingBytes) {
+        double speed = smoothedSpeed;
+        if (remainingBytes < 0 || speed <= 0) return -1;
+        return (long) Math.ceil(remainingBytes / speed);
+    }
+}
@@ -0,0 +1,251 @@
+package com.winlator.Download.service;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second stage of a download: network workers fill buffers from a bounded ring and hand them
+ * over, and a single writer thread drains them to disk. A slow flash write only blocks a
+ * worker once every buffer of the ring is waiting to be written, so the sockets keep reading
+ * through short disk stalls. The ring bounds how many buffers are out at once; the buffers
+ * themselves come from the service-wide {@link BufferPool}, sized by an {@link AdaptiveBufferSizer}.
+ */
+class WritePipeline {
+
+    private static final String TAG = "WritePipeline";
+    private static final long POLL_INTERVAL_MS = 250;
+    // Upper bound for the memory a single download keeps in flight
+    private static final int MAX_IN_FLIGHT_BYTES = 8 * 1024 * 1024;
+
+    interface FailureHandler {
+        void onWriteFailed(IOException e);
+    }
+
+    private static final class WriteRequest {
+        final DownloadSegment segment;
+        final ByteBuffer buffer;
+
+        WriteRequest(DownloadSegment segment, ByteBuffer buffer) {
+            this.segment = segment;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Counters telling which side is the bottleneck: workers waiting for a free buffer means
+     * the disk is too slow, the writer waiting for data means the network is.
+     */
+    static final class Stats {
+        final int queueDepth;
+        final int maxQueueDepth;
+        final int capacity;
+        final long readerStalls;
+        final long readerStallMs;
+        final long writerStalls;
+        final long writerStallMs;
+        final long bytesWritten;
+
+        Stats(int queueDepth, int maxQueueDepth, int capacity, long readerStalls, long readerStallMs,
+              long writerStalls, long writerStallMs, long bytesWritten) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.capacity = capacity;
+            this.readerStalls = readerStalls;
+            this.readerStallMs = readerStallMs;
+            this.writerStalls = writerStalls;
+            this.writerStallMs = writerStallMs;
+            this.bytesWritten = bytesWritten;
+        }
+
+        @Override
+        public String toString() {
+            return "queue=" + queueDepth + "/" + capacity +
+                   " (max " + maxQueueDepth + ")" +
+                   ", readerStalls=" + readerStalls + " (" + readerStallMs + " ms)" +
+                   ", writerStalls=" + writerStalls + " (" + writerStallMs + " ms)" +
+                   ", written=" + bytesWritten;
+        }
+    }
+
+    private final DownloadFileWriter writer;
+    private final FailureHandler failureHandler;
+    private final int capacity;
+    private final BufferPool bufferPool;
+    private final AdaptiveBufferSizer sizer;
+    private final Semaphore freeSlots;
+    private final BlockingQueue<WriteRequest> filledBuffers;
+    private final Object drainLock = new Object();
+
+    private int inFlight = 0; // Guarded by drainLock: submitted and not yet written
+    private volatile boolean closed = false;
+    private volatile int maxQueueDepth = 0;
+    private final AtomicLong readerStalls = new AtomicLong();
+    private final AtomicLong readerStallNanos = new AtomicLong();
+    private final AtomicLong writerStalls = new AtomicLong();
+    private final AtomicLong writerStallNanos = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile StreamingHasher hasher;
+
+    WritePipeline(DownloadFileWriter writer, BufferPool bufferPool, int bufferCount, FailureHandler failureHandler) {
+        this.writer = writer;
+        this.failureHandler = failureHandler;
+        this.capacity = bufferCount;
+        this.bufferPool = bufferPool;
+        this.sizer = new AdaptiveBufferSizer(bufferPool, MAX_IN_FLIGHT_BYTES / bufferCount);
+        this.freeSlots = new Semaphore(bufferCount);
+        this.filledBuffers = new ArrayBlockingQueue<>(bufferCount);
+    }
+
+    // Hashes data that is written in file order as it goes through the writer thread
+    void setHasher(StreamingHasher hasher) {
+        this.hasher = hasher;
+    }
+
+    void start(ExecutorService executor) {
+        executor.execute(this::writerLoop);
+    }
+
+    /**
+     * Takes an empty buffer from the ring, blocking while every buffer is queued for writing.
+     * @return The buffer, or null once the pipeline is closed.
+     */
+    ByteBuffer acquire() throws InterruptedIOException {
+        if (freeSlots.tryAcquire()) {
+            return bufferPool.acquire(sizer.getSize());
+        }
+
+        long waitStart = System.nanoTime();
+        readerStalls.incrementAndGet();
+        try {
+            while (!closed) {
+                if (freeSlots.tryAcquire(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    return bufferPool.acquire(sizer.getSize());
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+        } finally {
+            readerStallNanos.addAndGet(System.nanoTime() - waitStart);
+        }
+    }
+
+    // Gives back a buffer that has nothing (more) to write
+    void release(ByteBuffer buffer) {
+        bufferPool.release(buffer);
+        freeSlots.release();
+    }
+
+    /**
+     * Queues the filled part of the buffer to be written at the segment's position. The buffer
+     * belongs to the pipeline afterwards.
+     */
+    void submit(DownloadSegment segment, ByteBuffer buffer) {
+        buffer.flip();
+        if (!buffer.hasRemaining() || closed) {
+            release(buffer);
+            return;
+        }
+        sizer.onBytesRead(buffer.remaining());
+        segment.addPending(buffer.remaining());
+        synchronized (drainLock) {
+            inFlight++;
+        }
+        // Never blocks: there are only as many buffers as queue slots
+        filledBuffers.add(new WriteRequest(segment, buffer));
+        int depth = filledBuffers.size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    /**
+     * Waits until everything submitted so far is on its way to disk (written to the channel),
+     * or the timeout expires.
+     */
+    boolean drain(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (drainLock) {
+            while (inFlight > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                drainLock.wait(left);
+            }
+        }
+        return true;
+    }
+
+    // Stops the writer thread once the queue is empty; buffers submitted afterwards are dropped
+    void close() {
+        closed = true;
+    }
+
+    Stats getStats() {
+        return new Stats(filledBuffers.size(), maxQueueDepth, capacity,
+                readerStalls.get(), TimeUnit.NANOSECONDS.toMillis(readerStallNanos.get()),
+                writerStalls.get(), TimeUnit.NANOSECONDS.toMillis(writerStallNanos.get()),
+                bytesWritten.get());
+    }
+
+    private void writerLoop() {
+        try {
+            while (true) {
+                WriteRequest request = filledBuffers.poll();
+                if (request == null) {
+                    if (closed) break;
+                    long waitStart = System.nanoTime();
+                    writerStalls.incrementAndGet();
+                    request = filledBuffers.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    writerStallNanos.addAndGet(System.nanoTime() - waitStart);
+                    if (request == null) continue;
+                }
+                write(request);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Writer thread interrupted");
+            closed = true;
+        } finally {
+            // Unblock anyone waiting in drain()
+            synchronized (drainLock) {
+                inFlight = 0;
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    private void write(WriteRequest request) {
+        ByteBuffer buffer = request.buffer;
+        int staged = buffer.remaining();
+        try {
+            // Only this thread moves a segment's position, so this is where the buffer goes
+            long position = request.segment.position();
+            int offset = buffer.position();
+            int written = request.segment.write(writer, buffer);
+            bytesWritten.addAndGet(written);
+            StreamingHasher currentHasher = hasher;
+            if (currentHasher != null && written > 0) {
+                currentHasher.onWritten(position, buffer, offset, written);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Write failed for segment " + request.segment.getIndex(), e);
+            failureHandler.onWriteFailed(e);
+        } finally {
+            request.segment.releasePending(staged);
+            release(buffer);
+            synchronized (drainLock) {
+                inFlight--;
+                if (inFlight <= 0) drainLock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.winlator.Download.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * ZIP extraction with java.util.zip. The central directory gives the uncompressed size up
+ * front, so progress is exact and a volume that cannot hold the result fails before anything
+ * is written. Entries are streamed to disk through one buffer; nothing is held in memory.
+ */
+final class ZipArchiveExtractor implements ArchiveExtractor {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // "PK\3\4": local file header, the start of any non-empty ZIP
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    @Override
+    public boolean canExtract(File archive) {
+        // APKs and JARs are ZIPs too, but are installed or loaded, not unpacked
+        if (!archive.getName().toLowerCase(Locale.US).endsWith(".zip")) return false;
+        try (InputStream in = new FileInputStream(archive)) {
+            int signature = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                if (b < 0) return false;
+                signature |= b << (8 * i);
+            }
+            return signature == LOCAL_HEADER_SIGNATURE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void extract(File archive, File destination, Listener listener) throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            long totalBytes = 0;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                long size = entries.nextElement().getSize();
+                if (size < 0) {
+                    totalBytes = -1;
+                    break;
+                }
+                totalBytes += size;
+            }
+
+            // Checked before creating anything, on the closest folder that exists
+            if (totalBytes > 0) {
+                File volume = destination;
+                while (volume != null && !volume.exists()) {
+                    volume = volume.getParentFile();
+                }
+                long available = volume != null ? volume.getUsableSpace() : 0;
+                if (available < totalBytes) {
+                    throw new InsufficientSpaceException(destination.getPath(), totalBytes, available);
+                }
+            }
+            // Never mixed with files that were already there: a failed extraction removes what it wrote
+            String[] existing = destination.list();
+            if (existing != null && existing.length > 0) {
+                throw new IOException("Destination is not empty: " + destination);
+            }
+            if (!destination.isDirectory() && !destination.mkdirs()) {
+                throw new IOException("Cannot create " + destination);
+            }
+
+            String destinationPath = destination.getCanonicalPath();
+            String root = destinationPath + File.separator;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long bytesDone = 0;
+            listener.onProgress(0, totalBytes);
+
+            entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                if (listener.isCancelled()) {
+                    throw new InterruptedIOException("Extraction cancelled");
+                }
+                ZipEntry entry = entries.nextElement();
+                File target = new File(destination, entry.getName());
+                // "../" or absolute names must not escape the destination (zip slip); "./" is the destination itself
+                String targetPath = target.getCanonicalPath();
+                if (!targetPath.startsWith(root) && !targetPath.equals(destinationPath)) {
+                    throw new IOException("Entry outside of the destination: " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    if (!target.isDirectory() && !target.mkdirs()) {
+                        throw new IOException("Cannot create " + target);
+                    }
+                    continue;
+                }
+                File parent = target.getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Cannot create " + parent);
+                }
+
+                try (InputStream in = zip.getInputStream(entry);
+                     OutputStream out = new FileOutputStream(target)) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                        bytesDone += read;
+                        listener.onProgress(bytesDone, totalBytes);
+                        if (listener.isCancelled()) {
+                            throw new InterruptedIOException("Extraction cancelled");
+                        }
+                    }
+                }
+                if (entry.getTime() > 0) {
+                    target.setLastModified(entry.getTime());
+                }
+            }
+        }
+    }
+}
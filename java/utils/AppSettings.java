@@ -188,6 +188,127 @@ public class AppSettings {
         prefs.edit().putString(PREF_KEY_MAX_CONCURRENT_DOWNLOADS, String.valueOf(limit)).apply();
     }
 
+    // Downloads from the same file host (e.g. gofile.io) allowed to run at once, within the global limit
+    public static final String PREF_KEY_MAX_DOWNLOADS_PER_HOST = "max_downloads_per_host";
+    private static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 2;
+
+    public static int getMaxDownloadsPerHost(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        try {
+            String value = prefs.getString(PREF_KEY_MAX_DOWNLOADS_PER_HOST, String.valueOf(DEFAULT_MAX_DOWNLOADS_PER_HOST));
+            return Math.max(1, Math.min(Integer.parseInt(value), 10));
+        } catch (NumberFormatException e) {
+            return DEFAULT_MAX_DOWNLOADS_PER_HOST;
+        }
+    }
+
+    public static void setMaxDownloadsPerHost(Context context, int limit) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(PREF_KEY_MAX_DOWNLOADS_PER_HOST, String.valueOf(limit)).apply();
+    }
+
+    // Number of parallel connections (byte ranges) used for a single download when the server supports ranges
+    public static final String PREF_KEY_SEGMENTS_PER_DOWNLOAD = "segments_per_download";
+    private static final int DEFAULT_SEGMENTS_PER_DOWNLOAD = 4;
+
+    public static int getSegmentsPerDownload(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        try {
+            String value = prefs.getString(PREF_KEY_SEGMENTS_PER_DOWNLOAD, String.valueOf(DEFAULT_SEGMENTS_PER_DOWNLOAD));
+            int intValue = Integer.parseInt(value);
+            return Math.max(1, Math.min(intValue, 8)); // 1 disables segmented downloads
+        } catch (NumberFormatException e) {
+            return DEFAULT_SEGMENTS_PER_DOWNLOAD;
+        }
+    }
+
+    public static void setSegmentsPerDownload(Context context, int segments) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(PREF_KEY_SEGMENTS_PER_DOWNLOAD, String.valueOf(segments)).apply();
+    }
+
+    // Bandwidth limits in KB/s; 0 means unlimited. The global one is shared by all running downloads.
+    public static final String PREF_KEY_GLOBAL_BANDWIDTH_LIMIT_KBPS = "global_bandwidth_limit_kbps";
+    public static final String PREF_KEY_PER_DOWNLOAD_BANDWIDTH_LIMIT_KBPS = "per_download_bandwidth_limit_kbps";
+
+    public static int getGlobalBandwidthLimitKbps(Context context) {
+        return getBandwidthLimitKbps(context, PREF_KEY_GLOBAL_BANDWIDTH_LIMIT_KBPS);
+    }
+
+    public static void setGlobalBandwidthLimitKbps(Context context, int kbps) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(PREF_KEY_GLOBAL_BANDWIDTH_LIMIT_KBPS, String.valueOf(Math.max(0, kbps))).apply();
+    }
+
+    public static int getPerDownloadBandwidthLimitKbps(Context context) {
+        return getBandwidthLimitKbps(context, PREF_KEY_PER_DOWNLOAD_BANDWIDTH_LIMIT_KBPS);
+    }
+
+    public static void setPerDownloadBandwidthLimitKbps(Context context, int kbps) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(PREF_KEY_PER_DOWNLOAD_BANDWIDTH_LIMIT_KBPS, String.valueOf(Math.max(0, kbps))).apply();
+    }
+
+    // Start the smallest queued download first (within the same priority) instead of the oldest
+    public static final String PREF_KEY_QUEUE_SMALLEST_FIRST = "queue_smallest_first";
+
+    public static boolean getQueueSmallestFirst(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getBoolean(PREF_KEY_QUEUE_SMALLEST_FIRST, false);
+    }
+
+    public static void setQueueSmallestFirst(Context context, boolean smallestFirst) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(PREF_KEY_QUEUE_SMALLEST_FIRST, smallestFirst).apply();
+    }
+
+    // Bundle the notifications of simultaneous downloads under one summary (total speed and time left)
+    public static final String PREF_KEY_GROUP_DOWNLOAD_NOTIFICATIONS = "group_download_notifications";
+
+    public static boolean getGroupDownloadNotifications(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getBoolean(PREF_KEY_GROUP_DOWNLOAD_NOTIFICATIONS, true);
+    }
+
+    public static void setGroupDownloadNotifications(Context context, boolean grouped) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(PREF_KEY_GROUP_DOWNLOAD_NOTIFICATIONS, grouped).apply();
+    }
+
+    // Unpack ZIP archives (and any other registered format) once their download completes
+    public static final String PREF_KEY_AUTO_EXTRACT_ARCHIVES = "auto_extract_archives";
+    // Remove the archive after it was extracted successfully
+    public static final String PREF_KEY_DELETE_ARCHIVE_AFTER_EXTRACT = "delete_archive_after_extract";
+
+    public static boolean getAutoExtractArchives(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getBoolean(PREF_KEY_AUTO_EXTRACT_ARCHIVES, false);
+    }
+
+    public static void setAutoExtractArchives(Context context, boolean extract) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(PREF_KEY_AUTO_EXTRACT_ARCHIVES, extract).apply();
+    }
+
+    public static boolean getDeleteArchiveAfterExtract(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getBoolean(PREF_KEY_DELETE_ARCHIVE_AFTER_EXTRACT, false);
+    }
+
+    public static void setDeleteArchiveAfterExtract(Context context, boolean delete) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(PREF_KEY_DELETE_ARCHIVE_AFTER_EXTRACT, delete).apply();
+    }
+
+    private static int getBandwidthLimitKbps(Context context, String key) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        try {
+            return Math.max(0, Integer.parseInt(prefs.getString(key, "0")));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     public static String getDynamicGofileWt(Context context) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         String cachedWt = prefs.getString(KEY_GOFILE_WT_TOKEN, null);
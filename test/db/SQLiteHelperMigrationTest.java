@@ -0,0 +1,177 @@
+package com.winlator.Download.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Runs the in-place migrations against a real SQLite database: a version 4 database with data
+ * must end up with the same schema as a fresh onCreate, without losing its rows.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SQLiteHelperMigrationTest {
+
+    // Schema of version 4, frozen like the migration steps
+    private static final String[] SCHEMA_V4 = {
+        "CREATE TABLE downloads (_id INTEGER PRIMARY KEY, url TEXT UNIQUE, file_name TEXT, local_path TEXT, " +
+                "total_bytes INTEGER, downloaded_bytes INTEGER, status INTEGER, timestamp INTEGER)",
+        "CREATE TABLE uploads (_id INTEGER PRIMARY KEY, game_name TEXT, file_name TEXT, file_size INTEGER, " +
+                "status TEXT, progress INTEGER, error_message TEXT, start_time INTEGER, uploaded_bytes INTEGER, " +
+                "file_uri TEXT, game_link TEXT)"
+    };
+
+    private SQLiteDatabase migrated;
+    private SQLiteDatabase fresh;
+
+    @Before
+    public void setUp() {
+        migrated = SQLiteDatabase.create(null);
+        fresh = SQLiteDatabase.create(null);
+    }
+
+    @After
+    public void tearDown() {
+        migrated.close();
+        fresh.close();
+    }
+
+    @Test
+    public void migrateFromVersion4MatchesFreshSchema() {
+        createV4(migrated);
+        SQLiteHelper.migrate(migrated, 4, SQLiteHelper.DATABASE_VERSION);
+        SQLiteHelper.getInstance(ApplicationProvider.getApplicationContext()).onCreate(fresh);
+
+        assertEquals(tables(fresh), tables(migrated));
+        for (String table : tables(fresh)) {
+            assertEquals("Columns of " + table, columns(fresh, table), columns(migrated, table));
+            assertEquals("Indexes of " + table, indexes(fresh, table), indexes(migrated, table));
+        }
+    }
+
+    @Test
+    public void migrateFromVersion4KeepsRows() {
+        createV4(migrated);
+        migrated.execSQL("INSERT INTO downloads (_id, url, file_name, local_path, total_bytes, downloaded_bytes, status, timestamp) " +
+                "VALUES (7, 'https://example.com/game.zip', 'game.zip', '/sdcard/game.zip', 1000, 400, 3, 1234)");
+        migrated.execSQL("INSERT INTO uploads (_id, game_name, file_name, file_size, status, progress) " +
+                "VALUES (2, 'Game', 'game.zip', 1000, 'COMPLETED', 100)");
+
+        SQLiteHelper.migrate(migrated, 4, SQLiteHelper.DATABASE_VERSION);
+
+        Cursor cursor = migrated.rawQuery("SELECT url, file_name, local_path, total_bytes, downloaded_bytes, status, " +
+                "timestamp, expected_hash, integrity FROM downloads WHERE _id = 7", null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("https://example.com/game.zip", cursor.getString(0));
+            assertEquals("game.zip", cursor.getString(1));
+            assertEquals("/sdcard/game.zip", cursor.getString(2));
+            assertEquals(1000, cursor.getLong(3));
+            assertEquals(400, cursor.getLong(4));
+            assertEquals(3, cursor.getInt(5));
+            assertEquals(1234, cursor.getLong(6));
+            assertNull(cursor.getString(7));
+            assertEquals(0, cursor.getInt(8));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = migrated.rawQuery("SELECT game_name, status, progress FROM uploads WHERE _id = 2", null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Game", cursor.getString(0));
+            assertEquals("COMPLETED", cursor.getString(1));
+            assertEquals(100, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void createV4(SQLiteDatabase db) {
+        for (String statement : SCHEMA_V4) {
+            db.execSQL(statement);
+        }
+    }
+
+    private static TreeSet<String> tables(SQLiteDatabase db) {
+        TreeSet<String> tables = new TreeSet<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' " +
+                "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tables;
+    }
+
+    // Name -> type, not null, default and primary key. ALTER TABLE appends columns, so the order is left out
+    private static Map<String, String> columns(SQLiteDatabase db, String table) {
+        Map<String, String> columns = new TreeMap<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int name = cursor.getColumnIndexOrThrow("name");
+            int type = cursor.getColumnIndexOrThrow("type");
+            int notNull = cursor.getColumnIndexOrThrow("notnull");
+            int defaultValue = cursor.getColumnIndexOrThrow("dflt_value");
+            int primaryKey = cursor.getColumnIndexOrThrow("pk");
+            while (cursor.moveToNext()) {
+                columns.put(cursor.getString(name), cursor.getString(type) + " notnull=" + cursor.getInt(notNull)
+                        + " default=" + cursor.getString(defaultValue) + " pk=" + cursor.getInt(primaryKey));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    // Index name -> unique flag and indexed columns
+    private static Map<String, String> indexes(SQLiteDatabase db, String table) {
+        Map<String, String> indexes = new TreeMap<>();
+        Cursor cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+        try {
+            int name = cursor.getColumnIndexOrThrow("name");
+            int unique = cursor.getColumnIndexOrThrow("unique");
+            while (cursor.moveToNext()) {
+                String index = cursor.getString(name);
+                indexes.put(index, "unique=" + cursor.getInt(unique) + " " + indexColumns(db, index));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    private static List<String> indexColumns(SQLiteDatabase db, String index) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+        try {
+            int name = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}